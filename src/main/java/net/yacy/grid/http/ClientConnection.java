@@ -262,6 +262,14 @@ public class ClientConnection {
         }
     }
     
+    /**
+     * abort the connection without reading the remaining content, i.e. of a stream which is not finished
+     */
+    public void abort() {
+        this.request.abort();
+        this.request.releaseConnection();
+    }
+
     public void close() {
         HttpEntity httpEntity = this.httpResponse.getEntity();
         if (httpEntity != null) EntityUtils.consumeQuietly(httpEntity);
@@ -25,6 +25,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -37,6 +38,7 @@ import net.yacy.grid.http.APIServer;
 import net.yacy.grid.http.ObjectAPIHandler;
 import net.yacy.grid.http.ServiceResponse;
 import net.yacy.grid.mcp.Service;
+import net.yacy.grid.mcp.api.control.CapacityService;
 import net.yacy.grid.mcp.api.control.LoaderThrottlingService;
 import net.yacy.grid.mcp.api.info.StatusService;
 import net.yacy.grid.tools.MultiProtocolURL;
@@ -49,6 +51,27 @@ public class GridControl {
     private int mcp_port;
 
     private static Map<String, Long> loaderAccess = new ConcurrentHashMap<>();
+    private static Map<String, Capacity> capacities = new ConcurrentHashMap<>();
+    private final static long CAPACITY_TIMEOUT = 60000; // capacity reports older than this are from instances which are gone
+
+    private static class Capacity {
+        private final String service;
+        private final double rate;
+        private final long free;
+        private final String[] targets;
+        private final long time;
+        private Capacity(String service, double rate, long free, String[] targets) {
+            this.service = service;
+            this.rate = rate;
+            this.free = free;
+            this.targets = targets;
+            this.time = System.currentTimeMillis();
+        }
+        private boolean produces(String target) {
+            for (String t: this.targets) if (t.equals(target)) return true;
+            return false;
+        }
+    }
 
     public GridControl() {
         this.mcp_host = null;
@@ -144,6 +167,61 @@ public class GridControl {
         }
     }
 
+    /**
+     * Register the capacity of a service instance and compute the capacity of the target services.
+     * The consumption rates of all instances of a service are added, the free capacity is the lowest
+     * of all instances because they share the same queues.
+     * The capacity of a target is shared by all live instances which produce messages for it, so each
+     * of them gets its part: rate and free are divided by the number of producers.
+     * @param service the name of the reporting service or an empty string if it only asks for the targets
+     * @param instance the id of the reporting instance
+     * @param rate the number of messages the instance consumes per second
+     * @param free the number of messages the source queues of the instance can take until they reach their target depth, can be negative
+     * @param targets the names of the services which shall be reported
+     * @return an object with the rate and free values of the share of the reporting instance and the number of
+     *         instances and producers for each target which has reported a capacity
+     */
+    public static JSONObject computeCapacity(String service, String instance, double rate, long free, String[] targets) {
+        if (service.length() > 0 && instance.length() > 0) capacities.put(service + "/" + instance, new Capacity(service, rate, free, targets));
+        long now = System.currentTimeMillis();
+        Iterator<Capacity> i = capacities.values().iterator();
+        while (i.hasNext()) if (now - i.next().time > CAPACITY_TIMEOUT) i.remove();
+        JSONObject json = new JSONObject(true);
+        for (String target: targets) {
+            double r = 0.0d;
+            long f = Long.MAX_VALUE;
+            int instances = 0, producers = 0;
+            for (Capacity c: capacities.values()) {
+                if (c.produces(target)) producers++;
+                if (!c.service.equals(target)) continue;
+                r += c.rate;
+                f = Math.min(f, c.free);
+                instances++;
+            }
+            producers = Math.max(1, producers); // a client which only asks counts as one producer
+            if (instances > 0) json.put(target, new JSONObject(true).put("rate", r / producers).put("free", f / producers).put("instances", instances).put("producers", producers));
+        }
+        return json;
+    }
+
+    public JSONObject reportCapacity(String service, String instance, double rate, long free, String[] targets) throws IOException {
+        if (this.mcp_host == null) return computeCapacity(service, instance, rate, free, targets); // no MCP, this is the only instance
+        final Map<String, byte[]> params = new HashMap<>();
+        params.put("serviceName", service.getBytes(StandardCharsets.UTF_8));
+        params.put("instance", instance.getBytes(StandardCharsets.UTF_8));
+        params.put("rate", Double.toString(rate).getBytes(StandardCharsets.UTF_8));
+        params.put("free", Long.toString(free).getBytes(StandardCharsets.UTF_8));
+        params.put("targets", String.join(",", targets).getBytes(StandardCharsets.UTF_8));
+        String protocolhostportstub = GridControl.this.getConnectionURL();
+        ServiceResponse sr = APIServer.getAPI(CapacityService.NAME).serviceImpl(protocolhostportstub, params);
+        JSONObject response = sr.getObject();
+        if (response.has(ObjectAPIHandler.SUCCESS_KEY) && response.getBoolean(ObjectAPIHandler.SUCCESS_KEY)) {
+            return response.getJSONObject(CapacityService.CAPACITIES_KEY);
+        } else {
+            throw new IOException(response.optString(ObjectAPIHandler.COMMENT_KEY, "capacity not available"));
+        }
+    }
+
     public static void main(String args[]) {
         // burn-in test
         List<Class<? extends Servlet>> services = new ArrayList<>();
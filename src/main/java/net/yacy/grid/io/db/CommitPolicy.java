@@ -0,0 +1,74 @@
+/**
+ *  CommitPolicy
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.db;
+
+/**
+ * The commit policy of a transactional database.
+ * - sync: every write operation is committed at once
+ * - group: writes are gathered for a time window or up to a number of writes and then committed together;
+ *   every writer waits for the commit which contains its write
+ * - relaxed: like group, but writers do not wait for the commit. Writes of the last window may be lost on a crash.
+ */
+public class CommitPolicy {
+
+    public enum Mode {sync, group, relaxed}
+
+    public final static CommitPolicy SYNC = new CommitPolicy(Mode.sync, 0, 1);
+
+    private final Mode mode;
+    private final long window;
+    private final int count;
+
+    /**
+     * @param mode the commit mode
+     * @param window the minimum time in milliseconds between two commits
+     * @param count the number of writes which triggers a commit before the window has passed
+     */
+    public CommitPolicy(Mode mode, long window, int count) {
+        this.mode = mode;
+        this.window = Math.max(1, window);
+        this.count = Math.max(1, count);
+    }
+
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    public long getWindow() {
+        return this.window;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public static CommitPolicy parse(String mode, long window, int count) {
+        try {
+            return new CommitPolicy(Mode.valueOf(mode), window, count);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return SYNC;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.mode.name() + "(" + this.window + "ms/" + this.count + ")";
+    }
+}
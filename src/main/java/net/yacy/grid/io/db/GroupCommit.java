@@ -0,0 +1,146 @@
+/**
+ *  GroupCommit
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.db;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.mapdb.DB;
+
+import net.yacy.grid.mcp.Data;
+
+/**
+ * Commits a mapdb transaction according to a commit policy.
+ * In group mode a commit starts at most once per window, unless the count of pending writes is reached.
+ * The first writer which finds the window elapsed commits for all writers which are waiting; the others
+ * wait for that commit. An idle database therefore commits a single write at once, while under load the
+ * writes of a window share one commit. In relaxed mode the commits are done by a shared timer thread.
+ */
+public class GroupCommit {
+
+    private final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "GroupCommit timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final DB db;
+    private final CommitPolicy policy;
+    private long writeSeq, commitSeq, lastCommit;
+    private boolean committing;
+    private final ScheduledFuture<?> flushTask;
+
+    public GroupCommit(DB db, CommitPolicy policy) {
+        this.db = db;
+        this.policy = policy;
+        this.writeSeq = 0;
+        this.commitSeq = 0;
+        this.lastCommit = 0;
+        this.committing = false;
+        this.flushTask = policy.getMode() == CommitPolicy.Mode.relaxed ?
+                timer.scheduleWithFixedDelay(() -> flush(), policy.getWindow(), policy.getWindow(), TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * must be called after each write operation
+     * @throws IOException if the thread was interrupted while it waited for the commit; then the write is not durable
+     */
+    public void commit() throws IOException {
+        if (this.policy.getMode() == CommitPolicy.Mode.sync) {
+            this.db.commit();
+            return;
+        }
+        long seq;
+        boolean full;
+        synchronized (this) {
+            seq = ++this.writeSeq;
+            full = seq - this.commitSeq == this.policy.getCount();
+            if (full) this.notifyAll();
+        }
+        if (this.policy.getMode() == CommitPolicy.Mode.relaxed) {
+            if (full) timer.execute(() -> flush());
+            return;
+        }
+        awaitCommit(seq);
+    }
+
+    private void awaitCommit(long seq) throws IOException {
+        while (true) {
+            long target;
+            synchronized (this) {
+                if (this.commitSeq >= seq) return;
+                long wait = this.lastCommit + this.policy.getWindow() - System.currentTimeMillis();
+                if (this.committing || (this.writeSeq - this.commitSeq < this.policy.getCount() && wait > 0)) {
+                    try {
+                        this.wait(this.committing ? this.policy.getWindow() : wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for the commit");
+                    }
+                    continue;
+                }
+                this.committing = true;
+                this.lastCommit = System.currentTimeMillis();
+                target = this.writeSeq;
+            }
+            commitUpTo(target);
+        }
+    }
+
+    private void commitUpTo(long target) {
+        try {
+            this.db.commit();
+        } finally {
+            synchronized (this) {
+                this.committing = false;
+                this.commitSeq = Math.max(this.commitSeq, target);
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * commit all pending writes
+     */
+    public void flush() {
+        long target;
+        synchronized (this) {
+            if (this.committing || this.writeSeq == this.commitSeq) return;
+            this.committing = true;
+            this.lastCommit = System.currentTimeMillis();
+            target = this.writeSeq;
+        }
+        try {
+            commitUpTo(target);
+        } catch (Throwable e) {
+            Data.logger.warn("GroupCommit: commit failed", e);
+        }
+    }
+
+    /**
+     * stop the timer; the caller must commit the database before it is closed
+     */
+    public void close() {
+        if (this.flushTask != null) this.flushTask.cancel(false);
+    }
+}
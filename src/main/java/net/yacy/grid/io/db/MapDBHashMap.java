@@ -21,6 +21,7 @@ package net.yacy.grid.io.db;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -34,13 +35,30 @@ public class MapDBHashMap implements CloseableMap<String, String> {
 
     private DB db;
     private HTreeMap<String, String> hashMap;
+    private GroupCommit committer;
     
     public MapDBHashMap(File f) {
+        this(f, CommitPolicy.SYNC);
+    }
+
+    public MapDBHashMap(File f, CommitPolicy policy) {
         this.db = DBMaker.fileDB(f).closeOnJvmShutdown().transactionEnable().make();
         this.hashMap = db.hashMap(f.getName())
                 .keySerializer(Serializer.STRING)
                 .valueSerializer(Serializer.STRING)
                 .createOrOpen();
+        this.committer = new GroupCommit(this.db, policy);
+    }
+
+    /**
+     * commit a write according to the commit policy; the Map interface does not allow a checked exception
+     */
+    private void commit() {
+        try {
+            this.committer.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
@@ -70,22 +88,28 @@ public class MapDBHashMap implements CloseableMap<String, String> {
 
     @Override
     public String put(String key, String value) {
-        return this.hashMap.put(key, value);
+        String s = this.hashMap.put(key, value);
+        commit();
+        return s;
     }
 
     @Override
     public String remove(Object key) {
-        return this.hashMap.remove(key);
+        String s = this.hashMap.remove(key);
+        commit();
+        return s;
     }
 
     @Override
     public void putAll(Map<? extends String, ? extends String> m) {
         this.hashMap.putAll(m);
+        commit();
     }
 
     @Override
     public void clear() {
         this.hashMap.clear();
+        commit();
     }
 
     @SuppressWarnings("unchecked")
@@ -107,6 +131,8 @@ public class MapDBHashMap implements CloseableMap<String, String> {
 
     @Override
     public void close() throws IOException {
+        this.committer.close();
+        this.db.commit();
         this.hashMap.close();
         this.db.close();
     }
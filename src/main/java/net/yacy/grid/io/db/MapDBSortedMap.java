@@ -21,6 +21,7 @@ package net.yacy.grid.io.db;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -36,13 +37,30 @@ public class MapDBSortedMap implements NavigableCloseableMap<Long, byte[]>, Clos
 
     private DB db;
     private BTreeMap<Long, byte[]> treeMap;
+    private GroupCommit committer;
 
     public MapDBSortedMap(File f) {
+        this(f, CommitPolicy.SYNC);
+    }
+
+    public MapDBSortedMap(File f, CommitPolicy policy) {
         this.db = DBMaker.fileDB(f).closeOnJvmShutdown().transactionEnable().make();
         this.treeMap = db.treeMap(f.getName())
                 .keySerializer(Serializer.LONG)
                 .valueSerializer(Serializer.BYTE_ARRAY)
                 .createOrOpen();
+        this.committer = new GroupCommit(this.db, policy);
+    }
+
+    /**
+     * commit a write according to the commit policy; the Map interface does not allow a checked exception
+     */
+    private void commit() {
+        try {
+            this.committer.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
@@ -73,27 +91,27 @@ public class MapDBSortedMap implements NavigableCloseableMap<Long, byte[]>, Clos
     @Override
     public byte[] put(Long key, byte[] value) {
         byte[] b = this.treeMap.put(key, value);
-    	this.db.commit();
+    	commit();
     	return b;
     }
 
     @Override
     public byte[] remove(Object key) {
     	byte[] b = this.treeMap.remove(key);
-    	this.db.commit();
+    	commit();
     	return b;
     }
 
     @Override
     public void putAll(Map<? extends Long, ? extends byte[]> m) {
         this.treeMap.putAll(m);
-    	this.db.commit();
+    	commit();
     }
 
     @Override
     public void clear() {
         this.treeMap.clear();
-    	this.db.commit();
+    	commit();
     }
 
     @SuppressWarnings("unchecked")
@@ -125,16 +143,21 @@ public class MapDBSortedMap implements NavigableCloseableMap<Long, byte[]>, Clos
 
     @Override
     public java.util.Map.Entry<Long, byte[]> pollFirstEntry() {
-        return this.treeMap.pollFirstEntry();
+        java.util.Map.Entry<Long, byte[]> entry = this.treeMap.pollFirstEntry();
+        if (entry != null) commit();
+        return entry;
     }
 
     @Override
     public java.util.Map.Entry<Long, byte[]> pollLastEntry() {
-        return this.treeMap.pollLastEntry();
+        java.util.Map.Entry<Long, byte[]> entry = this.treeMap.pollLastEntry();
+        if (entry != null) commit();
+        return entry;
     }
 
     @Override
     public void close() throws IOException {
+        this.committer.close();
     	this.db.commit();
         this.treeMap.close();
         this.db.close();
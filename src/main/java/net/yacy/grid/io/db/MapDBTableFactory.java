@@ -30,15 +30,18 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MapDBTableFactory implements TableFactory {
 
     private File location;
+    private CommitPolicy commitPolicy;
     private Map<String, MapTable> tables;
     
     /**
      * initialize a table factory. All tables will be stored at the
      * given path as files
      * @param storageLocationPath the storage location for the tables
+     * @param commitPolicy the commit policy of the tables
      */
-    public MapDBTableFactory(File storageLocationPath) {
+    public MapDBTableFactory(File storageLocationPath, CommitPolicy commitPolicy) {
         this.location = storageLocationPath;
+        this.commitPolicy = commitPolicy;
         this.location.mkdirs();
         this.tables = new ConcurrentHashMap<>();
     }
@@ -58,7 +61,7 @@ public class MapDBTableFactory implements TableFactory {
         synchronized (this) {
             table = tables.get(databaseName);
             if (table != null) return table;
-            table = new MapTable(new MapDBHashMap(new File(this.location, databaseName)));
+            table = new MapTable(new MapDBHashMap(new File(this.location, databaseName), this.commitPolicy));
             this.tables.put(databaseName, table);
             return table;
         }
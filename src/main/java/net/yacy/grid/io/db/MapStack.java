@@ -23,8 +23,10 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import net.yacy.grid.mcp.Data;
@@ -65,6 +67,16 @@ public class MapStack<A> implements Stack<A> {
         return this;
     }
 
+    @Override
+    public MapStack<A> push(List<A> values) {
+        // collect the batch first to write it with a single putAll (and a single commit on a transactional map)
+        Map<Long, A> m = new TreeMap<>();
+        long time = System.currentTimeMillis();
+        for (A value: values) m.put(time + this.cc.incrementAndGet(), value);
+        this.map.putAll(m);
+        return this;
+    }
+
     @Override
     public A bot() {
         return this.map.firstEntry().getValue();
@@ -28,10 +28,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class PeerDatabase implements Database {
 
     private File basePath;
+    private CommitPolicy commitPolicy;
     private Map<String, TableFactory> dbConnector;
     
-    public PeerDatabase(File basePath) {
+    public PeerDatabase(File basePath, CommitPolicy commitPolicy) {
         this.basePath = basePath;
+        this.commitPolicy = commitPolicy;
         this.dbConnector = new ConcurrentHashMap<>();
     }
     
@@ -43,7 +45,7 @@ public class PeerDatabase implements Database {
             if (tableFactory != null)  return tableFactory;
             File clientPath = new File(this.basePath, serviceName);
             clientPath.mkdirs();
-            tableFactory = new MapDBTableFactory(clientPath);
+            tableFactory = new MapDBTableFactory(clientPath, this.commitPolicy);
             this.dbConnector.put(serviceName, tableFactory);
         }
         return tableFactory;
@@ -21,6 +21,7 @@ package net.yacy.grid.io.db;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Interface for a stack which provides FIFO and FILO functionality
@@ -53,6 +54,13 @@ public interface Stack<A> extends Closeable {
      */
     public Stack<A> push(A value);
 
+    /**
+     * add several values on top of the queue in one operation
+     * @param values
+     * @return the stack
+     */
+    public Stack<A> push(List<A> values);
+
     /**
      * get the first entry in the stack without removing it
      * @return the first entry in the stack
@@ -20,11 +20,12 @@
 package net.yacy.grid.io.messages;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -35,15 +36,40 @@ public abstract class AbstractBroker<A> implements Broker<A> {
 
     private final static Random random = new Random();
     private final Map<Services, AtomicInteger> roundRobinLookup = new ConcurrentHashMap<>();
-    private final Map<Services, Map<String, Integer>> leastFilledLookup = new ConcurrentHashMap<>();
-    private final Map<Services, Set<String>> switchedIDsMap = new ConcurrentHashMap<>();
-    
+    private final AffinityTable affinity;
+    private final QueueMonitor monitor;
+
+    /**
+     * @param affinity the table which holds the queue assignments of the LOOKUP and BALANCE sharding methods
+     * @param monitorInterval the time in milliseconds between two samples of the queue depths
+     */
+    public AbstractBroker(AffinityTable affinity, long monitorInterval) {
+        this.affinity = affinity;
+        this.monitor = new QueueMonitor((service, queues) -> sampleAvailable(service, queues), monitorInterval);
+    }
+
+    public AffinityTable getAffinity() {
+        return this.affinity;
+    }
+
+    public QueueMonitor getQueueMonitor() {
+        return this.monitor;
+    }
+
     @Override
     public abstract void close() throws IOException;
 
     @Override
     public abstract QueueFactory<A> send(final Services service, final GridQueue queue, final byte[] message) throws IOException;
 
+    @Override
+    public abstract QueueFactory<A> send(final Services service, final GridQueue queue, final List<byte[]> messages) throws IOException;
+
+    @Override
+    public CompletableFuture<QueueFactory<A>> sendAsync(final Services service, final GridQueue queue, final byte[] message) throws IOException {
+        return CompletableFuture.completedFuture(send(service, queue, message));
+    }
+
     @Override
     public QueueFactory<A> send(final Services service, final GridQueue[] queues, final ShardingMethod shardingMethod, int[] priorityDimensions, int priority, final String hashingKey, final byte[] message) throws IOException {
         return send(service, queueName(service, queues, shardingMethod, priorityDimensions, priority, hashingKey), message);
@@ -69,6 +95,9 @@ public abstract class AbstractBroker<A> implements Broker<A> {
             case HASH:
                 idx = hash(service, psq, hashingKey);
                 break;
+            case CONSISTENT_HASH:
+                idx = consistentHash(service, psq, hashingKey);
+                break;
             case LOOKUP:
                 idx = lookup(service, psq, hashingKey);
                 break;
@@ -94,30 +123,40 @@ public abstract class AbstractBroker<A> implements Broker<A> {
     @Override
     public abstract MessageContainer<A> receive(final Services service, final GridQueue queue, long timeout, boolean autoAck) throws IOException;
 
+    @Override
+    public abstract List<MessageContainer<A>> receive(final Services service, final GridQueue queue, int maxMessages, long timeout, boolean autoAck) throws IOException;
+
+    @Override
+    public abstract QueueFactory<A> acknowledgeUpTo(final Services service, final GridQueue queue, long deliveryTag) throws IOException;
+
     @Override
     public abstract AvailableContainer available(final Services service, final GridQueue queue) throws IOException;
 
-    private Map<String, AvailableContainer> acbuffers = new ConcurrentHashMap<>();
-    private Map<String, Long> actime = new ConcurrentHashMap<>();
     public AvailableContainer bufferedAvailable(final Services service, final GridQueue queue) throws IOException {
-        String bkey = service.name() + "_" + queue.name();
-        Long lacc = actime.get(bkey);
-        long laccl = lacc == null ? 0 : lacc.longValue();
-        long now = System.currentTimeMillis();
-        AvailableContainer ac = acbuffers.get(bkey);
-        if (ac == null || now - laccl > 10000) {
-            ac = available(service, queue);
-            acbuffers.put(bkey, ac);
-            actime.put(bkey, now);
-        }
-        return ac;
+        return this.monitor.available(service, new GridQueue[]{queue})[0];
     }
-    
+
+    /**
+     * get the number of available messages of queues as sampled by the queue monitor. This does not wait
+     * for the broker unless a queue is requested the first time.
+     */
     @Override
     public AvailableContainer[] available(final Services service, final GridQueue[] queues) throws IOException {
+        return this.monitor.available(service, queues);
+    }
+
+    /**
+     * count the available messages of several queues on the broker; this is called by the queue monitor.
+     * Brokers which can count several queues with one request should overwrite this.
+     * @param service the name of the grid service
+     * @param queues the queues of the service
+     * @return an array of the number of pending messages
+     * @throws IOException
+     */
+    protected AvailableContainer[] sampleAvailable(final Services service, final GridQueue[] queues) throws IOException {
         AvailableContainer[] ac = new AvailableContainer[queues.length];
         for (int i = 0; i < queues.length; i++) {
-            ac[i] = bufferedAvailable(service, queues[i]);
+            ac[i] = available(service, queues[i]);
         }
         return ac;
     }
@@ -160,60 +199,89 @@ public abstract class AbstractBroker<A> implements Broker<A> {
     }
     
     private int hash(final Services service, final GridQueue[] queues, final String hashingKey) throws IOException {
-        return hashingKey.hashCode() % queues.length;
+        return Math.floorMod(hashingKey.hashCode(), queues.length);
+    }
+
+    /**
+     * jump consistent hashing (Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm"):
+     * if the number of queues grows from n to n+1, only 1/(n+1) of the hashing keys move, all to the new queue.
+     * The digest of the hashing key does not depend on the jvm, so all peers compute the same queue.
+     * @param service
+     * @param queues
+     * @param hashingKey
+     * @return the index of the queue
+     * @throws IOException
+     */
+    private int consistentHash(final Services service, final GridQueue[] queues, final String hashingKey) throws IOException {
+        long key = digest(hashingKey);
+        long b = -1, j = 0;
+        while (j < queues.length) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    /**
+     * a stable 64-bit digest of a string: FNV-1a of the UTF-8 bytes with a final avalanche mix
+     * @param s
+     * @return the digest
+     */
+    private static long digest(final String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b: s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
     
+    private static long affinityKey(final Services service, final String hashingKey) {
+        return digest(service.name() + "/" + hashingKey);
+    }
+
     private int lookup(final Services service, final GridQueue[] queues, final String hashingKey) throws IOException {
         if (queues.length == 1) return 0;
-        Map<String, Integer> lookupMap = this.leastFilledLookup.get(service);
-        if (lookupMap == null) {
-            lookupMap = new ConcurrentHashMap<>();
-            this.leastFilledLookup.put(service, lookupMap);
-        }
-        Integer lookupIndex = lookupMap.get(hashingKey);
-        if (lookupIndex == null) {
-            AvailableContainer[] available = available(service, queues);
-            lookupIndex = leastFilled(available);
-            lookupMap.put(hashingKey, lookupIndex);
-        }
+        long key = affinityKey(service, hashingKey);
+        int entry = this.affinity.get(key);
+        // an assignment to a queue which does not exist any more is ignored
+        if (entry >= 0 && AffinityTable.queue(entry) < queues.length) return AffinityTable.queue(entry);
+        AvailableContainer[] available = available(service, queues);
+        int lookupIndex = leastFilled(available);
+        this.affinity.put(key, lookupIndex, false);
         return lookupIndex;
     }
     
     private int balance(final Services service, final GridQueue[] queues, final String hashingKey) throws IOException {
         if (queues.length == 1) return 0;
-        Map<String, Integer> lookupMap = this.leastFilledLookup.get(service);
-        if (lookupMap == null) {
-            lookupMap = new ConcurrentHashMap<>();
-            this.leastFilledLookup.put(service, lookupMap);
-        }
-        Integer lookupIndex = lookupMap.get(hashingKey);
+        long key = affinityKey(service, hashingKey);
+        int entry = this.affinity.get(key);
         AvailableContainer[] available = available(service, queues);
         // because this available object comes from a buffered object which may be outdated right now already it is important to pick random elements out of it!
         assert available.length == queues.length;
         int leastFilled = leastFilled(available);
         assert leastFilled < queues.length;
-        if (lookupIndex == null) {
+        if (entry < 0 || AffinityTable.queue(entry) >= queues.length) {
             // find a new queue with least entries
+            this.affinity.put(key, leastFilled, false);
+            return leastFilled;
+        }
+        int lookupIndex = AffinityTable.queue(entry);
+        // Check if this hashing key was never switched to a different queue
+        // and if an empty queue exist: then switch to that queue to balance all queues.
+        // That means also that every domain may only switched once
+        if (available[lookupIndex].getAvailable() > 100 && available[leastFilled].getAvailable() == 0 && !AffinityTable.isSwitched(entry)) {
+            // switch to leastFilled
+            Data.logger.info("AbstractBroker switching " + hashingKey + " from " + lookupIndex + " to " + leastFilled);
             lookupIndex = leastFilled;
-            lookupMap.put(hashingKey, lookupIndex);
-        } else {
-            // Check if this hashing key was never switched to a different queue
-            // and if an empty queue exist: then switch to that queue to balance all queues.
-            // That means also that every domain may only switched once
-            Set<String> switchedIDs = switchedIDsMap.get(service);
-            if (switchedIDs == null) {
-                switchedIDs = ConcurrentHashMap.newKeySet();
-                switchedIDsMap.put(service, switchedIDs);
-            }
-            if (available[lookupIndex].getAvailable() > 100 && available[leastFilled].getAvailable() == 0 && !switchedIDs.contains(hashingKey)) {
-                switchedIDs.add(hashingKey);
-                // switch to leastFilled
-                Data.logger.info("AbstractBroker switching " + hashingKey + " from " + lookupIndex + " to " + leastFilled);
-                lookupIndex = leastFilled;
-                lookupMap.put(hashingKey, lookupIndex);
-            }
+            this.affinity.put(key, lookupIndex, true);
         }
-        assert lookupIndex < queues.length;
         return lookupIndex;
     }
     
@@ -20,9 +20,41 @@
 package net.yacy.grid.io.messages;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class AbstractQueue<A> implements Queue<A> {
 
+    @Override
+    public Queue<A> send(List<A> messages) throws IOException {
+        for (A message: messages) send(message);
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(A message) throws IOException {
+        // a queue which stores the message while it is sent has nothing to wait for
+        send(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public List<MessageContainer<A>> receive(int maxMessages, long timeout, boolean autoAck) throws IOException {
+        List<MessageContainer<A>> messages = new ArrayList<>();
+        MessageContainer<A> mc = receive(timeout, autoAck);
+        if (mc == null) return messages;
+        messages.add(mc);
+        // take only what is available right now
+        long available = available();
+        while (messages.size() < maxMessages && available-- > 0) {
+            mc = receive(1, autoAck);
+            if (mc == null) break;
+            messages.add(mc);
+        }
+        return messages;
+    }
+
     @Override
     public void clear() throws IOException {
         long count = available();
@@ -0,0 +1,226 @@
+/**
+ *  AffinityTable
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.yacy.grid.mcp.Data;
+
+/**
+ * A bounded table which assigns hashing keys (i.e. host names) to the index of a queue.
+ * The keys are stored as 64-bit digests in primitive arrays. The table is set-associative like a cpu cache:
+ * a key can only be stored in the WAYS slots of its bucket, and if the bucket is full, the least recently used
+ * entry of the bucket is evicted. The memory of the table is therefore fixed to 16 bytes per entry.
+ * The table is written to a snapshot file periodically and when it is closed, and loaded from it again on start.
+ */
+public class AffinityTable {
+
+    public final static int SWITCHED = 1 << 30; // flag in an entry: the key was moved to another queue once
+
+    private final static int WAYS = 8;
+    private final static int LOCKS = 64;
+    private final static int MAGIC = 0x41464654; // "AFFT"
+    private final static long SNAPSHOT_INTERVAL = 60000;
+
+    private final File snapshotFile;
+    private final int buckets;
+    private final long[] keys;
+    private final int[] entries;
+    private final int[] stamps;
+    private final Object[] locks;
+    private final AtomicInteger clock, size;
+    private volatile boolean dirty, shallRun;
+    private final Thread snapshotThread;
+
+    /**
+     * create an affinity table
+     * @param snapshotFile the file where the table is stored; if null, the table is not persistent
+     * @param capacity the maximum number of entries
+     */
+    public AffinityTable(File snapshotFile, int capacity) {
+        this.snapshotFile = snapshotFile;
+        this.buckets = Math.max(1, (capacity + WAYS - 1) / WAYS);
+        this.keys = new long[this.buckets * WAYS];
+        this.entries = new int[this.buckets * WAYS];
+        this.stamps = new int[this.buckets * WAYS];
+        this.locks = new Object[LOCKS];
+        for (int i = 0; i < LOCKS; i++) this.locks[i] = new Object();
+        this.clock = new AtomicInteger(0);
+        this.size = new AtomicInteger(0);
+        this.dirty = false;
+        this.shallRun = true;
+        if (snapshotFile != null && snapshotFile.exists()) load();
+        if (snapshotFile == null) {
+            this.snapshotThread = null;
+        } else {
+            this.snapshotThread = new Thread("AffinityTable snapshot") {
+                @Override
+                public void run() {
+                    while (AffinityTable.this.shallRun) {
+                        try {Thread.sleep(SNAPSHOT_INTERVAL);} catch (InterruptedException e) {return;}
+                        if (AffinityTable.this.dirty) snapshot();
+                    }
+                }
+            };
+            this.snapshotThread.setDaemon(true);
+            this.snapshotThread.start();
+        }
+    }
+
+    public static int queue(int entry) {
+        return entry & (SWITCHED - 1);
+    }
+
+    public static boolean isSwitched(int entry) {
+        return (entry & SWITCHED) != 0;
+    }
+
+    public int size() {
+        return this.size.get();
+    }
+
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * get the entry of a key
+     * @param key the digest of a hashing key
+     * @return the entry, which consists of the queue index and the SWITCHED flag, or -1 if the key is unknown
+     */
+    public int get(long key) {
+        if (key == 0) key = 1; // 0 marks an empty slot
+        int b = bucket(key);
+        synchronized (this.locks[b % LOCKS]) {
+            for (int i = b * WAYS; i < (b + 1) * WAYS; i++) {
+                if (this.keys[i] == key) {
+                    this.stamps[i] = this.clock.incrementAndGet();
+                    return this.entries[i];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * set the queue of a key
+     * @param key the digest of a hashing key
+     * @param queue the queue index
+     * @param switched true if the key was moved to another queue
+     */
+    public void put(long key, int queue, boolean switched) {
+        if (key == 0) key = 1;
+        int entry = queue | (switched ? SWITCHED : 0);
+        int b = bucket(key);
+        synchronized (this.locks[b % LOCKS]) {
+            int stamp = this.clock.incrementAndGet();
+            int slot = -1, empty = -1, lru = -1, oldest = -1;
+            for (int i = b * WAYS; i < (b + 1) * WAYS; i++) {
+                if (this.keys[i] == key) {slot = i; break;}
+                if (this.keys[i] == 0) {
+                    if (empty < 0) empty = i;
+                } else {
+                    int age = stamp - this.stamps[i]; // this is safe against an overflow of the clock
+                    if (age > oldest) {lru = i; oldest = age;}
+                }
+            }
+            if (slot < 0) slot = empty >= 0 ? empty : lru;
+            if (this.keys[slot] == 0) this.size.incrementAndGet();
+            this.keys[slot] = key;
+            this.entries[slot] = entry;
+            this.stamps[slot] = stamp;
+        }
+        this.dirty = true;
+    }
+
+    private int bucket(long key) {
+        return (int) Long.remainderUnsigned(key, this.buckets);
+    }
+
+    /**
+     * write all entries to the snapshot file. The file is written to a temporary file first and then
+     * moved, so a crash during the snapshot does not destroy the previous one.
+     */
+    public void snapshot() {
+        if (this.snapshotFile == null) return;
+        this.dirty = false;
+        File tmp = new File(this.snapshotFile.getParentFile(), this.snapshotFile.getName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+            os.writeInt(MAGIC);
+            long[] k = new long[WAYS];
+            int[] e = new int[WAYS];
+            for (int b = 0; b < this.buckets; b++) {
+                synchronized (this.locks[b % LOCKS]) {
+                    System.arraycopy(this.keys, b * WAYS, k, 0, WAYS);
+                    System.arraycopy(this.entries, b * WAYS, e, 0, WAYS);
+                }
+                for (int i = 0; i < WAYS; i++) {
+                    if (k[i] == 0) continue;
+                    os.writeLong(k[i]);
+                    os.writeInt(e[i]);
+                }
+            }
+            os.writeLong(0); // end mark
+        } catch (IOException e) {
+            this.dirty = true;
+            Data.logger.warn("AffinityTable: cannot write snapshot " + tmp, e);
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), this.snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.dirty = true;
+            Data.logger.warn("AffinityTable: cannot move snapshot to " + this.snapshotFile, e);
+        }
+    }
+
+    private void load() {
+        int count = 0;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(this.snapshotFile), 65536))) {
+            if (is.readInt() != MAGIC) throw new IOException("bad magic");
+            long key;
+            while ((key = is.readLong()) != 0) {
+                int entry = is.readInt();
+                put(key, queue(entry), isSwitched(entry));
+                count++;
+            }
+        } catch (IOException e) {
+            Data.logger.warn("AffinityTable: snapshot " + this.snapshotFile + " is broken, loaded " + count + " entries", e);
+        }
+        this.dirty = false;
+        Data.logger.info("AffinityTable: loaded " + this.size() + " entries from " + this.snapshotFile);
+    }
+
+    public void close() {
+        this.shallRun = false;
+        if (this.snapshotThread != null) this.snapshotThread.interrupt();
+        if (this.dirty) snapshot();
+    }
+}
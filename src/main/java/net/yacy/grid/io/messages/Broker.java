@@ -21,6 +21,8 @@ package net.yacy.grid.io.messages;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import net.yacy.grid.Services;
 
@@ -45,6 +47,29 @@ public interface Broker<A> extends Closeable {
      */
     public QueueFactory<A> send(Services service, GridQueue queue, byte[] message) throws IOException;
 
+    /**
+     * send several messages to the broker in one operation
+     * @param service the name of the grid service
+     * @param queue the queue of the service
+     * @param messages the messages to be posted at the broker
+     * @return the Queue Factory which was used to create this broker
+     * @throws IOException
+     */
+    public QueueFactory<A> send(Services service, GridQueue queue, List<byte[]> messages) throws IOException;
+
+    /**
+     * send a message to the broker without waiting for the confirmation of the broker.
+     * Messages which were received and which caused this message must be acknowledged only after the
+     * returned future is completed; otherwise a crash or a rejection by the broker loses the message.
+     * @param service the name of the grid service
+     * @param queue the queue of the service
+     * @param message the message to be posted at the broker
+     * @return a future which is completed with the Queue Factory which stored the message, or completed exceptionally
+     *         with an IOException if the message was lost after it was sent; then the caller must send it again
+     * @throws IOException if the message cannot be sent
+     */
+    public CompletableFuture<QueueFactory<A>> sendAsync(Services service, GridQueue queue, byte[] message) throws IOException;
+
     /**
      * send a message to the broker
      * @param service the name of the grid service
@@ -82,6 +107,18 @@ public interface Broker<A> extends Closeable {
      */
     public MessageContainer<A> receive(Services service, GridQueue queue, long timeout, boolean autoAck) throws IOException;
 
+    /**
+     * receive several messages from the broker. This method blocks until at least one message is available
+     * @param service the name of the grid service
+     * @param queue the queue of the service
+     * @param maxMessages the maximum number of messages to be returned
+     * @param timeout the maximum time to wait for a message. if zero or negative, the method blocks forever or until a message arrives
+     * @param autoAck if true the received messages are autoAck'ed
+     * @return a list of message containers, empty if a timeout occurred
+     * @throws IOException
+     */
+    public List<MessageContainer<A>> receive(Services service, GridQueue queue, int maxMessages, long timeout, boolean autoAck) throws IOException;
+
     /**
      * acknowledge a message. This MUST be used to remove a message from the broker if
      * receive() was used with autoAck=false.
@@ -93,6 +130,17 @@ public interface Broker<A> extends Closeable {
      */
     public QueueFactory<A> acknowledge(Services service, GridQueue queue, long deliveryTag) throws IOException;
 
+    /**
+     * acknowledge all messages up to and including the given delivery tag with a single operation.
+     * This can be used to acknowledge a batch of messages which had been received with autoAck=false.
+     * @param service the name of the grid service
+     * @param queue the queue of the service
+     * @param deliveryTag the highest tag as reported by receive()
+     * @return the Queue Factory which was used to create this broker
+     * @throws IOException
+     */
+    public QueueFactory<A> acknowledgeUpTo(Services service, GridQueue queue, long deliveryTag) throws IOException;
+
     /**
      * reject a message. This MUST be used to return a message to the broker if
      * receive() was used with autoAck=false.
@@ -0,0 +1,174 @@
+/**
+ *  CircuitBreaker
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.json.JSONObject;
+
+import net.yacy.grid.mcp.Data;
+
+/**
+ * A circuit breaker guards the access to a broker backend.
+ * - closed: the backend is used; consecutive failures are counted and the breaker opens if they reach a threshold
+ * - open: the backend is not used at all, callers fail over to the next backend at once. A background thread
+ *   tries to reconnect the backend with an exponential backoff.
+ * - half_open: the reconnection succeeded; a single trial call is let through. If it succeeds the breaker
+ *   is closed, if it fails the breaker opens again.
+ * The backoff is kept when the breaker opens again after a failed trial; it starts from the minimum
+ * delay only after the breaker was closed.
+ */
+public class CircuitBreaker {
+
+    public enum State {closed, open, half_open}
+
+    private final String name;
+    private final int failureThreshold;
+    private final long minRetryDelay, maxRetryDelay;
+    private final BooleanSupplier reconnect;
+    private final AtomicInteger failures;
+    private final AtomicLong trialTime, tripCount;
+    private volatile State state;
+    private volatile long stateTime;
+    private volatile long retryDelay; // the delay before the next reconnection attempt
+    private volatile boolean shallRun;
+    private Thread reconnector;
+
+    /**
+     * create a circuit breaker
+     * @param name the name of the backend, used for logging and the status
+     * @param failureThreshold the number of consecutive failures which opens the breaker
+     * @param minRetryDelay the first delay in milliseconds before a reconnection is attempted
+     * @param maxRetryDelay the maximum delay in milliseconds between reconnection attempts
+     * @param reconnect a function which connects the backend again and returns true on success
+     */
+    public CircuitBreaker(String name, int failureThreshold, long minRetryDelay, long maxRetryDelay, BooleanSupplier reconnect) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.minRetryDelay = minRetryDelay;
+        this.maxRetryDelay = Math.max(minRetryDelay, maxRetryDelay);
+        this.reconnect = reconnect;
+        this.failures = new AtomicInteger(0);
+        this.trialTime = new AtomicLong(0);
+        this.tripCount = new AtomicLong(0);
+        this.state = State.closed;
+        this.stateTime = System.currentTimeMillis();
+        this.retryDelay = minRetryDelay;
+        this.shallRun = true;
+        this.reconnector = null;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * check if the backend shall be used for a call. Every call which is allowed must report
+     * its result with success() or failure().
+     * @return true if the backend can be used
+     */
+    public boolean allow() {
+        State s = this.state;
+        if (s == State.closed) return true;
+        if (s == State.open) return false;
+        // half-open: let one trial call through; if the trial does not report back, another one is allowed later
+        long now = System.currentTimeMillis();
+        long t = this.trialTime.get();
+        return now - t > this.maxRetryDelay && this.trialTime.compareAndSet(t, now);
+    }
+
+    public void success() {
+        this.failures.set(0);
+        if (this.state == State.closed) return;
+        synchronized (this) {
+            if (this.state == State.closed) return;
+            this.state = State.closed;
+            this.stateTime = System.currentTimeMillis();
+            this.retryDelay = this.minRetryDelay;
+        }
+        Data.logger.info("CircuitBreaker " + this.name + ": closed, backend is available again");
+    }
+
+    public void failure() {
+        if (this.state == State.half_open || this.failures.incrementAndGet() >= this.failureThreshold) trip();
+    }
+
+    /**
+     * open the breaker and start the background reconnection
+     */
+    public synchronized void trip() {
+        this.failures.set(0);
+        if (!this.shallRun) return;
+        if (this.state != State.open) {
+            // a failed trial means that the reconnection did not help, so the next one waits longer
+            if (this.state == State.half_open) this.retryDelay = Math.min(2 * this.retryDelay, this.maxRetryDelay);
+            this.state = State.open;
+            this.stateTime = System.currentTimeMillis();
+            this.tripCount.incrementAndGet();
+            Data.logger.warn("CircuitBreaker " + this.name + ": open, failing over to the next backend");
+        }
+        if (this.reconnector != null && this.reconnector.isAlive()) return;
+        this.reconnector = new Thread("CircuitBreaker " + this.name) {
+            @Override
+            public void run() {
+                while (CircuitBreaker.this.shallRun && CircuitBreaker.this.state == CircuitBreaker.State.open) {
+                    long delay = CircuitBreaker.this.retryDelay;
+                    try {Thread.sleep(delay);} catch (InterruptedException e) {return;}
+                    if (!CircuitBreaker.this.shallRun) return;
+                    boolean connected = false;
+                    try {
+                        connected = CircuitBreaker.this.reconnect.getAsBoolean();
+                    } catch (Throwable e) {
+                        Data.logger.debug("CircuitBreaker " + CircuitBreaker.this.name + ": reconnect failed", e);
+                    }
+                    if (connected) {
+                        synchronized (CircuitBreaker.this) {
+                            CircuitBreaker.this.trialTime.set(0);
+                            CircuitBreaker.this.state = CircuitBreaker.State.half_open;
+                            CircuitBreaker.this.stateTime = System.currentTimeMillis();
+                        }
+                        Data.logger.info("CircuitBreaker " + CircuitBreaker.this.name + ": half-open, backend reconnected");
+                        return;
+                    }
+                    CircuitBreaker.this.retryDelay = Math.min(2 * delay, CircuitBreaker.this.maxRetryDelay);
+                }
+            }
+        };
+        this.reconnector.setDaemon(true);
+        this.reconnector.start();
+    }
+
+    public synchronized void close() {
+        this.shallRun = false;
+        if (this.reconnector != null) this.reconnector.interrupt();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        json.put("state", this.state.name());
+        json.put("since", this.stateTime);
+        json.put("failures", this.failures.get());
+        json.put("trips", this.tripCount.get());
+        json.put("retry_delay", this.retryDelay);
+        return json;
+    }
+}
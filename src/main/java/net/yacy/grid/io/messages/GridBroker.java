@@ -22,11 +22,23 @@ package net.yacy.grid.io.messages;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import org.json.JSONObject;
+
 import net.yacy.grid.Services;
 import net.yacy.grid.YaCyServices;
+import net.yacy.grid.io.db.CommitPolicy;
 import net.yacy.grid.mcp.Data;
+import net.yacy.grid.mcp.RetryQueue;
 
 /**
  * This GridBroker is a local implementation of the broker interface, using either a connection to a RabbitMQ
@@ -37,8 +49,19 @@ import net.yacy.grid.mcp.Data;
 public class GridBroker extends PeerBroker implements Broker<byte[]> {
 
     public final static String TARGET_LIMIT_MESSAGE = "message not delivered - target limitation";
-    private QueueFactory<byte[]> rabbitQueueFactory;
-    private QueueFactory<byte[]> mcpQueueFactory;
+
+    // a backend is skipped after this number of consecutive failures until it is reconnected in the background
+    private final static int BREAKER_FAILURE_THRESHOLD = 3;
+    private final static long BREAKER_MIN_RETRY_DELAY = 1000, BREAKER_MAX_RETRY_DELAY = 60000;
+
+    private volatile QueueFactory<byte[]> rabbitQueueFactory;
+    private volatile QueueFactory<byte[]> mcpQueueFactory;
+    private final CircuitBreaker rabbitBreaker, mcpBreaker;
+    private final MessageCodec codec;
+    private final InProcessQueueFactory inProcessQueueFactory;
+    private final Set<Services> localServices;
+    private final Map<Long, Delivery> deliveries;
+    private final AtomicLong deliveryCounter;
 
     private String rabbitMQ_host, rabbitMQ_username, rabbitMQ_password;
     private int rabbitMQ_port;
@@ -46,15 +69,22 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
     private int mcp_port;
     private boolean lazy;
     private boolean autoAck;
-    private int queueLimit, queueThrottling;
+    private int queueLimit, queueThrottling, confirmWindow, prefetch, channels;
 
     /**
      * Make a grid-based broker
      * @param lazy if true, support lazy queues in rabbitmq, see http://www.rabbitmq.com/lazy-queues.html
      * @param basePath the local storage path of an db-based queue. This can also be NULL if no local queue is wanted
+     * @param confirmWindow the maximum number of unconfirmed messages per rabbitmq channel which are sent with sendAsync
+     * @param prefetch the number of messages that a rabbitmq consumer buffers locally; 0 means that messages are polled
+     * @param channels the number of rabbitmq channels per queue which are shared by concurrent threads
+     * @param segmentLog if true, the local queues are stored in segment logs instead of mapdb stacks
+     * @param commitPolicy the commit policy of local queues in mapdb stacks
+     * @param codec the compression of the message payloads
+     * @param inProcessCapacity the capacity of the in-process queues for services which run in this JVM; 0 switches them off
      */
-    public GridBroker(File basePath, boolean lazy, boolean autoAck, int queueLimit, int queueThrottling) {
-        super(basePath);
+    public GridBroker(File basePath, boolean lazy, boolean autoAck, int queueLimit, int queueThrottling, int confirmWindow, int prefetch, int channels, boolean segmentLog, CommitPolicy commitPolicy, MessageCodec codec, AffinityTable affinity, long monitorInterval, int inProcessCapacity) {
+        super(basePath, segmentLog, commitPolicy, affinity, monitorInterval);
         this.rabbitQueueFactory = null;
         this.mcpQueueFactory = null;
         this.rabbitMQ_host = null;
@@ -67,6 +97,16 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
         this.autoAck = autoAck;
         this.queueLimit = queueLimit;
         this.queueThrottling = queueThrottling;
+        this.confirmWindow = confirmWindow;
+        this.prefetch = prefetch;
+        this.channels = channels;
+        this.codec = codec;
+        this.inProcessQueueFactory = inProcessCapacity > 0 ? new InProcessQueueFactory(inProcessCapacity, (service, queue, message) -> sendBroker(service, queue, message)) : null;
+        this.localServices = ConcurrentHashMap.newKeySet();
+        this.deliveries = new ConcurrentHashMap<>();
+        this.deliveryCounter = new AtomicLong(0);
+        this.rabbitBreaker = new CircuitBreaker("rabbitmq", BREAKER_FAILURE_THRESHOLD, BREAKER_MIN_RETRY_DELAY, BREAKER_MAX_RETRY_DELAY, () -> reconnectRabbitMQ());
+        this.mcpBreaker = new CircuitBreaker("mcp", BREAKER_FAILURE_THRESHOLD, BREAKER_MIN_RETRY_DELAY, BREAKER_MAX_RETRY_DELAY, () -> reconnectMCP());
     }
 
     public boolean isAutoAck() {
@@ -80,7 +120,118 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
     public int getQueueThrottling() {
         return this.queueThrottling;
     }
+
+    public int getConfirmWindow() {
+        return this.confirmWindow;
+    }
+
+    public int getPrefetch() {
+        return this.prefetch;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
     
+    /**
+     * Register a service which has a listener in this JVM. Messages for this service are handed over
+     * with in-process queues instead of the broker, as long as these queues are not full.
+     * @param service the service
+     */
+    public void registerLocal(Services service) {
+        if (this.inProcessQueueFactory == null) return;
+        this.localServices.add(service);
+        Data.logger.info("Broker/Client: service '" + service + "' uses in-process queues");
+    }
+
+    /**
+     * Remove the registration of a local service. Messages which are still in the in-process queues
+     * are sent to the broker.
+     * @param service the service
+     */
+    public void unregisterLocal(Services service) {
+        if (this.inProcessQueueFactory == null || !this.localServices.remove(service)) return;
+        for (Map.Entry<GridQueue, List<byte[]>> entry: this.inProcessQueueFactory.drain(service).entrySet()) {
+            for (byte[] message: entry.getValue()) try {
+                sendBroker(service, entry.getKey(), message);
+            } catch (IOException e) {
+                Data.logger.warn("Broker/Client: message of in-process queue '" + entry.getKey() + "' is lost", e);
+            }
+        }
+    }
+
+    private boolean isLocal(Services service) {
+        return this.inProcessQueueFactory != null && this.localServices.contains(service);
+    }
+
+    private boolean isInProcess(Services service, GridQueue queue) {
+        // dead-letter queues are kept for inspection, so they must never be held only in memory
+        return isLocal(service) && !queue.name().endsWith(RetryQueue.DEADLETTER_SUFFIX);
+    }
+
+    /**
+     * Delivery tags are only valid for the backend and the connection which delivered a message. For messages
+     * which are acknowledged explicitly we hand out our own tags and remember where each message came from,
+     * so an acknowledgement is never sent with a tag that another backend or a closed connection issued.
+     * Our tags are counted up from 1; tags with bit 62 belong to the in-process queues.
+     */
+    private enum Backend {rabbitmq, mcp, local}
+
+    private static class Delivery {
+        private final Backend backend;
+        private final QueueFactory<byte[]> factory; // the factory which delivered the message, null for the local db
+        private final String queue;
+        private final long tag; // the tag of the backend
+        private final long batch; // our tag of the first message which was delivered by the same receive operation
+        private Delivery(Backend backend, QueueFactory<byte[]> factory, String queue, long tag, long batch) {
+            this.backend = backend;
+            this.factory = factory;
+            this.queue = queue;
+            this.tag = tag;
+            this.batch = batch;
+        }
+    }
+
+    private MessageContainer<byte[]> issue(Backend backend, QueueFactory<byte[]> factory, Services serviceName, GridQueue queueName, boolean autoAck, MessageContainer<byte[]> mc) {
+        return issue(backend, factory, serviceName, queueName, autoAck, mc, 0);
+    }
+
+    /**
+     * @param batch our tag of the first message of the receive operation, or 0 if this is the first message
+     */
+    private MessageContainer<byte[]> issue(Backend backend, QueueFactory<byte[]> factory, Services serviceName, GridQueue queueName, boolean autoAck, MessageContainer<byte[]> mc, long batch) {
+        if (mc == null || autoAck) return mc;
+        long tag = this.deliveryCounter.incrementAndGet();
+        this.deliveries.put(tag, new Delivery(backend, factory, serviceQueueName(serviceName, queueName), mc.getDeliveryTag(), batch == 0 ? tag : batch));
+        return new MessageContainer<byte[]>(mc.getFactory(), mc.getPayload(), tag);
+    }
+
+    private List<MessageContainer<byte[]>> issue(Backend backend, QueueFactory<byte[]> factory, Services serviceName, GridQueue queueName, boolean autoAck, List<MessageContainer<byte[]>> mcs) {
+        if (autoAck) return mcs;
+        List<MessageContainer<byte[]>> issued = new ArrayList<>(mcs.size());
+        long batch = 0;
+        for (MessageContainer<byte[]> mc: mcs) {
+            MessageContainer<byte[]> i = issue(backend, factory, serviceName, queueName, autoAck, mc, batch);
+            if (batch == 0 && i != null) batch = i.getDeliveryTag();
+            issued.add(i);
+        }
+        return issued;
+    }
+
+    /**
+     * forget the deliveries of a queue after the backend was asked to deliver them again
+     */
+    private void forget(Backend backend, String queue) {
+        this.deliveries.values().removeIf(d -> d.backend == backend && d.queue.equals(queue));
+    }
+
+    /**
+     * forget the deliveries of a closed factory
+     */
+    private void forget(QueueFactory<byte[]> factory) {
+        this.deliveries.values().removeIf(d -> d.factory == factory);
+    }
+
     public static String serviceQueueName(Services service, GridQueue queue) {
         return service.name() + '_' + queue.name();
     }
@@ -92,25 +243,66 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
     }
 
     public boolean connectRabbitMQ(String host, int port, String username, String password) {
-        //boolean firsttry = false;
+        boolean sameHost = host.equals(this.rabbitMQ_host) && port == this.rabbitMQ_port;
         if (this.rabbitMQ_host == null) {
             this.rabbitMQ_host = host;
             this.rabbitMQ_port = port;
             this.rabbitMQ_username = username;
             this.rabbitMQ_password = password;
-            //firsttry = true;
         }
+        // while the breaker is open, the connection is re-established in the background
+        if (sameHost && this.rabbitBreaker.getState() == CircuitBreaker.State.open) return false;
         try {
-            QueueFactory<byte[]> qc = new RabbitQueueFactory(host, port, username, password, this.lazy, this.queueLimit);
+            QueueFactory<byte[]> qc = openRabbitMQ(host, port, username, password);
+            QueueFactory<byte[]> old = this.rabbitQueueFactory;
             this.rabbitQueueFactory = qc;
+            if (old != null) {
+                try {old.close();} catch (Throwable e) {}
+                forget(old); // the broker re-delivers the unacknowledged messages of the old connection
+            }
+            this.rabbitBreaker.success();
             Data.logger.info("Broker/Client: connected to the rabbitMQ broker at " + host + ":" + port);
             return true;
         } catch (IOException e) {
-            /*if (firsttry)*/ Data.logger.info("Broker/Client: trying to connect to the rabbitMQ broker at " + host + ":" + port + " failed: " + e.getMessage(), e);
+            Data.logger.info("Broker/Client: trying to connect to the rabbitMQ broker at " + host + ":" + port + " failed: " + e.getMessage(), e);
+            if (host.equals(this.rabbitMQ_host) && port == this.rabbitMQ_port) this.rabbitBreaker.trip();
             return false;
         }
     }
 
+    private boolean reconnectRabbitMQ() {
+        try {
+            QueueFactory<byte[]> qc = openRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
+            QueueFactory<byte[]> old = this.rabbitQueueFactory;
+            this.rabbitQueueFactory = qc;
+            if (old != null) {
+                try {old.close();} catch (Throwable e) {}
+                forget(old); // the broker re-delivers the unacknowledged messages of the old connection
+            }
+            Data.logger.info("Broker/Client: re-connected to the rabbitMQ broker at " + this.rabbitMQ_host + ":" + this.rabbitMQ_port);
+            return true;
+        } catch (IOException e) {
+            Data.logger.debug("Broker/Client: re-connecting the rabbitMQ broker at " + this.rabbitMQ_host + ":" + this.rabbitMQ_port + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * create a rabbitmq queue factory and check that the broker can be reached; the factory itself
+     * opens the connection only with the first queue
+     */
+    private QueueFactory<byte[]> openRabbitMQ(String host, int port, String username, String password) throws IOException {
+        QueueFactory<byte[]> rabbitqf = new RabbitQueueFactory(host, port, username, password, this.lazy, this.queueLimit, this.confirmWindow, this.prefetch, this.channels);
+        String queueName = YaCyServices.indexer.name() + "_" + YaCyServices.indexer.getSourceQueues()[0].name();
+        try {
+            rabbitqf.getQueue(queueName).checkConnection();
+        } catch (IOException | RuntimeException e) {
+            try {rabbitqf.close();} catch (Throwable ee) {}
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+        return rabbitqf;
+    }
+
     public boolean isRabbitMQConnected() {
         return this.rabbitQueueFactory != null;
     }
@@ -119,18 +311,73 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
         this.mcp_host = host;
         this.mcp_port = port;
         try {
-            QueueFactory<byte[]> mcpqf = new MCPQueueFactory(this, host, port);
-            String queueName = YaCyServices.indexer.name() + "_" + YaCyServices.indexer.getSourceQueues()[0].name();
-            mcpqf.getQueue(queueName).checkConnection();
-            this.mcpQueueFactory = mcpqf;
+            QueueFactory<byte[]> old = this.mcpQueueFactory;
+            this.mcpQueueFactory = openMCP(host, port);
+            if (old != null) try {old.close();} catch (Throwable e) {}
+            this.mcpBreaker.success();
             Data.logger.info("Broker/Client: connected to a Queue over MCP at " + host + ":" + port);
             return true;
         } catch (IOException e) {
-            /*if (firsttry)*/ Data.logger.info("Broker/Client: trying to connect to a Queue over MCP at " + host + ":" + port + " failed: " + e.getMessage());
+            Data.logger.info("Broker/Client: trying to connect to a Queue over MCP at " + host + ":" + port + " failed: " + e.getMessage());
+            this.mcpBreaker.trip();
             return false;
         }
     }
 
+    private boolean reconnectMCP() {
+        try {
+            QueueFactory<byte[]> old = this.mcpQueueFactory;
+            this.mcpQueueFactory = openMCP(this.mcp_host, this.mcp_port);
+            if (old != null) try {old.close();} catch (Throwable e) {}
+            Data.logger.info("Broker/Client: re-connected to a Queue over MCP at " + this.mcp_host + ":" + this.mcp_port);
+            return true;
+        } catch (IOException e) {
+            Data.logger.debug("Broker/Client: re-connecting a Queue over MCP at " + this.mcp_host + ":" + this.mcp_port + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private QueueFactory<byte[]> openMCP(String host, int port) throws IOException {
+        QueueFactory<byte[]> mcpqf = new MCPQueueFactory(this, host, port);
+        String queueName = YaCyServices.indexer.name() + "_" + YaCyServices.indexer.getSourceQueues()[0].name();
+        mcpqf.getQueue(queueName).checkConnection();
+        return mcpqf;
+    }
+
+    /**
+     * get the state of the circuit breakers of the broker backends
+     * @return a json object with one entry for each configured backend
+     */
+    public JSONObject getBreakerStatus() {
+        JSONObject json = new JSONObject(true);
+        if (this.rabbitMQ_host != null) json.put("rabbitmq", this.rabbitBreaker.toJSON());
+        if (this.mcp_host != null) json.put("mcp", this.mcpBreaker.toJSON());
+        return json;
+    }
+
+    /**
+     * decompress a received message. A message which cannot be decoded is returned as it is,
+     * so it is handled like any other bad message by the receiver.
+     */
+    private MessageContainer<byte[]> decode(MessageContainer<byte[]> mc) {
+        try {
+            return this.codec.decode(mc);
+        } catch (IOException e) {
+            Data.logger.warn("Broker/Client: cannot decode message: " + e.getMessage());
+            return mc;
+        }
+    }
+
+    private List<MessageContainer<byte[]>> decode(List<MessageContainer<byte[]>> mcs) {
+        List<MessageContainer<byte[]>> decoded = new ArrayList<>(mcs.size());
+        for (MessageContainer<byte[]> mc: mcs) decoded.add(decode(mc));
+        return decoded;
+    }
+
+    public MessageCodec getCodec() {
+        return this.codec;
+    }
+
     private final static Pattern SPACE2 = Pattern.compile("  ");
 
     private final static String messagePP(byte[] message) {
@@ -147,208 +394,341 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
 
     @Override
     public QueueFactory<byte[]> send(Services serviceName, GridQueue queueName, byte[] message) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
-        }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
-            this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).send(message);
+        if (isInProcess(serviceName, queueName) && this.inProcessQueueFactory.getQueue(serviceName, queueName).offer(message)) return this.inProcessQueueFactory;
+        return sendBroker(serviceName, queueName, message);
+    }
+
+    /**
+     * send a message to the broker, never to an in-process queue. This is used for messages which were
+     * already acknowledged elsewhere, i.e. retries and dead letters, which must survive a crash of this JVM.
+     */
+    public QueueFactory<byte[]> sendDurable(Services serviceName, GridQueue queueName, byte[] message) throws IOException {
+        return sendBroker(serviceName, queueName, message);
+    }
+
+    private QueueFactory<byte[]> sendBroker(Services serviceName, GridQueue queueName, byte[] message) throws IOException {
+        byte[] payload = this.codec.encode(message); // the mcp gets the plain message because it is transported as text; MCPQueueFactory converts binary envelopes to json
+        if (this.rabbitQueueFactory != null && this.rabbitBreaker.allow()) try {
+            this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).send(payload);
             Data.logger.info("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', message:" + messagePP(message));
+            this.rabbitBreaker.success();
             return this.rabbitQueueFactory;
         } catch (IOException e) {
             String m = e.getMessage();
-            if (m == null) m = e.getCause().getMessage();
-            try {Thread.sleep(1000);} catch (InterruptedException ee) {}
-            if (m.equals(TARGET_LIMIT_MESSAGE)) {
+            if (m == null && e.getCause() != null) m = e.getCause().getMessage();
+            if (TARGET_LIMIT_MESSAGE.equals(m)) {
+                this.rabbitBreaker.success(); // the broker is healthy, it just refuses the message
                 // queue limitation is like running against a wall: don't do this at all (if you know there is a wall)
-                // at least: If you insist in queue limitation don't do this too aggressive;
-                // I recommend to do not to limit queues; instead do throttling
-                try {Thread.sleep(3000);} catch (InterruptedException ee) {}
-                throw e; // consider this as fatal to trigger throttling (hope throttling is done on every send-location
+                // I recommend to do not to limit queues; instead do throttling.
+                // We do not wait here: this runs on worker threads and on the retry dispatcher, which must not be
+                // blocked by one full queue. The caller retries the message later with its own backoff.
+                throw e;
             }
+            this.rabbitBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-            // try to connect again..
-            connectMCP(this.mcp_host, this.mcp_port);
-            if (this.mcpQueueFactory == null) {
-                Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! send mcp service '" + serviceName + "', queue '" + queueName);
+        return sendFallback(serviceName, queueName, message, payload);
+    }
+
+    @Override
+    public CompletableFuture<QueueFactory<byte[]>> sendAsync(Services serviceName, GridQueue queueName, byte[] message) throws IOException {
+        if (isInProcess(serviceName, queueName) && this.inProcessQueueFactory.getQueue(serviceName, queueName).offer(message)) return CompletableFuture.completedFuture(this.inProcessQueueFactory);
+        byte[] payload = this.codec.encode(message);
+        final QueueFactory<byte[]> rabbitqf = this.rabbitQueueFactory;
+        if (rabbitqf != null && this.rabbitBreaker.allow()) try {
+            CompletableFuture<Void> confirmation = rabbitqf.getQueue(serviceQueueName(serviceName, queueName)).sendAsync(payload);
+            Data.logger.info("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', message:" + messagePP(message));
+            this.rabbitBreaker.success();
+            return confirmation.thenApply(v -> rabbitqf);
+        } catch (IOException e) {
+            String m = e.getMessage();
+            if (m == null && e.getCause() != null) m = e.getCause().getMessage();
+            if (TARGET_LIMIT_MESSAGE.equals(m)) {
+                this.rabbitBreaker.success(); // the broker is healthy, it just refuses the message
+                throw e;
             }
+            this.rabbitBreaker.failure();
+            Data.logger.debug("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory != null) try {
+        // the other backends have stored the message when the send returns
+        return CompletableFuture.completedFuture(sendFallback(serviceName, queueName, message, payload));
+    }
+
+    /**
+     * send a message to the mcp or, if that fails, to the local db
+     * @param message the plain message for the mcp
+     * @param payload the encoded message for the local db
+     */
+    private QueueFactory<byte[]> sendFallback(Services serviceName, GridQueue queueName, byte[] message, byte[] payload) throws IOException {
+        if (this.mcpQueueFactory != null && this.mcpBreaker.allow()) try {
             this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).send(message);
             Data.logger.info("Broker/Client: send mcp service '" + serviceName + "', queue '" + queueName + "', message:" + messagePP(message));
+            this.mcpBreaker.success();
             return this.mcpQueueFactory;
         } catch (IOException e) {
+            this.mcpBreaker.failure();
             Data.logger.debug("Broker/Client: send mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
         }
         Data.logger.info("Broker/Client: send() on peer broker/local db");
-        return super.send(serviceName, queueName, message);
+        return super.send(serviceName, queueName, payload);
+    }
+
+    @Override
+    public QueueFactory<byte[]> send(Services serviceName, GridQueue queueName, List<byte[]> messages) throws IOException {
+        if (isInProcess(serviceName, queueName)) {
+            InProcessQueueFactory.InProcessQueue queue = this.inProcessQueueFactory.getQueue(serviceName, queueName);
+            int sent = 0;
+            while (sent < messages.size() && queue.offer(messages.get(sent))) sent++;
+            if (sent == messages.size()) return this.inProcessQueueFactory;
+            messages = messages.subList(sent, messages.size()); // the in-process queue is full
+        }
+        return sendBroker(serviceName, queueName, messages);
+    }
+
+    private QueueFactory<byte[]> sendBroker(Services serviceName, GridQueue queueName, List<byte[]> messages) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        for (byte[] message: messages) payloads.add(this.codec.encode(message));
+        if (this.rabbitQueueFactory != null && this.rabbitBreaker.allow()) try {
+            this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).send(payloads);
+            Data.logger.info("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', " + messages.size() + " messages");
+            this.rabbitBreaker.success();
+            return this.rabbitQueueFactory;
+        } catch (IOException e) {
+            String m = e.getMessage();
+            if (m == null && e.getCause() != null) m = e.getCause().getMessage();
+            if (TARGET_LIMIT_MESSAGE.equals(m)) {
+                this.rabbitBreaker.success(); // the broker is healthy, it just refuses the messages
+                throw e; // the caller retries later, same as for a single message
+            }
+            this.rabbitBreaker.failure();
+            Data.logger.debug("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
+        }
+        if (this.mcpQueueFactory != null && this.mcpBreaker.allow()) try {
+            this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).send(messages);
+            Data.logger.info("Broker/Client: send mcp service '" + serviceName + "', queue '" + queueName + "', " + messages.size() + " messages");
+            this.mcpBreaker.success();
+            return this.mcpQueueFactory;
+        } catch (IOException e) {
+            this.mcpBreaker.failure();
+            Data.logger.debug("Broker/Client: send mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
+        }
+        Data.logger.info("Broker/Client: send() on peer broker/local db");
+        return super.send(serviceName, queueName, payloads);
     }
 
     @Override
     public MessageContainer<byte[]> receive(Services serviceName, GridQueue queueName, long timeout, boolean autoAck) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
-        }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
-            Queue<byte[]> rabbitQueue = this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName));
-            MessageContainer<byte[]> mc = rabbitQueue.receive(timeout, autoAck);
+        if (isLocal(serviceName)) {
+            InProcessQueueFactory.InProcessQueue queue = this.inProcessQueueFactory.getQueue(serviceName, queueName);
+            MessageContainer<byte[]> mc = queue.receiveNow(autoAck);
+            if (mc != null) return mc;
+            // as long as the broker has no messages for this queue, wait for messages from this JVM
+            if (bufferedAvailable(serviceName, queueName).getAvailable() == 0) return queue.receive(timeout, autoAck);
+        }
+        return receiveBroker(serviceName, queueName, timeout, autoAck);
+    }
+
+    private MessageContainer<byte[]> receiveBroker(Services serviceName, GridQueue queueName, long timeout, boolean autoAck) throws IOException {
+        QueueFactory<byte[]> rabbit = this.rabbitQueueFactory;
+        if (rabbit != null && this.rabbitBreaker.allow()) try {
+            Queue<byte[]> rabbitQueue = rabbit.getQueue(serviceQueueName(serviceName, queueName));
+            MessageContainer<byte[]> mc = issue(Backend.rabbitmq, rabbit, serviceName, queueName, autoAck, decode(rabbitQueue.receive(timeout, autoAck)));
             if (mc != null && mc.getPayload() != null && mc.getPayload().length > 0) Data.logger.info("Broker/Client: received rabbitMQ service '" + serviceName + "', queue '" + queueName + "', message:" + messagePP(mc.getPayload()));
+            this.rabbitBreaker.success();
             return mc;
         } catch (IOException e) {
+            this.rabbitBreaker.failure();
             Data.logger.debug("Broker/Client: receive rabbitMQ service '" + serviceName + "', queue '" + queueName + "',rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-            // try to connect again..
-            connectMCP(this.mcp_host, this.mcp_port);
-            if (this.mcpQueueFactory == null) {
-                Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! receive mcp service '" + serviceName + "', queue '" + queueName + "'");
-            }
-        }
-        if (this.mcpQueueFactory != null) try {
-            Queue<byte[]> mcpQueue = this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName));
-            MessageContainer<byte[]> mc = mcpQueue.receive(timeout, autoAck);
+        QueueFactory<byte[]> mcp = this.mcpQueueFactory;
+        if (mcp != null && this.mcpBreaker.allow()) try {
+            Queue<byte[]> mcpQueue = mcp.getQueue(serviceQueueName(serviceName, queueName));
+            MessageContainer<byte[]> mc = issue(Backend.mcp, mcp, serviceName, queueName, autoAck, decode(mcpQueue.receive(timeout, autoAck)));
             if (mc != null && mc.getPayload() != null && mc.getPayload().length > 0) Data.logger.info("Broker/Client: receive mcp service '" + serviceName + "', queue '" + queueName + "', message:" + messagePP(mc.getPayload()));
+            this.mcpBreaker.success();
             return mc;
         } catch (IOException e) {
+            this.mcpBreaker.failure();
             Data.logger.debug("Broker/Client: receive mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
         }
         Data.logger.info("Broker/Client: receive() on peer broker/local db");
-        MessageContainer<byte[]> mc = super.receive(serviceName, queueName, timeout, autoAck);
+        MessageContainer<byte[]> mc = issue(Backend.local, null, serviceName, queueName, autoAck, decode(super.receive(serviceName, queueName, timeout, autoAck)));
         if (mc != null && mc.getPayload() != null && mc.getPayload().length > 0) Data.logger.info("Broker/Client: received peer broker/local db service '" + serviceName + "', queue '" + queueName + "', message:" + messagePP(mc.getPayload()));
         return mc;  
     }
 
     @Override
-    public QueueFactory<byte[]> acknowledge(Services serviceName, GridQueue queueName, long deliveryTag) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
-        }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
-            this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).acknowledge(deliveryTag);
-            Data.logger.info("Broker/Client: acknowledged rabbitMQ service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag);
-            return this.rabbitQueueFactory;
+    public List<MessageContainer<byte[]>> receive(Services serviceName, GridQueue queueName, int maxMessages, long timeout, boolean autoAck) throws IOException {
+        if (isLocal(serviceName)) {
+            InProcessQueueFactory.InProcessQueue queue = this.inProcessQueueFactory.getQueue(serviceName, queueName);
+            List<MessageContainer<byte[]>> mcs = new ArrayList<>();
+            MessageContainer<byte[]> mc;
+            while (mcs.size() < maxMessages && (mc = queue.receiveNow(autoAck)) != null) mcs.add(mc);
+            if (mcs.size() > 0) return mcs;
+            if (bufferedAvailable(serviceName, queueName).getAvailable() == 0) return queue.receive(maxMessages, timeout, autoAck);
+        }
+        QueueFactory<byte[]> rabbit = this.rabbitQueueFactory;
+        if (rabbit != null && this.rabbitBreaker.allow()) try {
+            Queue<byte[]> rabbitQueue = rabbit.getQueue(serviceQueueName(serviceName, queueName));
+            List<MessageContainer<byte[]>> mcs = issue(Backend.rabbitmq, rabbit, serviceName, queueName, autoAck, decode(rabbitQueue.receive(maxMessages, timeout, autoAck)));
+            if (mcs.size() > 0) Data.logger.info("Broker/Client: received rabbitMQ service '" + serviceName + "', queue '" + queueName + "', " + mcs.size() + " messages");
+            this.rabbitBreaker.success();
+            return mcs;
         } catch (IOException e) {
-            Data.logger.debug("Broker/Client: acknowledge rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
-        }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-            // try to connect again..
-            connectMCP(this.mcp_host, this.mcp_port);
-            if (this.mcpQueueFactory == null) {
-                Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! send mcp service '" + serviceName + "', queue '" + queueName);
-            }
+            this.rabbitBreaker.failure();
+            Data.logger.debug("Broker/Client: receive rabbitMQ service '" + serviceName + "', queue '" + queueName + "',rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory != null) try {
-            this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).acknowledge(deliveryTag);
-            Data.logger.info("Broker/Client: acknowledged mcp service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag);
-            return this.mcpQueueFactory;
+        QueueFactory<byte[]> mcp = this.mcpQueueFactory;
+        if (mcp != null && this.mcpBreaker.allow()) try {
+            Queue<byte[]> mcpQueue = mcp.getQueue(serviceQueueName(serviceName, queueName));
+            List<MessageContainer<byte[]>> mcs = issue(Backend.mcp, mcp, serviceName, queueName, autoAck, decode(mcpQueue.receive(maxMessages, timeout, autoAck)));
+            if (mcs.size() > 0) Data.logger.info("Broker/Client: receive mcp service '" + serviceName + "', queue '" + queueName + "', " + mcs.size() + " messages");
+            this.mcpBreaker.success();
+            return mcs;
         } catch (IOException e) {
-            Data.logger.debug("Broker/Client: acknowledge mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
+            this.mcpBreaker.failure();
+            Data.logger.debug("Broker/Client: receive mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
+        }
+        Data.logger.info("Broker/Client: receive() on peer broker/local db");
+        return issue(Backend.local, null, serviceName, queueName, autoAck, decode(super.receive(serviceName, queueName, maxMessages, timeout, autoAck)));
+    }
+
+    /**
+     * acknowledge the messages up to and including the given delivery tag which were delivered by the same receive
+     * operation as the message with that tag; messages which other threads received are not touched
+     */
+    @Override
+    public QueueFactory<byte[]> acknowledgeUpTo(Services serviceName, GridQueue queueName, long deliveryTag) throws IOException {
+        if (this.inProcessQueueFactory != null && InProcessQueueFactory.isInProcessTag(deliveryTag)) {
+            this.inProcessQueueFactory.getQueue(serviceName, queueName).acknowledgeUpTo(deliveryTag);
+            return this.inProcessQueueFactory;
+        }
+        Delivery d = this.deliveries.get(deliveryTag);
+        if (d == null) return settle(serviceName, queueName, deliveryTag, d, "acknowledgeUpTo", (queue, tag) -> queue.acknowledgeUpTo(tag));
+        // only the messages of the receive operation which delivered the tag belong to the caller. They are acknowledged
+        // one by one: a multiple acknowledgement of the backend would also settle the messages of other threads which
+        // share the channel, even those which are still processed.
+        List<Long> tags = new ArrayList<>();
+        this.deliveries.forEach((tag, e) -> {if (e.batch == d.batch && tag.longValue() <= deliveryTag) tags.add(tag);});
+        Collections.sort(tags);
+        QueueFactory<byte[]> factory = null;
+        for (Long tag: tags) factory = acknowledge(serviceName, queueName, tag.longValue());
+        return factory;
+    }
+
+    @Override
+    public QueueFactory<byte[]> acknowledge(Services serviceName, GridQueue queueName, long deliveryTag) throws IOException {
+        if (this.inProcessQueueFactory != null && InProcessQueueFactory.isInProcessTag(deliveryTag)) {
+            this.inProcessQueueFactory.getQueue(serviceName, queueName).acknowledge(deliveryTag);
+            return this.inProcessQueueFactory;
         }
-        Data.logger.info("Broker/Client: acknowledge() on peer broker/local db");
-        return super.acknowledge(serviceName, queueName, deliveryTag);
+        Delivery d = this.deliveries.remove(deliveryTag);
+        if (d != null && d.backend == Backend.local) return super.acknowledge(serviceName, queueName, d.tag);
+        return settle(serviceName, queueName, deliveryTag, d, "acknowledge", (queue, tag) -> queue.acknowledge(tag));
     }
 
     @Override
     public QueueFactory<byte[]> reject(Services serviceName, GridQueue queueName, long deliveryTag) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
-        }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
-            this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).reject(deliveryTag);
-            Data.logger.info("Broker/Client: rejected rabbitMQ service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag);
-            return this.rabbitQueueFactory;
-        } catch (IOException e) {
-            Data.logger.debug("Broker/Client: acknowledge rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
+        if (this.inProcessQueueFactory != null && InProcessQueueFactory.isInProcessTag(deliveryTag)) {
+            this.inProcessQueueFactory.getQueue(serviceName, queueName).reject(deliveryTag);
+            return this.inProcessQueueFactory;
         }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-            // try to connect again..
-            connectMCP(this.mcp_host, this.mcp_port);
-            if (this.mcpQueueFactory == null) {
-                Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! send mcp service '" + serviceName + "', queue '" + queueName);
+        Delivery d = this.deliveries.remove(deliveryTag);
+        if (d != null && d.backend == Backend.local) return super.reject(serviceName, queueName, d.tag);
+        return settle(serviceName, queueName, deliveryTag, d, "reject", (queue, tag) -> queue.reject(tag));
+    }
+
+    private interface Settlement {
+        public void apply(Queue<byte[]> queue, long deliveryTag) throws IOException;
+    }
+
+    /**
+     * acknowledge or reject a message at the backend which delivered it. There is no fall-back to another
+     * backend because the tag is meaningless there. If the backend was re-connected since the delivery,
+     * the operation is dropped: the broker re-delivers all unacknowledged messages of a closed connection.
+     * @param d the delivery which was issued with the tag
+     * @return the factory of the backend
+     * @throws IOException if the tag is unknown or the backend fails
+     */
+    private QueueFactory<byte[]> settle(Services serviceName, GridQueue queueName, long deliveryTag, Delivery d, String operation, Settlement settlement) throws IOException {
+        if (d == null) throw new IOException(operation + ": unknown delivery tag " + deliveryTag + " for service '" + serviceName + "', queue '" + queueName + "'");
+        if (d.backend == Backend.rabbitmq) {
+            if (d.factory != this.rabbitQueueFactory) {
+                Data.logger.info("Broker/Client: " + operation + " rabbitMQ service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag + " dropped: the connection was closed, the broker re-delivers the message");
+                return d.factory;
+            }
+            try {
+                settlement.apply(d.factory.getQueue(d.queue), d.tag);
+                Data.logger.info("Broker/Client: " + operation + " rabbitMQ service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag);
+                this.rabbitBreaker.success();
+                return d.factory;
+            } catch (IOException e) {
+                this.rabbitBreaker.failure();
+                Data.logger.debug("Broker/Client: " + operation + " rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
+                throw e;
             }
         }
-        if (this.mcpQueueFactory != null) try {
-            this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).reject(deliveryTag);
-            Data.logger.info("Broker/Client: rejected mcp service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag);
-            return this.mcpQueueFactory;
+        // the tags of a remote mcp stay valid when we re-connect to it
+        QueueFactory<byte[]> mcp = this.mcpQueueFactory;
+        if (mcp == null) throw new IOException(operation + ": no mcp for delivery tag " + deliveryTag);
+        try {
+            settlement.apply(mcp.getQueue(d.queue), d.tag);
+            Data.logger.info("Broker/Client: " + operation + " mcp service '" + serviceName + "', queue '" + queueName + "', deliveryTag " + deliveryTag);
+            this.mcpBreaker.success();
+            return mcp;
         } catch (IOException e) {
-            Data.logger.debug("Broker/Client: acknowledge mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
+            this.mcpBreaker.failure();
+            Data.logger.debug("Broker/Client: " + operation + " mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
+            throw e;
         }
-        Data.logger.info("Broker/Client: reject() on peer broker/local db");
-        return super.reject(serviceName, queueName, deliveryTag);
     }
 
     @Override
     public QueueFactory<byte[]> recover(Services serviceName, GridQueue queueName) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
-        }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
-            this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).recover();
+        if (isLocal(serviceName)) this.inProcessQueueFactory.getQueue(serviceName, queueName).recover();
+        String sqn = serviceQueueName(serviceName, queueName);
+        if (this.rabbitQueueFactory != null && this.rabbitBreaker.allow()) try {
+            this.rabbitQueueFactory.getQueue(sqn).recover();
+            forget(Backend.rabbitmq, sqn);
             Data.logger.info("Broker/Client: recovered rabbitMQ service '" + serviceName + "', queue '" + queueName + "'");
+            this.rabbitBreaker.success();
             return this.rabbitQueueFactory;
         } catch (IOException e) {
+            this.rabbitBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: recover rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-            // try to connect again..
-            connectMCP(this.mcp_host, this.mcp_port);
-            if (this.mcpQueueFactory == null) {
-                Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! recover mcp service '" + serviceName + "', queue '" + queueName);
-            }
-        }
-        if (this.mcpQueueFactory != null) try {
-            this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).recover();
+        if (this.mcpQueueFactory != null && this.mcpBreaker.allow()) try {
+            this.mcpQueueFactory.getQueue(sqn).recover();
+            forget(Backend.mcp, sqn);
             Data.logger.info("Broker/Client: recovered mcp service '" + serviceName + "', queue '" + queueName + "'");
+            this.mcpBreaker.success();
             return this.mcpQueueFactory;
         } catch (IOException e) {
+            this.mcpBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: recover mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
         }
         Data.logger.info("Broker/Client: recover() on peer broker/local db");
-        return super.recover(serviceName, queueName);
+        QueueFactory<byte[]> qf = super.recover(serviceName, queueName);
+        forget(Backend.local, sqn);
+        return qf;
     }
 
     @Override
     public AvailableContainer available(Services serviceName, GridQueue queueName) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
-        }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
+        if (this.rabbitQueueFactory != null && this.rabbitBreaker.allow()) try {
             AvailableContainer ac = new AvailableContainer(this.rabbitQueueFactory, queueName.name, this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).available());
+            this.rabbitBreaker.success();
             return ac;
         } catch (IOException e) {
+            this.rabbitBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: available rabbitMQ service '" + serviceName + "', queue '" + queueName + "',rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-            // try to connect again..
-            connectMCP(this.mcp_host, this.mcp_port);
-            if (this.mcpQueueFactory == null) {
-                Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! available mcp service '" + serviceName + "', queue '" + queueName + "'");
-            }
-        }
-        if (this.mcpQueueFactory != null) try {
+        if (this.mcpQueueFactory != null && this.mcpBreaker.allow()) try {
             AvailableContainer ac = new AvailableContainer(this.mcpQueueFactory, queueName.name, this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).available());
+            this.mcpBreaker.success();
             return ac;
         } catch (IOException e) {
+            this.mcpBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: available mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
         }
         Data.logger.info("Broker/Client: available() on peer broker/local db");
@@ -356,32 +736,42 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
     }
 
     @Override
-    public QueueFactory<byte[]> clear(Services serviceName, GridQueue queueName) throws IOException {
-        if (this.rabbitQueueFactory == null && this.rabbitMQ_host != null) {
-            // try to connect again..
-            connectRabbitMQ(this.rabbitMQ_host, this.rabbitMQ_port, this.rabbitMQ_username, this.rabbitMQ_password);
+    protected AvailableContainer[] sampleAvailable(Services serviceName, GridQueue[] queueNames) throws IOException {
+        // an mcp can count all queues with one request; the other backends are asked for each queue
+        QueueFactory<byte[]> mcp = this.mcpQueueFactory;
+        if ((this.rabbitQueueFactory == null || this.rabbitBreaker.getState() != CircuitBreaker.State.closed) &&
+            mcp instanceof MCPQueueFactory && this.mcpBreaker.allow()) try {
+            long[] available = ((MCPQueueFactory) mcp).available(serviceName, queueNames);
+            AvailableContainer[] ac = new AvailableContainer[queueNames.length];
+            for (int i = 0; i < queueNames.length; i++) ac[i] = new AvailableContainer(mcp, queueNames[i].name, available[i]);
+            this.mcpBreaker.success();
+            return ac;
+        } catch (IOException e) {
+            this.mcpBreaker.failure();
+            Data.logger.debug("Broker/Client: available mcp service '" + serviceName + "', " + queueNames.length + " queues, mcp fail", e);
         }
-        if (this.rabbitQueueFactory == null) {
-            this.rabbitMQ_host = null;
-        } else try {
+        return super.sampleAvailable(serviceName, queueNames);
+    }
+
+    @Override
+    public QueueFactory<byte[]> clear(Services serviceName, GridQueue queueName) throws IOException {
+        if (isLocal(serviceName)) this.inProcessQueueFactory.getQueue(serviceName, queueName).clear();
+        if (this.rabbitQueueFactory != null && this.rabbitBreaker.allow()) try {
             this.rabbitQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).clear();
             Data.logger.info("Broker/Client: clear rabbitMQ service '" + serviceName + "', queue '" + queueName + "'");
+            this.rabbitBreaker.success();
             return this.rabbitQueueFactory;
         } catch (IOException e) {
+            this.rabbitBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: send rabbitMQ service '" + serviceName + "', queue '" + queueName + "', rabbitmq fail", e);
         }
-        if (this.mcpQueueFactory == null && this.mcp_host != null) {
-                // try to connect again..
-                connectMCP(this.mcp_host, this.mcp_port);
-                if (this.mcpQueueFactory == null) {
-                    Data.logger.warn("Broker/Client: FATAL: connection to MCP lost! send mcp service '" + serviceName + "', queue '" + queueName + "'");
-                }
-        }
-        if (this.mcpQueueFactory != null) try {
+        if (this.mcpQueueFactory != null && this.mcpBreaker.allow()) try {
             this.mcpQueueFactory.getQueue(serviceQueueName(serviceName, queueName)).clear();
             Data.logger.info("Broker/Client: clear mcp service '" + serviceName + "', queue '" + queueName + "'");
+            this.mcpBreaker.success();
             return this.mcpQueueFactory;
         } catch (IOException e) {
+            this.mcpBreaker.failure();
             /*if (!e.getMessage().contains("timeout"))*/ Data.logger.debug("Broker/Client: send mcp service '" + serviceName + "', queue '" + queueName + "',mcp fail", e);
         }
         Data.logger.info("Broker/Client: send() on peer broker/local db");
@@ -389,6 +779,9 @@ public class GridBroker extends PeerBroker implements Broker<byte[]> {
     }
 
     public void close() {
+        this.rabbitBreaker.close();
+        this.mcpBreaker.close();
+        for (Services service: this.localServices) unregisterLocal(service);
         if (this.rabbitQueueFactory != null) try {this.rabbitQueueFactory.close();} catch (Throwable e) {}
         if (this.mcpQueueFactory != null) try {this.mcpQueueFactory.close();} catch (Throwable e) {}
         try {super.close();} catch (Throwable e) {}
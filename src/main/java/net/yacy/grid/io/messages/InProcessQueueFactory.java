@@ -0,0 +1,303 @@
+/**
+ *  InProcessQueueFactory
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.yacy.grid.Services;
+import net.yacy.grid.mcp.Data;
+
+/**
+ * Factory for queues which hand over messages between services running in the same JVM.
+ * The messages are not encoded, not copied and not stored; a queue is a bounded lock-free ring.
+ * A message which does not fit into a full ring is not accepted, so the sender can use another broker.
+ *
+ * Messages which are received without autoAck are kept until they are acknowledged; a reject or a recover
+ * puts them back into the ring. The delivery tags have the IN_PROCESS_TAG bit set, so acknowledgements
+ * can be routed to this factory.
+ */
+public class InProcessQueueFactory implements QueueFactory<byte[]> {
+
+    public final static long IN_PROCESS_TAG = 1L << 62;
+
+    /**
+     * the receiver of messages which cannot be put back into a full ring
+     */
+    public interface Spill {
+        public void spill(Services service, GridQueue queue, byte[] message) throws IOException;
+    }
+
+    private final int capacity;
+    private final Spill spill;
+    private final Map<String, InProcessQueue> queues;
+    private final AtomicLong tags;
+
+    /**
+     * create an in-process queue factory
+     * @param capacity the maximum number of messages in each queue; rounded up to a power of two
+     * @param spill the receiver of messages which are rejected or recovered when the ring is full
+     */
+    public InProcessQueueFactory(int capacity, Spill spill) {
+        int c = 1;
+        while (c < capacity) c = c << 1;
+        this.capacity = c;
+        this.spill = spill;
+        this.queues = new ConcurrentHashMap<>();
+        this.tags = new AtomicLong(0);
+    }
+
+    public static boolean isInProcessTag(long deliveryTag) {
+        return (deliveryTag & IN_PROCESS_TAG) != 0;
+    }
+
+    @Override
+    public String getHost() {
+        return null;
+    }
+
+    @Override
+    public boolean hasDefaultPort() {
+        return true;
+    }
+
+    @Override
+    public int getPort() {
+        return -1;
+    }
+
+    @Override
+    public String getConnectionURL() {
+        return null;
+    }
+
+    @Override
+    public InProcessQueue getQueue(String queueName) throws IOException {
+        InProcessQueue queue = this.queues.get(queueName);
+        if (queue == null) throw new IOException("in-process queue " + queueName + " does not exist");
+        return queue;
+    }
+
+    /**
+     * get a queue of a service; the queue is created if it did not exist
+     * @param service the service
+     * @param queue the queue
+     * @return the queue
+     */
+    public InProcessQueue getQueue(Services service, GridQueue queue) {
+        return this.queues.computeIfAbsent(service.name() + "_" + queue.name(), k -> new InProcessQueue(service, queue));
+    }
+
+    /**
+     * remove all queues of a service and return their messages, including those which are not acknowledged
+     * @param service the service
+     * @return a map from the queues to their messages
+     */
+    public Map<GridQueue, List<byte[]>> drain(Services service) {
+        Map<GridQueue, List<byte[]>> drained = new HashMap<>();
+        Iterator<InProcessQueue> i = this.queues.values().iterator();
+        while (i.hasNext()) {
+            InProcessQueue queue = i.next();
+            if (!queue.service.equals(service)) continue;
+            i.remove();
+            List<byte[]> messages = new ArrayList<>(queue.unacked.values());
+            queue.unacked.clear();
+            byte[] message;
+            while ((message = queue.poll()) != null) messages.add(message);
+            if (messages.size() > 0) drained.put(queue.queue, messages);
+        }
+        return drained;
+    }
+
+    @Override
+    public void close() {
+        this.queues.clear();
+    }
+
+    public class InProcessQueue extends AbstractQueue<byte[]> implements Queue<byte[]> {
+
+        private final Services service;
+        private final GridQueue queue;
+        private final AtomicReferenceArray<byte[]> buffer;
+        private final AtomicLongArray sequence;
+        private final int mask;
+        private final AtomicLong enqueuePosition, dequeuePosition;
+        private final Semaphore available;
+        private final Map<Long, byte[]> unacked;
+
+        private InProcessQueue(Services service, GridQueue queue) {
+            this.service = service;
+            this.queue = queue;
+            int capacity = InProcessQueueFactory.this.capacity;
+            this.buffer = new AtomicReferenceArray<>(capacity);
+            this.sequence = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) this.sequence.set(i, i);
+            this.mask = capacity - 1;
+            this.enqueuePosition = new AtomicLong(0);
+            this.dequeuePosition = new AtomicLong(0);
+            this.available = new Semaphore(0);
+            this.unacked = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * put a message into the ring. Each slot has a sequence number which tells if the slot is free
+         * for the producer at a position or filled for the consumer at a position.
+         * @param message the message
+         * @return false if the ring is full
+         */
+        public boolean offer(byte[] message) {
+            long position = this.enqueuePosition.get();
+            while (true) {
+                int index = (int) (position & this.mask);
+                long difference = this.sequence.get(index) - position;
+                if (difference == 0) {
+                    if (this.enqueuePosition.compareAndSet(position, position + 1)) {
+                        this.buffer.set(index, message);
+                        this.sequence.set(index, position + 1);
+                        this.available.release();
+                        return true;
+                    }
+                    position = this.enqueuePosition.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = this.enqueuePosition.get();
+                }
+            }
+        }
+
+        private byte[] take() {
+            // the caller holds a permit, so a message is in the ring or about to be visible
+            long position = this.dequeuePosition.get();
+            while (true) {
+                int index = (int) (position & this.mask);
+                long difference = this.sequence.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (this.dequeuePosition.compareAndSet(position, position + 1)) {
+                        byte[] message = this.buffer.getAndSet(index, null);
+                        this.sequence.set(index, position + this.mask + 1);
+                        return message;
+                    }
+                }
+                position = this.dequeuePosition.get();
+            }
+        }
+
+        /**
+         * take a message without waiting
+         * @return the message or null if the ring is empty
+         */
+        public byte[] poll() {
+            return this.available.tryAcquire() ? take() : null;
+        }
+
+        private MessageContainer<byte[]> deliver(byte[] message, boolean autoAck) {
+            long deliveryTag = IN_PROCESS_TAG | InProcessQueueFactory.this.tags.incrementAndGet();
+            if (!autoAck) this.unacked.put(deliveryTag, message);
+            return new MessageContainer<byte[]>(InProcessQueueFactory.this, message, deliveryTag);
+        }
+
+        /**
+         * receive a message without waiting
+         * @param autoAck if false the message must be acknowledged
+         * @return the message or null if the ring is empty
+         */
+        public MessageContainer<byte[]> receiveNow(boolean autoAck) {
+            byte[] message = poll();
+            return message == null ? null : deliver(message, autoAck);
+        }
+
+        @Override
+        public void checkConnection() throws IOException {
+        }
+
+        @Override
+        public Queue<byte[]> send(byte[] message) throws IOException {
+            if (!offer(message)) throw new IOException(GridBroker.TARGET_LIMIT_MESSAGE);
+            return this;
+        }
+
+        @Override
+        public MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
+            try {
+                if (timeout > 0) {
+                    if (!this.available.tryAcquire(timeout, TimeUnit.MILLISECONDS)) return null;
+                } else {
+                    this.available.acquire();
+                }
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return deliver(take(), autoAck);
+        }
+
+        @Override
+        public void acknowledge(long deliveryTag) throws IOException {
+            this.unacked.remove(deliveryTag);
+        }
+
+        @Override
+        public void acknowledgeUpTo(long deliveryTag) throws IOException {
+            this.unacked.keySet().removeIf(tag -> tag <= deliveryTag);
+        }
+
+        @Override
+        public void reject(long deliveryTag) throws IOException {
+            byte[] message = this.unacked.remove(deliveryTag);
+            if (message != null) requeue(message);
+        }
+
+        @Override
+        public void recover() throws IOException {
+            Iterator<byte[]> i = this.unacked.values().iterator();
+            while (i.hasNext()) {
+                byte[] message = i.next();
+                i.remove();
+                requeue(message);
+            }
+        }
+
+        private void requeue(byte[] message) throws IOException {
+            if (offer(message)) return;
+            Data.logger.info("InProcessQueue: queue " + this.queue + " is full, message is handed to the broker");
+            InProcessQueueFactory.this.spill.spill(this.service, this.queue, message);
+        }
+
+        @Override
+        public long available() throws IOException {
+            return this.available.availablePermits();
+        }
+
+        @Override
+        public void clear() throws IOException {
+            while (poll() != null) {}
+        }
+    }
+}
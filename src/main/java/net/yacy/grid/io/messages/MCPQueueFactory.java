@@ -19,17 +19,26 @@
 
 package net.yacy.grid.io.messages;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import net.yacy.grid.Services;
 import net.yacy.grid.YaCyServices;
 import net.yacy.grid.http.APIHandler;
 import net.yacy.grid.http.APIServer;
+import net.yacy.grid.http.ClientConnection;
 import net.yacy.grid.http.ObjectAPIHandler;
 import net.yacy.grid.http.ServiceResponse;
 import net.yacy.grid.mcp.Data;
+import net.yacy.grid.mcp.ThoughtEnvelope;
 import net.yacy.grid.mcp.api.info.StatusService;
 import net.yacy.grid.mcp.api.messages.AcknowledgeService;
 import net.yacy.grid.mcp.api.messages.AvailableService;
@@ -37,17 +46,34 @@ import net.yacy.grid.mcp.api.messages.ReceiveService;
 import net.yacy.grid.mcp.api.messages.RecoverService;
 import net.yacy.grid.mcp.api.messages.RejectService;
 import net.yacy.grid.mcp.api.messages.SendService;
+import net.yacy.grid.mcp.api.messages.StreamService;
 
+/**
+ * Queues of a broker which is reached through another MCP.
+ * Messages are received over a long-lived stream response of the MCP which delivers messages as binary frames;
+ * acknowledgements of messages are collected and sent in batches whenever the receiver would wait for new messages.
+ * If the MCP does not provide the stream service, every receive is done with a single request.
+ */
 public class MCPQueueFactory implements QueueFactory<byte[]> {
-    
+
+    private final static int ACK_BATCH = 100;
+
     private GridBroker broker;
     private String server;
     private int port;
-    
+    private volatile boolean streaming, streamed, batchAvailable;
+    private final Map<String, MessageStream> streams;
+    private final Map<String, List<Long>> pendingAcks;
+
     public MCPQueueFactory(GridBroker broker, String server, int port) {
         this.broker = broker;
         this.server = server;
         this.port = port;
+        this.streaming = true;
+        this.streamed = false;
+        this.batchAvailable = true;
+        this.streams = new ConcurrentHashMap<>();
+        this.pendingAcks = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -90,7 +116,8 @@ public class MCPQueueFactory implements QueueFactory<byte[]> {
 
             @Override
             public Queue<byte[]> send(byte[] message) throws IOException {
-                params.put("message", new String(message, StandardCharsets.UTF_8));
+                // the message is transported as text; a binary envelope is converted to its json form
+                params.put("message", new String(ThoughtEnvelope.toJSON(message), StandardCharsets.UTF_8));
                 JSONObject response = getResponse(APIServer.getAPI(SendService.NAME));
 
                 // read the broker to store the service definition of the remote queue, if exists
@@ -102,8 +129,31 @@ public class MCPQueueFactory implements QueueFactory<byte[]> {
                 }
             }
 
+            @Override
+            public Queue<byte[]> send(List<byte[]> messages) throws IOException {
+                JSONArray m = new JSONArray();
+                for (byte[] message: messages) m.put(new String(ThoughtEnvelope.toJSON(message), StandardCharsets.UTF_8));
+                params.put("messages", m);
+                JSONObject response;
+                try {
+                    response = getResponse(APIServer.getAPI(SendService.NAME));
+                } finally {
+                    params.remove("messages");
+                }
+                if (success(response)) {
+                    connectMCP(response);
+                    return this;
+                } else {
+                    throw handleError(response);
+                }
+            }
+
             @Override
             public MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
+                if (MCPQueueFactory.this.streaming) {
+                    List<MessageContainer<byte[]>> mcs = stream(serviceQueueName, autoAck).receive(1, timeout);
+                    if (mcs != null) return mcs.size() == 0 ? null : mcs.get(0);
+                }
                 params.put("timeout", Long.toString(timeout));
                 params.put("autoAck", Boolean.toString(autoAck));
                 JSONObject response = getResponse(APIServer.getAPI(ReceiveService.NAME));
@@ -122,8 +172,71 @@ public class MCPQueueFactory implements QueueFactory<byte[]> {
                 }
             }
 
+            @Override
+            public List<MessageContainer<byte[]>> receive(int maxMessages, long timeout, boolean autoAck) throws IOException {
+                if (MCPQueueFactory.this.streaming) {
+                    List<MessageContainer<byte[]>> mcs = stream(serviceQueueName, autoAck).receive(maxMessages, timeout);
+                    if (mcs != null) return mcs;
+                }
+                params.put("timeout", Long.toString(timeout));
+                params.put("autoAck", Boolean.toString(autoAck));
+                params.put("maxMessages", Integer.toString(maxMessages));
+                JSONObject response;
+                try {
+                    response = getResponse(APIServer.getAPI(ReceiveService.NAME));
+                } finally {
+                    params.remove("maxMessages");
+                }
+
+                // read the broker to store the service definition of the remote queue, if exists
+                if (success(response)) {
+                    connectMCP(response);
+                    if (response.has(ObjectAPIHandler.MESSAGES_KEY)) {
+                        JSONArray messages = response.getJSONArray(ObjectAPIHandler.MESSAGES_KEY);
+                        List<MessageContainer<byte[]>> mcs = new ArrayList<>(messages.length());
+                        for (int i = 0; i < messages.length(); i++) {
+                            JSONObject m = messages.getJSONObject(i);
+                            String message = m.getString(ObjectAPIHandler.MESSAGE_KEY);
+                            long deliveryTag = m.optLong(ObjectAPIHandler.DELIVERY_TAG);
+                            mcs.add(new MessageContainer<byte[]>(MCPQueueFactory.this, message.getBytes(StandardCharsets.UTF_8), deliveryTag));
+                        }
+                        return mcs;
+                    }
+                    throw new IOException("bad response from MCP: success but no messages key");
+                } else {
+                    throw handleError(response);
+                }
+            }
+
+            @Override
+            public void acknowledgeUpTo(long deliveryTag) throws IOException {
+                flushAcknowledgements(serviceQueueName);
+                params.put("deliveryTag", Long.toString(deliveryTag));
+                params.put("multiple", "true");
+                JSONObject response;
+                try {
+                    response = getResponse(APIServer.getAPI(AcknowledgeService.NAME));
+                } finally {
+                    params.remove("multiple");
+                }
+                if (success(response)) {
+                    connectMCP(response);
+                } else {
+                    throw handleError(response);
+                }
+            }
+
             @Override
             public void acknowledge(long deliveryTag) throws IOException {
+                if (MCPQueueFactory.this.streaming) {
+                    List<Long> acks = MCPQueueFactory.this.pendingAcks.computeIfAbsent(serviceQueueName, k -> new ArrayList<>());
+                    synchronized (acks) {
+                        acks.add(deliveryTag);
+                        if (acks.size() < ACK_BATCH) return;
+                    }
+                    flushAcknowledgements(serviceQueueName);
+                    return;
+                }
                 params.put("deliveryTag", Long.toString(deliveryTag));
                 JSONObject response = getResponse(APIServer.getAPI(AcknowledgeService.NAME));
                 if (success(response)) {
@@ -135,6 +248,7 @@ public class MCPQueueFactory implements QueueFactory<byte[]> {
 
             @Override
             public void reject(long deliveryTag) throws IOException {
+                flushAcknowledgements(serviceQueueName);
                 params.put("deliveryTag", Long.toString(deliveryTag));
                 JSONObject response = getResponse(APIServer.getAPI(RejectService.NAME));
                 if (success(response)) {
@@ -146,6 +260,7 @@ public class MCPQueueFactory implements QueueFactory<byte[]> {
 
             @Override
             public void recover() throws IOException {
+                flushAcknowledgements(serviceQueueName); // otherwise processed messages would be delivered again
                 JSONObject response = getResponse(APIServer.getAPI(RecoverService.NAME));
                 if (success(response)) {
                     connectMCP(response);
@@ -171,36 +286,219 @@ public class MCPQueueFactory implements QueueFactory<byte[]> {
                 }
             }
             private JSONObject getResponse(APIHandler handler) throws IOException {
-                String protocolhostportstub = MCPQueueFactory.this.getConnectionURL();
-                ServiceResponse sr = handler.serviceImpl(protocolhostportstub, params);
-                return sr.getObject();
-            }
-            private boolean success(JSONObject response) {
-                return response.has(ObjectAPIHandler.SUCCESS_KEY) && response.getBoolean(ObjectAPIHandler.SUCCESS_KEY);
-            }
-            private void connectMCP(JSONObject response) {
-                if (response.has(ObjectAPIHandler.SERVICE_KEY)) {
-                    String broker = response.getString(ObjectAPIHandler.SERVICE_KEY);
-                    if (MCPQueueFactory.this.broker.connectRabbitMQ(broker)) {
-                        Data.logger.info("connected MCP broker at " + broker);
-                    } else {
-                        Data.logger.error("failed to connect MCP broker at " + broker);
+                return MCPQueueFactory.this.getResponse(handler, params);
+            }
+
+        };
+    }
+
+    /**
+     * count the available messages of several queues of a service with one request
+     * @param service the name of the grid service
+     * @param queues the queues of the service
+     * @return the number of available messages for each queue
+     * @throws IOException
+     */
+    public long[] available(Services service, GridQueue[] queues) throws IOException {
+        long[] available = new long[queues.length];
+        if (this.batchAvailable) {
+            StringBuilder queueNames = new StringBuilder();
+            for (GridQueue queue: queues) queueNames.append(queueNames.length() == 0 ? "" : ",").append(queue.name());
+            JSONObject params = new JSONObject(true);
+            params.put("serviceName", service.name());
+            params.put("queueNames", queueNames.toString());
+            JSONObject response = getResponse(APIServer.getAPI(AvailableService.NAME), params);
+            if (success(response) && response.has(ObjectAPIHandler.AVAILABLES_KEY)) {
+                JSONArray a = response.getJSONArray(ObjectAPIHandler.AVAILABLES_KEY);
+                if (a.length() != queues.length) throw new IOException("bad response from MCP: wrong number of availables");
+                for (int i = 0; i < queues.length; i++) available[i] = a.getLong(i);
+                return available;
+            }
+            // this mcp does not know queueNames
+            this.batchAvailable = false;
+        }
+        for (int i = 0; i < queues.length; i++) {
+            available[i] = getQueue(service.name() + "_" + queues[i].name()).available();
+        }
+        return available;
+    }
+
+    private JSONObject getResponse(APIHandler handler, JSONObject params) throws IOException {
+        String protocolhostportstub = this.getConnectionURL();
+        ServiceResponse sr = handler.serviceImpl(protocolhostportstub, params);
+        return sr.getObject();
+    }
+
+    private boolean success(JSONObject response) {
+        return response.has(ObjectAPIHandler.SUCCESS_KEY) && response.getBoolean(ObjectAPIHandler.SUCCESS_KEY);
+    }
+
+    private void connectMCP(JSONObject response) {
+        if (response.has(ObjectAPIHandler.SERVICE_KEY)) {
+            String broker = response.getString(ObjectAPIHandler.SERVICE_KEY);
+            if (this.broker.connectRabbitMQ(broker)) {
+                Data.logger.info("connected MCP broker at " + broker);
+            } else {
+                Data.logger.error("failed to connect MCP broker at " + broker);
+            }
+        }
+    }
+
+    private IOException handleError(JSONObject response) {
+        if (response.has(ObjectAPIHandler.COMMENT_KEY)) {
+            return new IOException("cannot connect to MCP: " + response.getString(ObjectAPIHandler.COMMENT_KEY));
+        }
+        return new IOException("bad response from MCP: no success and no comment key");
+    }
+
+    private JSONObject queueParams(String serviceQueueName) {
+        final int p = serviceQueueName.indexOf('_');
+        final JSONObject params = new JSONObject(true);
+        params.put("serviceName", serviceQueueName.substring(0, p));
+        params.put("queueName", serviceQueueName.substring(p + 1));
+        return params;
+    }
+
+    private MessageStream stream(String serviceQueueName, boolean autoAck) {
+        return this.streams.computeIfAbsent(serviceQueueName + (autoAck ? "/auto" : "/manual"), k -> new MessageStream(serviceQueueName, autoAck));
+    }
+
+    /**
+     * send all collected acknowledgements of a queue with one request
+     * @param serviceQueueName
+     * @throws IOException
+     */
+    private void flushAcknowledgements(String serviceQueueName) throws IOException {
+        List<Long> acks = this.pendingAcks.get(serviceQueueName);
+        if (acks == null) return;
+        StringBuilder tags = new StringBuilder();
+        synchronized (acks) {
+            if (acks.size() == 0) return;
+            for (Long tag: acks) tags.append(tags.length() == 0 ? "" : ",").append(tag);
+            acks.clear();
+        }
+        JSONObject params = queueParams(serviceQueueName);
+        params.put("deliveryTags", tags.toString());
+        JSONObject response = getResponse(APIServer.getAPI(AcknowledgeService.NAME), params);
+        if (!success(response)) throw handleError(response);
+    }
+
+    /**
+     * A stream of messages from one queue of the MCP. The stream is opened on demand and opened again
+     * when the MCP ends it; it is read by one receiving thread at a time.
+     */
+    private class MessageStream {
+
+        private final String serviceQueueName;
+        private final boolean autoAck;
+        private volatile ClientConnection connection;
+        private DataInputStream is;
+
+        private MessageStream(String serviceQueueName, boolean autoAck) {
+            this.serviceQueueName = serviceQueueName;
+            this.autoAck = autoAck;
+            this.connection = null;
+            this.is = null;
+        }
+
+        /**
+         * receive messages from the stream. The method blocks until at least one message is available and then
+         * returns all messages which had been delivered already without further waiting.
+         * @param maxMessages the maximum number of messages to be returned
+         * @param timeout for blocking in milliseconds. if negative the method blocks until a message is available
+         * @return a list of messages, empty if a timeout occurred or null if the MCP does not provide streams
+         * @throws IOException
+         */
+        private synchronized List<MessageContainer<byte[]>> receive(int maxMessages, long timeout) throws IOException {
+            List<MessageContainer<byte[]>> mcs = new ArrayList<>();
+            long end = System.currentTimeMillis() + timeout;
+            boolean polled = false;
+            try {
+                while (mcs.size() < maxMessages) {
+                    if (this.is == null) {
+                        if (mcs.size() > 0) break;
+                        long now = System.currentTimeMillis();
+                        if (polled && timeout >= 0 && now >= end) break;
+                        flushAcknowledgements(this.serviceQueueName);
+                        if (!open(timeout < 0 ? -1 : Math.max(0, end - now))) return null;
+                        polled = true;
+                    } else if (this.is.available() < 4) {
+                        // no more messages were delivered so far: do not wait if we have some already
+                        if (mcs.size() > 0) break;
+                        flushAcknowledgements(this.serviceQueueName);
+                    }
+                    int length = this.is.readInt();
+                    if (length < 0) {
+                        close();
+                        if (length == StreamService.END_ERROR) throw new IOException("MCP stream broken: broker failure at MCP");
+                        if (length == StreamService.END_IDLE) break;
+                        continue; // END_LIMIT: open the next stream
                     }
+                    long deliveryTag = this.is.readLong();
+                    byte[] payload = new byte[length];
+                    this.is.readFully(payload);
+                    mcs.add(new MessageContainer<byte[]>(MCPQueueFactory.this, payload, deliveryTag));
                 }
+            } catch (IOException e) {
+                abort();
+                if (mcs.size() > 0) return mcs; // the messages had been delivered; the failure shows up with the next call
+                throw e;
             }
-            private IOException handleError(JSONObject response) {
-                if (response.has(ObjectAPIHandler.COMMENT_KEY)) {
-                    return new IOException("cannot connect to MCP: " + response.getString(ObjectAPIHandler.COMMENT_KEY));
-                }
-                return new IOException("bad response from MCP: no success and no comment key");
+            return mcs;
+        }
+
+        private boolean open(long timeout) throws IOException {
+            JSONObject params = queueParams(this.serviceQueueName);
+            params.put("autoAck", Boolean.toString(this.autoAck));
+            params.put("timeout", Long.toString(timeout));
+            String url = MCPQueueFactory.this.getConnectionURL() + APIServer.getAPI(StreamService.NAME).getAPIPath();
+            try {
+                this.connection = new ClientConnection(url, ObjectAPIHandler.json2map(params));
+            } catch (IOException e) {
+                if (MCPQueueFactory.this.streamed) throw e;
+                // the stream did never work: this may be an MCP without the stream service
+                MCPQueueFactory.this.streaming = false;
+                Data.logger.info("MCPQueueFactory: no message stream at " + url + ", using single requests: " + e.getMessage());
+                return false;
             }
-            
-        };
+            MCPQueueFactory.this.streamed = true;
+            this.is = new DataInputStream(this.connection.inputStream);
+            return true;
+        }
+
+        private void close() {
+            if (this.connection != null) this.connection.close();
+            this.connection = null;
+            this.is = null;
+        }
+
+        private void abort() {
+            interrupt();
+            this.connection = null;
+            this.is = null;
+        }
+
+        /**
+         * abort the connection of the stream; a thread which reads the stream fails with an IOException
+         */
+        private void interrupt() {
+            ClientConnection c = this.connection;
+            if (c != null) c.abort();
+        }
     }
 
     @Override
     public void close() {
-        // this is stateless, do nothing
+        for (String serviceQueueName: this.pendingAcks.keySet()) {
+            try {
+                flushAcknowledgements(serviceQueueName);
+            } catch (IOException e) {
+                Data.logger.warn("MCPQueueFactory: acknowledgements for " + serviceQueueName + " are lost", e);
+            }
+        }
+        // streams which are in use are aborted by closing the connection of the reading thread
+        for (MessageStream stream: this.streams.values()) stream.interrupt();
+        this.streams.clear();
     }
 
 }
@@ -21,11 +21,14 @@ package net.yacy.grid.io.messages;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import net.yacy.grid.io.db.CommitPolicy;
 import net.yacy.grid.io.db.MapDBSortedMap;
 import net.yacy.grid.io.db.MapStack;
 import net.yacy.grid.io.db.Stack;
@@ -37,14 +40,17 @@ import net.yacy.grid.mcp.Data;
 public class MapDBStackQueueFactory implements QueueFactory<byte[]> {
 
     private File location;
+    private CommitPolicy commitPolicy;
     private Map<String, StackQueue> queues;
 
     /**
      * initialize a stack factory based on a file stack
      * @param storageLocationPath the path where the stacks shall be stored
+     * @param commitPolicy the commit policy of the stacks
      */
-    public MapDBStackQueueFactory(File storageLocationPath) {
+    public MapDBStackQueueFactory(File storageLocationPath, CommitPolicy commitPolicy) {
         this.location = storageLocationPath;
+        this.commitPolicy = commitPolicy;
         this.location.mkdirs();
         this.queues = new ConcurrentHashMap<>();
     }
@@ -84,7 +90,7 @@ public class MapDBStackQueueFactory implements QueueFactory<byte[]> {
         synchronized (this) {
             queue = queues.get(queueName);
             if (queue != null) return queue;
-            queue = new StackQueue(new MapStack<byte[]>(new MapDBSortedMap(new File(this.location, queueName))));
+            queue = new StackQueue(new MapStack<byte[]>(new MapDBSortedMap(new File(this.location, queueName), this.commitPolicy)));
             this.queues.put(queueName, queue);
             return queue;
         }
@@ -115,11 +121,27 @@ public class MapDBStackQueueFactory implements QueueFactory<byte[]> {
 
         @Override
         public Queue<byte[]> send(byte[] message) throws IOException {
-            this.stack.push(message);
+            try {
+                this.stack.push(message);
+            } catch (UncheckedIOException e) {
+                throw e.getCause(); // the message was not committed
+            }
             this.semaphore.release();
             return this;
         }
 
+        @Override
+        public Queue<byte[]> send(List<byte[]> messages) throws IOException {
+            if (messages.isEmpty()) return this;
+            try {
+                this.stack.push(messages);
+            } catch (UncheckedIOException e) {
+                throw e.getCause(); // the messages were not committed
+            }
+            this.semaphore.release(messages.size());
+            return this;
+        }
+
         @Override
         public MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
             try {
@@ -129,6 +151,8 @@ public class MapDBStackQueueFactory implements QueueFactory<byte[]> {
                     this.semaphore.acquire();
                 }
                 return new MessageContainer<byte[]>(MapDBStackQueueFactory.this, this.stack.pot(), 0);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             } catch (InterruptedException e) {
                 Data.logger.debug("StackQueue: receive interrupted", e);
             }
@@ -140,6 +164,11 @@ public class MapDBStackQueueFactory implements QueueFactory<byte[]> {
             // do nothing, this class does not provide a message acknowledge function
         }
 
+        @Override
+        public void acknowledgeUpTo(long deliveryTag) throws IOException {
+            // do nothing, this class does not provide a message acknowledge function
+        }
+
         @Override
         public void reject(long deliveryTag) throws IOException {
             // do nothing, this class does not provide a message reject function
@@ -0,0 +1,302 @@
+/**
+ *  MessageCodec
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.json.JSONObject;
+
+/**
+ * Compression of broker message payloads.
+ * A compressed payload starts with a header: a magic byte which cannot appear at the start of an utf-8 text,
+ * the codec id and the length of the uncompressed payload (4 bytes). Payloads without that header are
+ * passed through unchanged, so messages from peers which do not compress can still be read. An uncompressed
+ * payload which happens to start with the magic byte is stored with the header of the codec 'none'.
+ * Peers which do not know the header cannot read compressed messages; therefore compression
+ * must only be switched on when all peers are able to decode it.
+ */
+public class MessageCodec {
+
+    public final static byte MAGIC = (byte) 0xFE;
+    private final static int HEADER_SIZE = 6;
+    private final static int MAX_RATIO = 1032; // no codec expands a byte to more than this, deflate comes closest
+
+    public enum Codec {
+        none(0), deflate(1), fast(2);
+        public final byte id;
+        private Codec(int id) {
+            this.id = (byte) id;
+        }
+        public static Codec valueOf(byte id) {
+            for (Codec c: values()) if (c.id == id) return c;
+            return null;
+        }
+    }
+
+    private final Codec codec;
+    private final int minSize;
+    private final AtomicLong encodedMessages, rawBytes, encodedBytes, decodedMessages;
+
+    /**
+     * @param codec the codec which is used to encode messages
+     * @param minSize messages smaller than this size are not compressed
+     */
+    public MessageCodec(Codec codec, int minSize) {
+        this.codec = codec;
+        this.minSize = Math.max(HEADER_SIZE, minSize);
+        this.encodedMessages = new AtomicLong(0);
+        this.rawBytes = new AtomicLong(0);
+        this.encodedBytes = new AtomicLong(0);
+        this.decodedMessages = new AtomicLong(0);
+    }
+
+    public Codec getCodec() {
+        return this.codec;
+    }
+
+    public static boolean isEncoded(byte[] payload) {
+        return payload != null && payload.length >= HEADER_SIZE && payload[0] == MAGIC;
+    }
+
+    /**
+     * compress a payload with the codec of this instance
+     * @param payload
+     * @return the compressed payload or the original payload if compression is switched off or does not help
+     */
+    public byte[] encode(byte[] payload) {
+        if (payload == null) return null;
+        if (this.codec == Codec.none || payload.length < this.minSize) return payload.length > 0 && payload[0] == MAGIC ? wrap(Codec.none, payload, payload) : payload;
+        byte[] data = this.codec == Codec.deflate ? deflate(payload) : fastCompress(payload);
+        this.encodedMessages.incrementAndGet();
+        this.rawBytes.addAndGet(payload.length);
+        byte[] b;
+        if (data.length + HEADER_SIZE < payload.length) {
+            b = wrap(this.codec, data, payload);
+        } else {
+            b = payload[0] == MAGIC ? wrap(Codec.none, payload, payload) : payload;
+        }
+        this.encodedBytes.addAndGet(b.length);
+        return b;
+    }
+
+    private static byte[] wrap(Codec codec, byte[] data, byte[] payload) {
+        byte[] b = new byte[data.length + HEADER_SIZE];
+        b[0] = MAGIC;
+        b[1] = codec.id;
+        writeInt(b, 2, payload.length);
+        System.arraycopy(data, 0, b, HEADER_SIZE, data.length);
+        return b;
+    }
+
+    /**
+     * decompress a payload; payloads without a codec header are returned unchanged
+     * @param payload
+     * @return the original payload
+     * @throws IOException if the payload is not a valid compressed payload
+     */
+    public byte[] decode(byte[] payload) throws IOException {
+        if (!isEncoded(payload)) return payload;
+        Codec c = Codec.valueOf(payload[1]);
+        if (c == null) throw new IOException("unknown message codec " + payload[1]);
+        int length = readInt(payload, 2);
+        // the length is checked before the buffer for the message is allocated
+        long maxLength = c == Codec.none ? payload.length - HEADER_SIZE : (long) (payload.length - HEADER_SIZE) * MAX_RATIO + 64;
+        if (length < 0 || length > maxLength) throw new IOException("bad message codec header");
+        if (c == Codec.none && length != maxLength) throw new IOException("truncated message");
+        byte[] b =
+                c == Codec.none ? Arrays.copyOfRange(payload, HEADER_SIZE, payload.length) :
+                c == Codec.deflate ? inflate(payload, HEADER_SIZE, length) :
+                fastDecompress(payload, HEADER_SIZE, length);
+        this.decodedMessages.incrementAndGet();
+        return b;
+    }
+
+    public MessageContainer<byte[]> decode(MessageContainer<byte[]> mc) throws IOException {
+        if (mc == null || !isEncoded(mc.getPayload())) return mc;
+        return new MessageContainer<byte[]>(mc.getFactory(), decode(mc.getPayload()), mc.getDeliveryTag());
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        long raw = this.rawBytes.get(), encoded = this.encodedBytes.get();
+        json.put("codec", this.codec.name());
+        json.put("encoded_messages", this.encodedMessages.get());
+        json.put("decoded_messages", this.decodedMessages.get());
+        json.put("raw_bytes", raw);
+        json.put("encoded_bytes", encoded);
+        json.put("ratio", raw == 0 ? 1.0d : ((double) encoded) / ((double) raw));
+        return json;
+    }
+
+    private static void writeInt(byte[] b, int pos, int i) {
+        b[pos] = (byte) (i >>> 24);
+        b[pos + 1] = (byte) (i >>> 16);
+        b[pos + 2] = (byte) (i >>> 8);
+        b[pos + 3] = (byte) i;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length / 4 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                baos.write(buffer, 0, n);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] b, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(b, offset, b.length - offset);
+            byte[] out = new byte[length];
+            int n = 0;
+            while (n < length) {
+                int i = inflater.inflate(out, n, length - n);
+                if (i == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                n += i;
+            }
+            // the end of the deflate stream must be present as well, otherwise the payload was cut
+            if (n == length && !inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished())) n = -1;
+            if (n != length) throw new IOException("truncated deflate payload");
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // the fast codec is a lz77 variant in the style of the lz4 block format:
+    // sequences of a token (literal length and match length nibbles), extra literal length bytes, literals,
+    // a two-byte match offset and extra match length bytes. The last sequence has literals only.
+
+    private final static int MIN_MATCH = 4;
+    private final static int HASH_BITS = 12;
+    private final static int MAX_OFFSET = 65535;
+
+    private static int hash(int i) {
+        return (i * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static int read4(byte[] b, int pos) {
+        return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8) | ((b[pos + 2] & 0xff) << 16) | ((b[pos + 3] & 0xff) << 24);
+    }
+
+    private static int writeLength(byte[] out, int op, int l) {
+        while (l >= 255) {
+            out[op++] = (byte) 255;
+            l -= 255;
+        }
+        out[op++] = (byte) l;
+        return op;
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] src, int anchor, int literals, int offset, int match) {
+        int m = match - MIN_MATCH;
+        out[op++] = (byte) ((Math.min(literals, 15) << 4) | (match == 0 ? 0 : Math.min(m, 15)));
+        if (literals >= 15) op = writeLength(out, op, literals - 15);
+        System.arraycopy(src, anchor, out, op, literals);
+        op += literals;
+        if (match == 0) return op;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        if (m >= 15) op = writeLength(out, op, m - 15);
+        return op;
+    }
+
+    private static byte[] fastCompress(byte[] src) {
+        int n = src.length;
+        byte[] out = new byte[n + n / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int op = 0, anchor = 0, i = 0;
+        while (i <= n - MIN_MATCH) {
+            int v = read4(src, i);
+            int h = hash(v);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || read4(src, ref) != v) {
+                i++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (i + len < n && src[ref + len] == src[i + len]) len++;
+            op = writeSequence(out, op, src, anchor, i - anchor, i - ref, len);
+            i += len;
+            anchor = i;
+        }
+        op = writeSequence(out, op, src, anchor, n - anchor, 0, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    private static byte[] fastDecompress(byte[] b, int offset, int length) throws IOException {
+        byte[] out = new byte[length];
+        int ip = offset, op = 0;
+        try {
+            while (true) {
+                // the last sequence has literals only, so the payload must not end after a match
+                if (ip >= b.length) throw new IOException("truncated fast payload");
+                int token = b[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int l;
+                    do {l = b[ip++] & 0xff; literals += l;} while (l == 255);
+                }
+                System.arraycopy(b, ip, out, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= b.length) break;
+                int distance = (b[ip] & 0xff) | ((b[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int match = token & 15;
+                if (match == 15) {
+                    int l;
+                    do {l = b[ip++] & 0xff; match += l;} while (l == 255);
+                }
+                match += MIN_MATCH;
+                int ref = op - distance;
+                if (distance == 0 || ref < 0) throw new IOException("bad match offset in fast payload");
+                for (int j = 0; j < match; j++) out[op++] = out[ref++]; // byte-wise, matches may overlap
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt fast payload");
+        }
+        if (op != length) throw new IOException("truncated fast payload");
+        return out;
+    }
+}
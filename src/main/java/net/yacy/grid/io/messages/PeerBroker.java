@@ -21,10 +21,12 @@ package net.yacy.grid.io.messages;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.yacy.grid.Services;
+import net.yacy.grid.io.db.CommitPolicy;
 
 /**
  * Peer Broker implementation of the broker function.
@@ -33,10 +35,21 @@ import net.yacy.grid.Services;
 public class PeerBroker extends AbstractBroker<byte[]> implements Broker<byte[]> {
 
     private File basePath;
+    private boolean segmentLog;
+    private CommitPolicy commitPolicy;
     private Map<Services, QueueFactory<byte[]>> clientConnector;
     
-    public PeerBroker(File basePath) {
+    /**
+     * create a local broker
+     * @param basePath the path where the queues are stored
+     * @param segmentLog if true, the queues are stored in segment logs, otherwise in mapdb stacks
+     * @param commitPolicy the commit policy of the mapdb stacks
+     */
+    public PeerBroker(File basePath, boolean segmentLog, CommitPolicy commitPolicy, AffinityTable affinity, long monitorInterval) {
+        super(affinity, monitorInterval);
         this.basePath = basePath;
+        this.segmentLog = segmentLog;
+        this.commitPolicy = commitPolicy;
         this.clientConnector = new ConcurrentHashMap<>();
     }
     
@@ -44,7 +57,7 @@ public class PeerBroker extends AbstractBroker<byte[]> implements Broker<byte[]>
      * take a connector from a cached map of connectors.
      * The connectors are created on-the-fly and they hold a database handle for the embedded db
      * @param service
-     * @return a queue factory for the mapdb instance of the queue
+     * @return a queue factory for the local storage of the queue
      */
     private QueueFactory<byte[]> getConnector(Services service) throws IOException {
         if (this.basePath == null) throw new IOException("no local queue supported (to fix this on a non-mcp peer: run a mcp)");
@@ -54,10 +67,10 @@ public class PeerBroker extends AbstractBroker<byte[]> implements Broker<byte[]>
             // to overcome synchronization issues, check map entry again
             c = this.clientConnector.get(service);
             if (c != null)  return c;
-            // create a mapdb for this queue. The db is now the queue
+            // create a db for this queue. The db is now the queue
             File clientPath = new File(this.basePath, service.name());
             clientPath.mkdirs();
-            c = new MapDBStackQueueFactory(clientPath);
+            c = this.segmentLog ? new SegmentLogQueueFactory(new File(clientPath, "log")) : new MapDBStackQueueFactory(clientPath, this.commitPolicy);
             this.clientConnector.put(service, c);
         }
         return c;
@@ -70,6 +83,13 @@ public class PeerBroker extends AbstractBroker<byte[]> implements Broker<byte[]>
         return factory;
     }
 
+    @Override
+    public QueueFactory<byte[]> send(Services service, GridQueue queueName, List<byte[]> messages) throws IOException {
+        QueueFactory<byte[]> factory = getConnector(service);
+        factory.getQueue(queueName.name()).send(messages);
+        return factory;
+    }
+
     @Override
     public MessageContainer<byte[]> receive(Services service, GridQueue queueName, long timeout, boolean autoAck) throws IOException {
         QueueFactory<byte[]> factory = getConnector(service);
@@ -77,6 +97,20 @@ public class PeerBroker extends AbstractBroker<byte[]> implements Broker<byte[]>
         return mq.receive(timeout, autoAck);
     }
 
+    @Override
+    public List<MessageContainer<byte[]>> receive(Services service, GridQueue queueName, int maxMessages, long timeout, boolean autoAck) throws IOException {
+        QueueFactory<byte[]> factory = getConnector(service);
+        Queue<byte[]> mq = factory.getQueue(queueName.name());
+        return mq.receive(maxMessages, timeout, autoAck);
+    }
+
+    @Override
+    public QueueFactory<byte[]> acknowledgeUpTo(Services service, GridQueue queueName, long deliveryTag) throws IOException {
+        QueueFactory<byte[]> factory = getConnector(service);
+        factory.getQueue(queueName.name()).acknowledgeUpTo(deliveryTag);
+        return factory;
+    }
+
     @Override
     public QueueFactory<byte[]> acknowledge(Services service, GridQueue queueName, long deliveryTag) throws IOException {
         QueueFactory<byte[]> factory = getConnector(service);
@@ -116,6 +150,8 @@ public class PeerBroker extends AbstractBroker<byte[]> implements Broker<byte[]>
         this.clientConnector.values().forEach(connector -> {
             try {connector.close();} catch (Throwable e) {}
         });
+        this.getQueueMonitor().close();
+        this.getAffinity().close();
     }
     
 }
@@ -20,6 +20,8 @@
 package net.yacy.grid.io.messages;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for a Message Queue
@@ -40,6 +42,25 @@ public interface Queue<A> {
      */
     public Queue<A> send(A message) throws IOException;
 
+    /**
+     * send several messages to the queue in one operation
+     * @param messages
+     * @return the Queue
+     * @throws IOException
+     */
+    public Queue<A> send(List<A> messages) throws IOException;
+
+    /**
+     * send a message to the queue without waiting until the queue has stored it. The sender must not
+     * acknowledge anything which depends on the message before the returned future is completed.
+     * @param message
+     * @return a future which is completed when the queue has stored the message. It is completed exceptionally
+     *         with an IOException if the message is lost, i.e. if it was rejected because the queue is full or if the
+     *         connection broke before the queue confirmed it; then the message must be sent again by the caller.
+     * @throws IOException if the message cannot be sent at all
+     */
+    public CompletableFuture<Void> sendAsync(A message) throws IOException;
+
     /**
      * receive a message from the queue. The method blocks until a message is available
      * @param timeout for blocking in milliseconds. if negative the method blocks forever
@@ -50,6 +71,18 @@ public interface Queue<A> {
      */
     public MessageContainer<A> receive(long timeout, boolean autoAck) throws IOException;
 
+    /**
+     * receive several messages from the queue. The method blocks until at least one message is available
+     * and then collects all messages which can be taken from the queue without further waiting.
+     * @param maxMessages the maximum number of messages to be returned
+     * @param timeout for blocking in milliseconds. if negative the method blocks forever
+     * or until a message is submitted.
+     * @param autoAck if true the received messages are autoAck'ed. If false, the messages must be acknowledged to free up resources
+     * @return a list of messages, empty if a timeout occurred
+     * @throws IOException
+     */
+    public List<MessageContainer<A>> receive(int maxMessages, long timeout, boolean autoAck) throws IOException;
+
     /**
      * acknowledge a message. This MUST be used to remove a message from the broker if
      * receive() was used with autoAck=false.
@@ -58,6 +91,15 @@ public interface Queue<A> {
      */
     public void acknowledge(long deliveryTag) throws IOException;
 
+    /**
+     * acknowledge all messages up to and including the given delivery tag with a single operation.
+     * This acknowledges all unacknowledged messages of the connection to the queue with a smaller delivery tag
+     * as well, including those which had been received by other threads using the same queue.
+     * @param deliveryTag the tag as reported by receive()
+     * @throws IOException
+     */
+    public void acknowledgeUpTo(long deliveryTag) throws IOException;
+
     /**
      * reject a message. This MUST be used to return a message to the broker if
      * receive() was used with autoAck=false.
@@ -0,0 +1,195 @@
+/**
+ *  QueueMonitor
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import net.yacy.grid.Services;
+import net.yacy.grid.mcp.Data;
+
+/**
+ * The queue monitor samples the number of available messages of all known queues in a background thread.
+ * The queues of one service are sampled together with one call of the sampler, which can use a single
+ * request to the broker for all of them. The result is published as an immutable snapshot, so the
+ * sharding methods read the queue depths without waiting for the broker.
+ * A queue becomes known when its depth is requested the first time; only then the depth is sampled at once.
+ */
+public class QueueMonitor {
+
+    /**
+     * A sampler counts the available messages of several queues of a service
+     */
+    public interface Sampler {
+        public AvailableContainer[] sample(Services service, GridQueue[] queues) throws IOException;
+    }
+
+    private final static int HISTORY_SIZE = 60;
+
+    private final Sampler sampler;
+    private final long interval;
+    private final Map<Services, Map<String, GridQueue>> queues;
+    private final Map<String, History> history;
+    private volatile Map<String, AvailableContainer> snapshot;
+    private volatile boolean shallRun;
+    private Thread thread;
+
+    private static class History {
+        private final long[] available = new long[HISTORY_SIZE];
+        private final long[] time = new long[HISTORY_SIZE];
+        private int count = 0;
+
+        private void add(AvailableContainer ac) {
+            int p = this.count % HISTORY_SIZE;
+            this.available[p] = ac.getAvailable();
+            this.time[p] = ac.getTime();
+            this.count++;
+        }
+
+        private JSONArray toJSON() {
+            JSONArray a = new JSONArray();
+            for (int i = Math.max(0, this.count - HISTORY_SIZE); i < this.count; i++) {
+                a.put(new JSONArray().put(this.time[i % HISTORY_SIZE]).put(this.available[i % HISTORY_SIZE]));
+            }
+            return a;
+        }
+    }
+
+    /**
+     * create a queue monitor
+     * @param sampler the method which counts the available messages on the broker
+     * @param interval the time in milliseconds between two samples of all queues
+     */
+    public QueueMonitor(Sampler sampler, long interval) {
+        this.sampler = sampler;
+        this.interval = interval;
+        this.queues = new ConcurrentHashMap<>();
+        this.history = new HashMap<>();
+        this.snapshot = Collections.emptyMap();
+        this.shallRun = true;
+        this.thread = null;
+    }
+
+    private static String key(Services service, GridQueue queue) {
+        return service.name() + "_" + queue.name();
+    }
+
+    /**
+     * get the latest sampled depth of queues. Unknown queues are sampled at once.
+     * @param service the service of the queues
+     * @param queues the queues
+     * @return the available messages of each queue
+     * @throws IOException if queues were unknown and the sampling failed
+     */
+    public AvailableContainer[] available(Services service, GridQueue[] queues) throws IOException {
+        Map<String, AvailableContainer> s = this.snapshot;
+        AvailableContainer[] ac = new AvailableContainer[queues.length];
+        List<Integer> missing = null;
+        for (int i = 0; i < queues.length; i++) {
+            ac[i] = s.get(key(service, queues[i]));
+            if (ac[i] == null) {
+                if (missing == null) missing = new ArrayList<>();
+                missing.add(i);
+            }
+        }
+        if (missing == null) return ac;
+
+        // sample all unknown queues with one call and add them to the monitored queues
+        GridQueue[] m = new GridQueue[missing.size()];
+        for (int i = 0; i < m.length; i++) m[i] = queues[missing.get(i)];
+        AvailableContainer[] sampled = this.sampler.sample(service, m);
+        publish(service, m, sampled);
+        Map<String, GridQueue> known = this.queues.computeIfAbsent(service, k -> new ConcurrentHashMap<>());
+        for (GridQueue queue: m) known.put(queue.name(), queue);
+        for (int i = 0; i < m.length; i++) ac[missing.get(i)] = sampled[i];
+        start();
+        return ac;
+    }
+
+    private synchronized void publish(Services service, GridQueue[] queues, AvailableContainer[] ac) {
+        Map<String, AvailableContainer> s = new HashMap<>(this.snapshot);
+        for (int i = 0; i < queues.length; i++) {
+            String key = key(service, queues[i]);
+            s.put(key, ac[i]);
+            this.history.computeIfAbsent(key, k -> new History()).add(ac[i]);
+        }
+        this.snapshot = Collections.unmodifiableMap(s);
+    }
+
+    private synchronized void start() {
+        if (this.thread != null || !this.shallRun) return;
+        this.thread = new Thread("QueueMonitor") {
+            @Override
+            public void run() {
+                while (QueueMonitor.this.shallRun) {
+                    try {Thread.sleep(QueueMonitor.this.interval);} catch (InterruptedException e) {return;}
+                    sample();
+                }
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void sample() {
+        for (Map.Entry<Services, Map<String, GridQueue>> entry: this.queues.entrySet()) {
+            GridQueue[] q = entry.getValue().values().toArray(new GridQueue[0]);
+            try {
+                publish(entry.getKey(), q, this.sampler.sample(entry.getKey(), q));
+            } catch (IOException e) {
+                // the old values stay in the snapshot
+                Data.logger.debug("QueueMonitor: sampling of service " + entry.getKey().name() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * get the current depths of all monitored queues with the history of the last samples
+     * @return a json object with one entry for each queue; the history is a list of [time, available] pairs
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        List<String> keys = new ArrayList<>(this.snapshot.keySet());
+        Collections.sort(keys);
+        for (String key: keys) {
+            AvailableContainer ac = this.snapshot.get(key);
+            JSONObject q = new JSONObject(true);
+            q.put("available", ac.getAvailable());
+            q.put("time", ac.getTime());
+            History h = this.history.get(key);
+            if (h != null) q.put("history", h.toJSON());
+            json.put(key, q);
+        }
+        return json;
+    }
+
+    public synchronized void close() {
+        this.shallRun = false;
+        if (this.thread != null) this.thread.interrupt();
+    }
+}
@@ -19,28 +19,38 @@
 
 package net.yacy.grid.io.messages;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.GetResponse;
 import com.rabbitmq.client.MessageProperties;
+import com.rabbitmq.client.ShutdownSignalException;
 
 import net.yacy.grid.mcp.Data;
 
 import com.rabbitmq.client.Connection;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConfirmCallback;
@@ -63,6 +73,10 @@ public class RabbitQueueFactory implements QueueFactory<byte[]> {
     private Map<String, Queue<byte[]>> queues;
     private final AtomicBoolean lazy;
     private final AtomicInteger queueLimit;
+    private final int confirmWindow;
+    private final int prefetch;
+    private final int channelsPerQueue;
+    private final AtomicLong lastIdleCheck;
     
     /**
      * create a queue factory for a rabbitMQ message server
@@ -72,17 +86,28 @@ public class RabbitQueueFactory implements QueueFactory<byte[]> {
      * @param password
      * @param lazy 
      * @param queueLimit maximum number of entries for the queue, 0 = unlimited
+     * @param confirmWindow maximum number of unconfirmed messages per channel. A send operation always waits for the
+     *        confirmations of its messages; with sendAsync up to this number of messages are published before the
+     *        sender must wait for a confirmation.
+     * @param prefetch if 0, messages are polled from the broker with each receive. If greater than 0, a consumer is
+     *        registered at the broker which pushes up to this number of unacknowledged messages into a local buffer.
+     * @param channelsPerQueue the number of channels that each queue uses for concurrent threads, at most MAX_STRIPES
      * @throws IOException
      */
-    public RabbitQueueFactory(final String server, final int port, final String username, final String password, final boolean lazy, final int queueLimit) throws IOException {
+    public RabbitQueueFactory(final String server, final int port, final String username, final String password, final boolean lazy, final int queueLimit, final int confirmWindow, final int prefetch, final int channelsPerQueue) throws IOException {
         this.server = server;
         this.port = port;
         this.username = username;
         this.password = password;
         this.lazy = new AtomicBoolean(lazy);
         this.queueLimit = new AtomicInteger(queueLimit);
+        this.confirmWindow = Math.max(1, confirmWindow);
+        this.prefetch = Math.max(0, prefetch);
+        this.channelsPerQueue = Math.max(1, Math.min(MAX_STRIPES, channelsPerQueue));
+        if (channelsPerQueue > MAX_STRIPES) Data.logger.warn("RabbitQueueFactory: " + channelsPerQueue + " channels per queue requested, using " + MAX_STRIPES);
         this.connection = null;
         this.queues = new ConcurrentHashMap<>();
+        this.lastIdleCheck = new AtomicLong(System.currentTimeMillis());
     }
 
     private Connection getConnection() throws IOException {
@@ -145,82 +170,80 @@ public class RabbitQueueFactory implements QueueFactory<byte[]> {
         }
     }
 
+    /**
+     * Delivery tags are only valid for the channel which delivered the message. To route an acknowledgement
+     * to the right channel, the stripe number of that channel is stored in the upper bits of the delivery tag
+     * that we hand out. Below the stripe number we store the generation of the channel, which is counted up
+     * each time the stripe re-opens its channel, so tags of a closed channel are recognized as stale.
+     * Bit 62 is left for the tags of the in-process queues. The generation has 16 bits: a stale tag is only taken
+     * for a valid one if its stripe re-opened the channel 65536 times while the message was processed.
+     */
+    private final static int STRIPE_SHIFT = 56;
+    private final static int MAX_STRIPES = 1 << (62 - STRIPE_SHIFT);
+    private final static int GENERATION_SHIFT = 40;
+    private final static int GENERATION_MASK = 0xffff;
+    private final static long CHANNEL_TAG_MASK = (1L << GENERATION_SHIFT) - 1;
+
+    private interface ChannelOperation {
+        public void apply(Channel channel) throws IOException;
+    }
+
+    /**
+     * A consumer keeps up to prefetch messages in its buffer which no other channel can get. If nobody
+     * receives from a stripe for this time, the consumer is cancelled and the buffered messages are given back.
+     */
+    private final static long CONSUMER_IDLE_TIME = 10000;
+
+    /**
+     * cancel the consumers of all queues which have not been used for CONSUMER_IDLE_TIME.
+     * This is done at most once a second, triggered by receive operations.
+     */
+    private void releaseIdleConsumers() {
+        long now = System.currentTimeMillis();
+        long last = this.lastIdleCheck.get();
+        if (now - last < 1000 || !this.lastIdleCheck.compareAndSet(last, now)) return;
+        for (Queue<byte[]> queue: this.queues.values()) {
+            for (RabbitMessageQueue.QueueChannel qc: ((RabbitMessageQueue) queue).stripes) {
+                if (qc.consumerTag != null && qc.receivers.get() == 0 && now - qc.lastReceive > CONSUMER_IDLE_TIME) qc.cancelConsumer();
+            }
+        }
+    }
+
+    /**
+     * A queue which uses a pool of channels of the factory connection. Every thread is assigned to one
+     * stripe of the pool, so concurrent listener threads do not share a channel unless there are more
+     * threads than stripes. If they do, all operations on the channel are serialized with the lock of the stripe.
+     * Each stripe has its own confirm tracking and its own consumer and is
+     * re-opened independently from the other stripes if the channel breaks.
+     */
     private class RabbitMessageQueue extends AbstractQueue<byte[]> implements Queue<byte[]> {
         private final String queueName;
-        private final SortedMap<Long, BlockingQueue<Boolean>> unconfirmedSet;
-        private Channel channel;
+        private final QueueChannel[] stripes;
+
+        /**
+         * Threads are numbered in the order they use this queue first; the number selects the stripe, so the
+         * first channelsPerQueue threads of this queue get a channel each.
+         */
+        private final AtomicInteger threadCounter;
+        private final ThreadLocal<Integer> threadNumber;
+
         public RabbitMessageQueue(String queueName) throws IOException {
             this.queueName = queueName;
-            this.unconfirmedSet = Collections.synchronizedSortedMap(new TreeMap<>());
-            connect();
+            this.threadCounter = new AtomicInteger(0);
+            this.threadNumber = ThreadLocal.withInitial(() -> this.threadCounter.getAndIncrement());
+            this.stripes = new QueueChannel[RabbitQueueFactory.this.channelsPerQueue];
+            for (int i = 0; i < this.stripes.length; i++) this.stripes[i] = new QueueChannel(i);
+            this.stripes[0].connect(); // this declares the queue; the other stripes are opened on first use
         }
 
-        private void connect() throws IOException {
-            Map<String, Object> arguments = new HashMap<>();
-            arguments.put("x-queue-mode", lazy.get() ? "lazy" : "default"); // we want to minimize memory usage; see http://www.rabbitmq.com/lazy-queues.html
-            if (RabbitQueueFactory.this.queueLimit.get() > 0) {
-                arguments.put("x-max-length", RabbitQueueFactory.this.queueLimit.get());
-                arguments.put("x-overflow", "reject-publish");
-            }
-            this.channel = RabbitQueueFactory.this.getChannel();
-            try {
-                this.channel.queueDeclare(this.queueName, true, false, false, arguments);
-            } catch (Throwable e) {
-                // we first try to delete the old queue, but only if it is not used and if empty
-                try {
-                    channel = connection.createChannel();
-                    this.channel.queueDelete(this.queueName, true, true);
-                } catch (Throwable ee) {}
+        private QueueChannel stripe() {
+            return this.stripes[this.threadNumber.get().intValue() % this.stripes.length];
+        }
 
-                // try again
-                try {
-                    channel = connection.createChannel();
-                    this.channel.queueDeclare(this.queueName, true, false, false, arguments);
-                } catch (Throwable ee) {
-                    // that did not work. Try to modify the call to match with the previous queueDeclare
-                    String ec = ee.getCause() == null ? ee.getMessage() : ee.getCause().getMessage();
-                    if (ec != null && ec.contains("'signedint' but current is none")) {
-                        arguments.remove("x-max-length");
-                        arguments.remove("x-overflow");
-                    }
-                    //arguments.put("x-queue-mode", lazy.get() ? "default" : "lazy");
-                    try {
-                        channel = connection.createChannel();
-                        this.channel.queueDeclare(this.queueName, true, false, false, arguments);
-                    } catch (Throwable eee) {
-                        throw new IOException(eee.getMessage());
-                    }
-                }
-            }
-            this.channel.confirmSelect(); // declare that the channel sends confirmations
-            this.channel.addConfirmListener(
-                new ConfirmCallback() { // ack
-                    @Override
-                    public void handle(long seqNo, boolean multiple) throws IOException {
-                        if (multiple) {
-                            Map<Long, BlockingQueue<Boolean>> m = unconfirmedSet.headMap(seqNo + 1);
-                            m.forEach((s, b) -> b.add(Boolean.TRUE));
-                            m.clear();
-                        } else {
-                            BlockingQueue<Boolean> b = unconfirmedSet.remove(seqNo);
-                            assert b != null;
-                            if (b != null) b.add(Boolean.TRUE);
-                        }
-                    }},
-                new ConfirmCallback() { // nack
-                    @Override
-                    public void handle(long seqNo, boolean multiple) throws IOException {
-                        if (multiple) {
-                            Map<Long, BlockingQueue<Boolean>> m = unconfirmedSet.headMap(seqNo + 1);
-                            m.forEach((s, b) -> b.add(Boolean.FALSE));
-                            m.clear();
-                        } else {
-                            BlockingQueue<Boolean> b = unconfirmedSet.remove(seqNo);
-                            assert b != null;
-                            if (b != null) b.add(Boolean.FALSE);
-                        }
-                    }}
-            );
+        private QueueChannel stripe(long deliveryTag) throws IOException {
+            int s = (int) (deliveryTag >>> STRIPE_SHIFT);
+            if (s >= this.stripes.length) throw new IOException("unknown delivery tag " + deliveryTag);
+            return this.stripes[s];
         }
 
         @Override
@@ -230,120 +253,551 @@ public class RabbitQueueFactory implements QueueFactory<byte[]> {
 
         @Override
         public Queue<byte[]> send(byte[] message) throws IOException {
+            QueueChannel qc = stripe();
             try {
-                return sendInternal(message);
+                qc.sendInternal(Collections.singletonList(message));
             } catch (IOException e) {
-                if (e.getMessage().equals(GridBroker.TARGET_LIMIT_MESSAGE)) throw e;
+                if (GridBroker.TARGET_LIMIT_MESSAGE.equals(e.getMessage())) throw e;
                 // try again
                 Data.logger.warn("RabbitQueueFactory.send: re-connecting broker");
-                connect() ;
-                return sendInternal(message);
+                qc.connect() ;
+                qc.sendInternal(Collections.singletonList(message));
             }
+            return this;
         }
-        private Queue<byte[]> sendInternal(byte[] message) throws IOException {
-            BlockingQueue<Boolean> semaphore = new ArrayBlockingQueue<>(1);
-            long seqNo = channel.getNextPublishSeqNo();
-            unconfirmedSet.put(seqNo, semaphore);
-            channel.basicPublish(DEFAULT_EXCHANGE, this.queueName, MessageProperties.PERSISTENT_BASIC, message);
-            // wait for confirmation
+
+        @Override
+        public Queue<byte[]> send(List<byte[]> messages) throws IOException {
+            QueueChannel qc = stripe();
             try {
-                Boolean delivered = semaphore.poll(10, TimeUnit.SECONDS);
-                if (delivered == null) throw new IOException("message sending timeout");
-                if (delivered) return this;
-                throw new IOException(GridBroker.TARGET_LIMIT_MESSAGE);
-            } catch (InterruptedException x) {
-                unconfirmedSet.remove(seqNo); // prevent a memory leak
-                throw new IOException("message sending interrupted");
+                qc.sendInternal(messages);
+            } catch (IOException e) {
+                if (GridBroker.TARGET_LIMIT_MESSAGE.equals(e.getMessage())) throw e;
+                // try again
+                Data.logger.warn("RabbitQueueFactory.send: re-connecting broker");
+                qc.connect() ;
+                qc.sendInternal(messages);
             }
+            return this;
         }
 
         @Override
-        public MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
-            if (timeout <= 0) timeout = Long.MAX_VALUE;
-            long termination = timeout <= 0 || timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
-            Throwable ee = null;
-            while (System.currentTimeMillis() < termination) {
-                ee = null;
-                try {
-                    GetResponse response = channel.basicGet(this.queueName, autoAck);
-                    if (response != null) {
-                        Envelope envelope = response.getEnvelope();
-                        long deliveryTag = envelope.getDeliveryTag();
-                        //channel.basicAck(deliveryTag, false);
-                        return new MessageContainer<byte[]>(RabbitQueueFactory.this, response.getBody(), deliveryTag);
-                    }
-                    //Data.logger.warn("receive failed: response empty");
-                } catch (Throwable e) {
-                    Data.logger.warn("receive failed: " + e.getMessage(), e);
-                    connect() ;
-                    ee = e;
-                    //autoAck = ! autoAck;
-                }
-                try {Thread.sleep(1000);} catch (InterruptedException e) {return null;}
+        public CompletableFuture<Void> sendAsync(byte[] message) throws IOException {
+            QueueChannel qc = stripe();
+            CompletableFuture<Boolean> confirmation;
+            try {
+                confirmation = qc.sendAsync(message);
+            } catch (IOException e) {
+                // try again
+                Data.logger.warn("RabbitQueueFactory.sendAsync: re-connecting broker");
+                qc.connect() ;
+                confirmation = qc.sendAsync(message);
             }
-            if (ee == null) return null;
-            throw new IOException(ee.getMessage());
+            // a rejection is reported to this sender only; the message is not kept here
+            return confirmation.thenAccept(delivered -> {
+                if (!delivered.booleanValue()) throw new CompletionException(new IOException(GridBroker.TARGET_LIMIT_MESSAGE));
+            });
         }
 
         @Override
-        public void acknowledge(long deliveryTag) throws IOException {
+        public MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
+            releaseIdleConsumers();
+            QueueChannel qc = stripe();
+            qc.receivers.incrementAndGet();
             try {
-                channel.basicAck(deliveryTag, false);
-            } catch (IOException e) {
-                // try again
-                Data.logger.warn("RabbitQueueFactory.acknowledge: re-connecting broker");
-                connect() ;
-                channel.basicAck(deliveryTag, false);
+                return qc.receive(timeout, autoAck);
+            } finally {
+                qc.lastReceive = System.currentTimeMillis();
+                qc.receivers.decrementAndGet();
             }
         }
 
         @Override
-        public void reject(long deliveryTag) throws IOException {
+        public List<MessageContainer<byte[]>> receive(int maxMessages, long timeout, boolean autoAck) throws IOException {
+            releaseIdleConsumers();
+            QueueChannel qc = stripe();
+            qc.receivers.incrementAndGet();
             try {
-                channel.basicReject(deliveryTag, true);
-            } catch (IOException e) {
-                // try again
-                Data.logger.warn("RabbitQueueFactory.reject: re-connecting broker");
-                connect() ;
-                channel.basicReject(deliveryTag, false);
+                return qc.receive(maxMessages, timeout, autoAck);
+            } finally {
+                qc.lastReceive = System.currentTimeMillis();
+                qc.receivers.decrementAndGet();
             }
         }
 
+        @Override
+        public void acknowledgeUpTo(long deliveryTag) throws IOException {
+            stripe(deliveryTag).settle(deliveryTag, "acknowledgeUpTo", c -> c.basicAck(deliveryTag & CHANNEL_TAG_MASK, true));
+        }
+
+        @Override
+        public void acknowledge(long deliveryTag) throws IOException {
+            stripe(deliveryTag).settle(deliveryTag, "acknowledge", c -> c.basicAck(deliveryTag & CHANNEL_TAG_MASK, false));
+        }
+
+        @Override
+        public void reject(long deliveryTag) throws IOException {
+            stripe(deliveryTag).settle(deliveryTag, "reject", c -> c.basicReject(deliveryTag & CHANNEL_TAG_MASK, true));
+        }
+
         @Override
         public void recover() throws IOException {
-            try {
-                channel.basicRecover(true);
-            } catch (IOException e) {
-                // try again
-                Data.logger.warn("RabbitQueueFactory.recover: re-connecting broker");
-                connect() ;
-                channel.basicRecover(true);
+            // unacknowledged messages are bound to the channel which delivered them; a closed channel has none
+            for (QueueChannel qc: this.stripes) {
+                if (!qc.isOpen()) continue;
+                synchronized (qc) {
+                    try {
+                        qc.channel().basicRecover(true);
+                    } catch (IOException | ShutdownSignalException e) {
+                        Data.logger.warn("RabbitQueueFactory.recover: channel of queue " + this.queueName + " closed, the broker re-delivers its messages: " + e.getMessage());
+                    }
+                }
             }
         }
 
         @Override
         public long available() throws IOException {
+            QueueChannel qc = stripe();
             try {
-                return availableInternal();
+                return availableInternal(qc);
             } catch (IOException e) {
                 // try again
                 Data.logger.warn("RabbitQueueFactory.available: re-connecting broker");
-                connect() ;
-                return availableInternal();
+                qc.connect() ;
+                return availableInternal(qc);
             }
         }
-        private int availableInternal() throws IOException {
+        private int availableInternal(QueueChannel qc) throws IOException {
             //int a = channel.queueDeclarePassive(this.queueName).getMessageCount();
-            int b = (int) channel.messageCount(this.queueName);
+            int b;
+            synchronized (qc) {
+                b = (int) qc.channel().messageCount(this.queueName);
+            }
             //assert a == b;
+            for (QueueChannel s: this.stripes) b += s.consumerBuffer.size();
             return b;
         }
+
+        /**
+         * wait until all published messages are confirmed
+         * @param timeout in milliseconds
+         * @return true if all messages had been confirmed within the given time
+         */
+        private boolean flush(long timeout) {
+            long t = System.currentTimeMillis() + timeout;
+            boolean flushed = true;
+            for (QueueChannel qc: this.stripes) flushed = qc.flush(Math.max(1, t - System.currentTimeMillis())) && flushed;
+            return flushed;
+        }
+
+        /**
+         * A single channel of the pool, used for one stripe of threads
+         */
+        private class QueueChannel {
+            private final int stripe;
+            private final SortedMap<Long, CompletableFuture<Boolean>> unconfirmedSet;
+            private final Semaphore confirmPermits;
+            private final BlockingQueue<MessageContainer<byte[]>> consumerBuffer;
+            private volatile String consumerTag;
+            private volatile long lastReceive;
+            private final AtomicInteger receivers; // number of threads which are waiting in receive
+            private Channel channel;
+            private volatile int generation; // counted up with each connect
+
+            public QueueChannel(int stripe) {
+                this.stripe = stripe;
+                this.unconfirmedSet = Collections.synchronizedSortedMap(new TreeMap<>());
+                this.confirmPermits = new Semaphore(RabbitQueueFactory.this.confirmWindow, true);
+                this.consumerBuffer = new ArrayBlockingQueue<>(Math.max(1, RabbitQueueFactory.this.prefetch));
+                this.consumerTag = null;
+                this.lastReceive = System.currentTimeMillis();
+                this.receivers = new AtomicInteger(0);
+                this.channel = null;
+                this.generation = 0;
+            }
+
+            private long deliveryTag(long channelTag) {
+                return (((long) this.stripe) << STRIPE_SHIFT) | (((long) (this.generation & GENERATION_MASK)) << GENERATION_SHIFT) | channelTag;
+            }
+
+            /**
+             * acknowledge or reject a message on the channel which delivered it. This is never retried on a new
+             * channel: the tag is not valid there, and the broker re-delivers all unacknowledged messages of a
+             * closed channel anyway. Operations with stale tags are dropped.
+             * @param deliveryTag the tag as handed out by this queue
+             * @param operation the name of the operation for the log
+             * @param op the operation
+             * @return true if the operation was done, false if the tag belongs to a closed channel
+             * @throws IOException if the operation failed on the open channel
+             */
+            private synchronized boolean settle(long deliveryTag, String operation, ChannelOperation op) throws IOException {
+                Channel c = this.channel;
+                if (c == null || !c.isOpen() || ((deliveryTag >>> GENERATION_SHIFT) & GENERATION_MASK) != (this.generation & GENERATION_MASK)) {
+                    Data.logger.info("RabbitQueueFactory." + operation + ": delivery tag " + deliveryTag + " of queue " + queueName + " belongs to a closed channel, the broker re-delivers the message");
+                    return false;
+                }
+                try {
+                    op.apply(c);
+                    return true;
+                } catch (ShutdownSignalException e) {
+                    Data.logger.info("RabbitQueueFactory." + operation + ": channel of queue " + queueName + " closed, the broker re-delivers the message");
+                    return false;
+                }
+            }
+
+            private boolean isOpen() {
+                Channel c = this.channel;
+                return c != null && c.isOpen();
+            }
+
+            /**
+             * get the channel of this stripe; a broken channel is re-opened
+             * @return an open channel
+             * @throws IOException
+             */
+            private Channel channel() throws IOException {
+                Channel c = this.channel;
+                if (c != null && c.isOpen()) return c;
+                synchronized (this) {
+                    if (this.channel == null || !this.channel.isOpen()) connect();
+                    return this.channel;
+                }
+            }
+
+            private synchronized void connect() throws IOException {
+                // confirmations of messages which had been sent over the old channel will never arrive
+                abandonUnconfirmed();
+                // delivery tags of buffered messages are not valid for a new channel; the broker will re-deliver them
+                this.consumerTag = null;
+                this.consumerBuffer.clear();
+                closeChannel();
+                this.generation++;
+                Map<String, Object> arguments = new HashMap<>();
+                arguments.put("x-queue-mode", lazy.get() ? "lazy" : "default"); // we want to minimize memory usage; see http://www.rabbitmq.com/lazy-queues.html
+                if (RabbitQueueFactory.this.queueLimit.get() > 0) {
+                    arguments.put("x-max-length", RabbitQueueFactory.this.queueLimit.get());
+                    arguments.put("x-overflow", "reject-publish");
+                }
+                this.channel = RabbitQueueFactory.this.getChannel();
+                try {
+                    this.channel.queueDeclare(queueName, true, false, false, arguments);
+                } catch (Throwable e) {
+                    // a failed declaration closes the channel, so each attempt opens a new one and closes the one before
+                    // we first try to delete the old queue, but only if it is not used and if empty
+                    try {
+                        closeChannel();
+                        this.channel = RabbitQueueFactory.this.getChannel();
+                        this.channel.queueDelete(queueName, true, true);
+                    } catch (Throwable ee) {}
+
+                    // try again
+                    try {
+                        closeChannel();
+                        this.channel = RabbitQueueFactory.this.getChannel();
+                        this.channel.queueDeclare(queueName, true, false, false, arguments);
+                    } catch (Throwable ee) {
+                        // that did not work. Try to modify the call to match with the previous queueDeclare
+                        String ec = ee.getCause() == null ? ee.getMessage() : ee.getCause().getMessage();
+                        if (ec != null && ec.contains("'signedint' but current is none")) {
+                            arguments.remove("x-max-length");
+                            arguments.remove("x-overflow");
+                        }
+                        //arguments.put("x-queue-mode", lazy.get() ? "default" : "lazy");
+                        try {
+                            closeChannel();
+                            this.channel = RabbitQueueFactory.this.getChannel();
+                            this.channel.queueDeclare(queueName, true, false, false, arguments);
+                        } catch (Throwable eee) {
+                            closeChannel();
+                            throw new IOException(eee.getMessage());
+                        }
+                    }
+                }
+                try {
+                    this.channel.confirmSelect(); // declare that the channel sends confirmations
+                } catch (IOException e) {
+                    closeChannel();
+                    throw e;
+                }
+                this.channel.addConfirmListener(
+                    new ConfirmCallback() { // ack
+                        @Override
+                        public void handle(long seqNo, boolean multiple) throws IOException {
+                            confirm(seqNo, multiple, Boolean.TRUE);
+                        }},
+                    new ConfirmCallback() { // nack
+                        @Override
+                        public void handle(long seqNo, boolean multiple) throws IOException {
+                            confirm(seqNo, multiple, Boolean.FALSE);
+                        }}
+                );
+            }
+
+            /**
+             * close the channel of this stripe; a failing close is ignored because the channel is dropped anyway
+             */
+            private synchronized void closeChannel() {
+                Channel c = this.channel;
+                this.channel = null;
+                if (c != null && c.isOpen()) try {c.abort();} catch (IOException e) {}
+            }
+
+            /**
+             * complete the futures of all messages which are confirmed with the given sequence number
+             * @param seqNo the sequence number as reported by the broker
+             * @param multiple if true, all messages up to and including seqNo are confirmed
+             * @param delivered true for an ack, false for a nack
+             */
+            private void confirm(long seqNo, boolean multiple, Boolean delivered) {
+                if (multiple) {
+                    synchronized (unconfirmedSet) {
+                        Map<Long, CompletableFuture<Boolean>> m = unconfirmedSet.headMap(seqNo + 1);
+                        m.forEach((s, p) -> complete(p, delivered));
+                        m.clear();
+                    }
+                } else {
+                    CompletableFuture<Boolean> p = unconfirmedSet.remove(seqNo);
+                    assert p != null;
+                    if (p != null) complete(p, delivered);
+                }
+            }
+
+            private void complete(CompletableFuture<Boolean> confirmation, Boolean delivered) {
+                confirmation.complete(delivered);
+                this.confirmPermits.release();
+            }
+
+            private void abandonUnconfirmed() {
+                synchronized (unconfirmedSet) {
+                    if (unconfirmedSet.isEmpty()) return;
+                    // the senders learn this from their futures and must send the messages again
+                    Data.logger.warn("RabbitQueueFactory: " + unconfirmedSet.size() + " messages in queue " + queueName + " remain unconfirmed");
+                    unconfirmedSet.values().forEach(confirmation -> {
+                        confirmation.completeExceptionally(new IOException("channel closed before confirmation"));
+                        this.confirmPermits.release();
+                    });
+                    unconfirmedSet.clear();
+                }
+            }
+
+            private void sendInternal(List<byte[]> messages) throws IOException {
+                // publish all messages first and then wait once for all confirmations
+                List<CompletableFuture<Boolean>> confirmations = new ArrayList<>(messages.size());
+                for (byte[] message: messages) confirmations.add(sendAsync(message));
+                awaitConfirmations(confirmations);
+            }
+
+            private void awaitConfirmations(List<CompletableFuture<Boolean>> confirmations) throws IOException {
+                long timeout = System.currentTimeMillis() + 10000;
+                boolean delivered = true;
+                try {
+                    for (CompletableFuture<Boolean> confirmation: confirmations) {
+                        if (!confirmation.get(Math.max(1, timeout - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) delivered = false;
+                    }
+                } catch (TimeoutException e) {
+                    throw new IOException("message sending timeout");
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause().getMessage());
+                } catch (InterruptedException x) {
+                    throw new IOException("message sending interrupted");
+                }
+                if (delivered) return;
+                throw new IOException(GridBroker.TARGET_LIMIT_MESSAGE);
+            }
+
+            /**
+             * publish a message without waiting for the confirmation of the broker.
+             * The method blocks only if the number of unconfirmed messages has reached the confirm window.
+             * @param message
+             * @return a future which is completed with true if the broker confirmed the message and false if the broker rejected it
+             * @throws IOException
+             */
+            public CompletableFuture<Boolean> sendAsync(byte[] message) throws IOException {
+                try {
+                    if (!this.confirmPermits.tryAcquire(10, TimeUnit.SECONDS)) throw new IOException("message sending timeout");
+                } catch (InterruptedException e) {
+                    throw new IOException("message sending interrupted");
+                }
+                CompletableFuture<Boolean> confirmation = new CompletableFuture<>();
+                // the sequence number and the publish must be consistent if several threads use the same channel
+                synchronized (this) {
+                    Channel c;
+                    try {
+                        c = channel();
+                    } catch (IOException e) {
+                        this.confirmPermits.release();
+                        throw e;
+                    }
+                    long seqNo = c.getNextPublishSeqNo();
+                    unconfirmedSet.put(seqNo, confirmation);
+                    try {
+                        c.basicPublish(DEFAULT_EXCHANGE, queueName, MessageProperties.PERSISTENT_BASIC, message);
+                    } catch (IOException e) {
+                        if (unconfirmedSet.remove(seqNo) != null) this.confirmPermits.release(); // prevent a memory leak
+                        throw e;
+                    }
+                }
+                return confirmation;
+            }
+
+            private boolean flush(long timeout) {
+                try {
+                    if (!this.confirmPermits.tryAcquire(RabbitQueueFactory.this.confirmWindow, timeout, TimeUnit.MILLISECONDS)) return false;
+                    this.confirmPermits.release(RabbitQueueFactory.this.confirmWindow);
+                    return true;
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+
+            private MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
+                if (RabbitQueueFactory.this.prefetch > 0) {
+                    if (this.consumerTag == null) startConsumer();
+                    if (this.consumerTag != null) return receiveConsumed(timeout, autoAck);
+                }
+                if (timeout <= 0) timeout = Long.MAX_VALUE;
+                long termination = timeout <= 0 || timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+                Throwable ee = null;
+                while (System.currentTimeMillis() < termination) {
+                    ee = null;
+                    try {
+                        GetResponse response;
+                        synchronized (this) {
+                            response = channel().basicGet(queueName, autoAck);
+                        }
+                        if (response != null) {
+                            Envelope envelope = response.getEnvelope();
+                            long deliveryTag = envelope.getDeliveryTag();
+                            //channel.basicAck(deliveryTag, false);
+                            return new MessageContainer<byte[]>(RabbitQueueFactory.this, response.getBody(), deliveryTag(deliveryTag));
+                        }
+                        //Data.logger.warn("receive failed: response empty");
+                    } catch (Throwable e) {
+                        Data.logger.warn("receive failed: " + e.getMessage(), e);
+                        connect() ;
+                        ee = e;
+                        //autoAck = ! autoAck;
+                    }
+                    // a short timeout is a probe which must not wait longer than asked for
+                    long wait = Math.min(1000, termination - System.currentTimeMillis());
+                    if (wait > 0) try {Thread.sleep(wait);} catch (InterruptedException e) {return null;}
+                }
+                if (ee == null) return null;
+                throw new IOException(ee.getMessage());
+            }
+
+            private List<MessageContainer<byte[]>> receive(int maxMessages, long timeout, boolean autoAck) throws IOException {
+                List<MessageContainer<byte[]>> messages = new ArrayList<>();
+                MessageContainer<byte[]> mc = receive(timeout, autoAck);
+                if (mc == null) return messages;
+                messages.add(mc);
+                if (this.consumerTag != null) {
+                    // take all messages that the consumer has already buffered
+                    List<MessageContainer<byte[]>> buffered = new ArrayList<>();
+                    this.consumerBuffer.drainTo(buffered, maxMessages - 1);
+                    for (MessageContainer<byte[]> b: buffered) {
+                        // a message which cannot be acknowledged is re-delivered by the broker
+                        if (!autoAck || settle(b.getDeliveryTag(), "receive", c -> c.basicAck(b.getDeliveryTag() & CHANNEL_TAG_MASK, false))) messages.add(b);
+                    }
+                    return messages;
+                }
+                // poll the broker without waiting until the queue is empty
+                try {
+                    while (messages.size() < maxMessages) {
+                        GetResponse response;
+                        synchronized (this) {
+                            response = channel().basicGet(queueName, autoAck);
+                        }
+                        if (response == null) break;
+                        messages.add(new MessageContainer<byte[]>(RabbitQueueFactory.this, response.getBody(), deliveryTag(response.getEnvelope().getDeliveryTag())));
+                    }
+                } catch (IOException e) {
+                    // we return what we have; the messages must be processed to be acknowledged
+                    Data.logger.warn("RabbitQueueFactory.receive: batch interrupted: " + e.getMessage());
+                }
+                return messages;
+            }
+
+            /**
+             * register a consumer at the broker which pushes messages into the local buffer.
+             * The consumer always acknowledges explicitly, so the number of unacknowledged messages on the channel
+             * is limited by the prefetch value and buffered messages are re-delivered by the broker if the channel
+             * is closed. A receive with autoAck acknowledges the message when it takes it from the buffer.
+             */
+            private synchronized void startConsumer() {
+                if (this.consumerTag != null) return;
+                try {
+                    Channel c = channel();
+                    c.basicQos(RabbitQueueFactory.this.prefetch);
+                    this.consumerTag = c.basicConsume(queueName, false, new DefaultConsumer(c) {
+                        @Override
+                        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+                            // the delivery thread of the connection must never block; a message which does not fit into the
+                            // buffer or which arrives for a cancelled consumer is given back to the broker. The stripe lock is not
+                            // taken here because a publisher may hold it while it is blocked; the client serializes the frames itself.
+                            if (!consumerTag.equals(QueueChannel.this.consumerTag) ||
+                                !consumerBuffer.offer(new MessageContainer<byte[]>(RabbitQueueFactory.this, body, deliveryTag(envelope.getDeliveryTag())))) {
+                                c.basicReject(envelope.getDeliveryTag(), true);
+                            }
+                        }
+                        @Override
+                        public void handleCancel(String consumerTag) throws IOException {
+                            if (consumerTag.equals(QueueChannel.this.consumerTag)) QueueChannel.this.consumerTag = null;
+                        }
+                        @Override
+                        public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+                            if (consumerTag.equals(QueueChannel.this.consumerTag)) QueueChannel.this.consumerTag = null;
+                        }
+                    });
+                } catch (IOException e) {
+                    // we fall back to polling until the next attempt
+                    Data.logger.warn("RabbitQueueFactory: cannot start consumer for queue " + queueName + ": " + e.getMessage());
+                    this.consumerTag = null;
+                }
+            }
+
+            /**
+             * cancel the consumer and give the buffered messages back to the broker, so they can be delivered to
+             * other channels. The consumer is started again with the next receive.
+             */
+            private synchronized void cancelConsumer() {
+                String tag = this.consumerTag;
+                if (tag == null) return;
+                this.consumerTag = null;
+                List<MessageContainer<byte[]>> buffered = new ArrayList<>();
+                try {
+                    Channel c = channel();
+                    c.basicCancel(tag);
+                    this.consumerBuffer.drainTo(buffered);
+                    for (MessageContainer<byte[]> mc: buffered) c.basicReject(mc.getDeliveryTag() & CHANNEL_TAG_MASK, true);
+                } catch (IOException e) {
+                    // if the channel is broken, the broker re-delivers the messages anyway
+                    Data.logger.warn("RabbitQueueFactory: cannot cancel consumer of queue " + queueName + ": " + e.getMessage());
+                }
+                Data.logger.info("RabbitQueueFactory: cancelled idle consumer of queue " + queueName + ", " + buffered.size() + " messages given back");
+            }
+
+            private MessageContainer<byte[]> receiveConsumed(long timeout, boolean autoAck) throws IOException {
+                try {
+                    MessageContainer<byte[]> mc = timeout <= 0 ? this.consumerBuffer.take() : this.consumerBuffer.poll(timeout, TimeUnit.MILLISECONDS);
+                    // a message which cannot be acknowledged is re-delivered by the broker
+                    if (mc != null && autoAck && !settle(mc.getDeliveryTag(), "receive", c -> c.basicAck(mc.getDeliveryTag() & CHANNEL_TAG_MASK, false))) return null;
+                    return mc;
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+        }
     }
 
     @Override
     public void close() {
+        this.queues.values().forEach(queue -> {
+            RabbitMessageQueue rmq = (RabbitMessageQueue) queue;
+            if (!rmq.flush(10000)) Data.logger.warn("RabbitQueueFactory.close: not all messages had been confirmed");
+        });
         this.queues.clear();
-        try {
+        if (this.connection != null) try {
             this.connection.close();
         } catch (IOException e) {}
         this.queues = null;
@@ -352,7 +806,7 @@ public class RabbitQueueFactory implements QueueFactory<byte[]> {
     public static void main(String[] args) {
         RabbitQueueFactory qc;
         try {
-            qc = new RabbitQueueFactory("127.0.0.1", -1, null, null, true, 0);
+            qc = new RabbitQueueFactory("127.0.0.1", -1, null, null, true, 0, 1, 0, 1);
             qc.getQueue("test").send("Hello World".getBytes());
             System.out.println(qc.getQueue("test2").receive(60000, true));
             qc.close();
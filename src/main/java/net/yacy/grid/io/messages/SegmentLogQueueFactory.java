@@ -0,0 +1,545 @@
+/**
+ *  SegmentLogQueueFactory
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import net.yacy.grid.mcp.Data;
+
+/**
+ * Factory for queues which are stored in an append-only log of memory-mapped segment files.
+ * Each queue has its own directory with segment files, named by the log offset of their first record,
+ * and a file which stores the acknowledge offset.
+ *
+ * A record consists of the payload length + 1 (so a zero marks the end of the data in a segment),
+ * the crc32 of the payload and the payload itself. The delivery tag of a message is the log offset of its record.
+ *
+ * Messages are delivered at the read offset and stay unacknowledged until they are acknowledged or rejected.
+ * Rejected messages and, after a recover or a restart, all unacknowledged messages are delivered again.
+ * The acknowledge offset is the smallest offset of a message which is not acknowledged; segments which are
+ * completely below that offset are deleted.
+ *
+ * Written records and the acknowledge offset are forced to disk by a single sync thread (group commit):
+ * a send returns after the sync thread has forced the segment which contains the message, so many
+ * concurrent senders share one fsync.
+ */
+public class SegmentLogQueueFactory implements QueueFactory<byte[]> {
+
+    public final static long DEFAULT_SEGMENT_SIZE = 16L * 1024L * 1024L;
+    public final static long DEFAULT_SYNC_INTERVAL = 100;
+
+    private final static int HEADER_SIZE = 8; // length + 1 and crc32
+    private final static String SEGMENT_SUFFIX = ".log";
+    private final static String ACK_FILE_NAME = "ack.offset";
+
+    private final File location;
+    private final long segmentSize, syncInterval;
+    private final Map<String, LogQueue> queues;
+    private final Object syncSignal;
+    private boolean syncRequested;
+    private volatile boolean shallRun;
+    private final Thread syncThread;
+
+    /**
+     * initialize a queue factory based on segment logs
+     * @param storageLocationPath the path where the queues shall be stored
+     * @param segmentSize the size of a segment file in bytes
+     * @param syncInterval the maximum time in milliseconds between two syncs of the written data
+     */
+    public SegmentLogQueueFactory(File storageLocationPath, long segmentSize, long syncInterval) {
+        this.location = storageLocationPath;
+        this.location.mkdirs();
+        this.segmentSize = Math.min(Integer.MAX_VALUE, Math.max(HEADER_SIZE, segmentSize));
+        this.syncInterval = Math.max(1, syncInterval);
+        this.queues = new ConcurrentHashMap<>();
+        this.syncSignal = new Object();
+        this.syncRequested = false;
+        this.shallRun = true;
+        this.syncThread = new Thread("SegmentLogQueueFactory sync " + storageLocationPath.getName()) {
+            @Override
+            public void run() {
+                while (SegmentLogQueueFactory.this.shallRun) {
+                    synchronized (SegmentLogQueueFactory.this.syncSignal) {
+                        if (!SegmentLogQueueFactory.this.syncRequested) try {
+                            SegmentLogQueueFactory.this.syncSignal.wait(SegmentLogQueueFactory.this.syncInterval);
+                        } catch (InterruptedException e) {}
+                        SegmentLogQueueFactory.this.syncRequested = false;
+                    }
+                    syncAll();
+                }
+            }
+        };
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+    }
+
+    public SegmentLogQueueFactory(File storageLocationPath) {
+        this(storageLocationPath, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL);
+    }
+
+    @Override
+    public String getHost() {
+        return null;
+    }
+
+    @Override
+    public boolean hasDefaultPort() {
+        return false;
+    }
+
+    @Override
+    public int getPort() {
+        return 1;
+    }
+
+    @Override
+    public String getConnectionURL() {
+        return null;
+    }
+
+    /**
+     * Get the connection to a queue. The connection is either established initially
+     * or created as a new connection. If the queue did not exist, it will exist automatically
+     * after calling the method
+     * @param queueName
+     * @return the Queue
+     * @throws IOException
+     */
+    @Override
+    public Queue<byte[]> getQueue(String queueName) throws IOException {
+        LogQueue queue = this.queues.get(queueName);
+        if (queue != null) return queue;
+        synchronized (this) {
+            queue = this.queues.get(queueName);
+            if (queue != null) return queue;
+            queue = new LogQueue(new File(this.location, queueName));
+            this.queues.put(queueName, queue);
+            return queue;
+        }
+    }
+
+    private void requestSync() {
+        synchronized (this.syncSignal) {
+            this.syncRequested = true;
+            this.syncSignal.notify();
+        }
+    }
+
+    private void syncAll() {
+        for (LogQueue queue: this.queues.values()) {
+            try {
+                queue.sync();
+            } catch (IOException e) {
+                Data.logger.warn("SegmentLogQueueFactory: sync of queue " + queue.dir.getName() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Close the Factory
+     */
+    @Override
+    public void close() {
+        this.shallRun = false;
+        this.syncThread.interrupt();
+        try {this.syncThread.join(this.syncInterval * 10);} catch (InterruptedException e) {}
+        syncAll();
+        this.queues.values().forEach(queue -> queue.close());
+    }
+
+    private static class Segment {
+
+        private final long base;
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private boolean dirty;
+
+        public Segment(File file, long base, long size) throws IOException {
+            this.base = base;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            if (this.raf.length() < size) this.raf.setLength(size);
+            this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Integer.MAX_VALUE, this.raf.length()));
+            this.dirty = false;
+        }
+
+        public int capacity() {
+            return this.buffer.capacity();
+        }
+
+        /**
+         * get the length field of the record at the given position
+         * @param pos the position within this segment
+         * @return the length of the payload or -1 if there is no record at the position
+         */
+        public int length(int pos) {
+            if (pos < 0 || pos + HEADER_SIZE > capacity()) return -1;
+            int l = this.buffer.getInt(pos) - 1;
+            return l < 0 || (long) pos + HEADER_SIZE + l > capacity() ? -1 : l;
+        }
+
+        public byte[] read(int pos, int length) {
+            byte[] b = new byte[length];
+            ByteBuffer d = this.buffer.duplicate();
+            d.position(pos + HEADER_SIZE);
+            d.get(b);
+            return b;
+        }
+
+        public boolean valid(int pos, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(read(pos, length));
+            return ((int) crc.getValue()) == this.buffer.getInt(pos + 4);
+        }
+
+        public void write(int pos, byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer d = this.buffer.duplicate();
+            d.position(pos + 4);
+            d.putInt((int) crc.getValue());
+            d.put(payload);
+            // the length is written last; a record without length is not visible
+            this.buffer.putInt(pos, payload.length + 1);
+            this.dirty = true;
+        }
+
+        public void wipe(int pos) {
+            ByteBuffer d = this.buffer.duplicate();
+            d.position(pos);
+            while (d.hasRemaining()) d.put((byte) 0);
+            this.dirty = true;
+        }
+
+        public void close() {
+            try {this.raf.close();} catch (IOException e) {}
+        }
+
+        public void delete() {
+            close();
+            if (!this.file.delete()) Data.logger.warn("SegmentLogQueueFactory: cannot delete segment " + this.file);
+        }
+    }
+
+    public class LogQueue extends AbstractQueue<byte[]> implements Queue<byte[]> {
+
+        private final File dir;
+        private final TreeMap<Long, Segment> segments;
+        private final TreeMap<Long, Integer> unacknowledged; // offsets of delivered messages
+        private final TreeSet<Long> redeliver; // offsets of messages which must be delivered again
+        private final RandomAccessFile ackFile;
+        private Segment head;
+        private long writeOffset, readOffset, ackOffset, unread;
+        private final Object syncMonitor;
+        private long syncedOffset, syncedAck;
+
+        public LogQueue(File dir) throws IOException {
+            this.dir = dir;
+            this.dir.mkdirs();
+            this.segments = new TreeMap<>();
+            this.unacknowledged = new TreeMap<>();
+            this.redeliver = new TreeSet<>();
+            this.syncMonitor = new Object();
+
+            // open the segments
+            File[] files = this.dir.listFiles();
+            if (files != null) for (File f: files) {
+                String name = f.getName();
+                if (!name.endsWith(SEGMENT_SUFFIX)) continue;
+                try {
+                    long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    this.segments.put(base, new Segment(f, base, 0));
+                } catch (NumberFormatException e) {
+                    Data.logger.warn("SegmentLogQueueFactory: ignoring file " + f);
+                }
+            }
+
+            // read the acknowledge offset
+            this.ackFile = new RandomAccessFile(new File(this.dir, ACK_FILE_NAME), "rw");
+            this.ackOffset = this.ackFile.length() >= 8 ? this.ackFile.readLong() : -1;
+            if (this.segments.isEmpty()) {
+                this.ackOffset = Math.max(0, this.ackOffset);
+                this.segments.put(this.ackOffset, newSegment(this.ackOffset, segmentSize));
+            } else if (this.ackOffset < this.segments.firstKey()) {
+                this.ackOffset = this.segments.firstKey();
+            }
+            deleteAcknowledgedSegments();
+
+            // find the end of the log; everything after the acknowledge offset is delivered again
+            long offset = this.ackOffset;
+            this.unread = 0;
+            while (true) {
+                long next = recordAt(offset);
+                if (next < 0) break;
+                Segment s = this.segments.floorEntry(next).getValue();
+                int pos = (int) (next - s.base);
+                int length = s.length(pos);
+                if (!s.valid(pos, length)) break;
+                offset = next + HEADER_SIZE + length;
+                this.unread++;
+            }
+            this.writeOffset = offset;
+            this.head = this.segments.floorEntry(offset).getValue();
+            while (this.segments.lastKey() > this.head.base) {
+                Segment s = this.segments.remove(this.segments.lastKey());
+                Data.logger.warn("SegmentLogQueueFactory: removing unreadable segment " + s.file);
+                s.delete();
+            }
+            int pos = (int) (offset - this.head.base);
+            if (pos + HEADER_SIZE <= this.head.capacity() && this.head.buffer.getInt(pos) != 0) {
+                Data.logger.warn("SegmentLogQueueFactory: truncating incomplete record in queue " + this.dir.getName() + " at offset " + offset);
+                this.head.wipe(pos);
+            }
+            this.readOffset = this.ackOffset;
+            this.syncedOffset = this.writeOffset;
+            this.syncedAck = this.ackOffset;
+        }
+
+        private Segment newSegment(long base, long size) throws IOException {
+            return new Segment(new File(this.dir, String.format("%020d", base) + SEGMENT_SUFFIX), base, size);
+        }
+
+        /**
+         * find the next record at or after the given offset, skipping the unused end of segments
+         * @param offset
+         * @return the offset of the record or -1 if there is no record
+         */
+        private long recordAt(long offset) {
+            while (true) {
+                Map.Entry<Long, Segment> e = this.segments.floorEntry(offset);
+                if (e == null) return -1;
+                Segment s = e.getValue();
+                if (s.length((int) (offset - s.base)) >= 0) return offset;
+                Long next = this.segments.higherKey(s.base);
+                if (next == null) return -1;
+                offset = next;
+            }
+        }
+
+        private byte[] read(long offset) throws IOException {
+            Map.Entry<Long, Segment> e = this.segments.floorEntry(offset);
+            if (e == null) throw new IOException("no segment for offset " + offset);
+            Segment s = e.getValue();
+            int pos = (int) (offset - s.base);
+            int length = s.length(pos);
+            if (length < 0) throw new IOException("no record at offset " + offset);
+            return s.read(pos, length);
+        }
+
+        private void deleteAcknowledgedSegments() {
+            while (this.segments.size() > 1) {
+                Long next = this.segments.higherKey(this.segments.firstKey());
+                if (next > this.ackOffset) break;
+                this.segments.remove(this.segments.firstKey()).delete();
+            }
+        }
+
+        private void updateAckOffset() {
+            long a = this.readOffset;
+            if (!this.unacknowledged.isEmpty()) a = Math.min(a, this.unacknowledged.firstKey());
+            if (!this.redeliver.isEmpty()) a = Math.min(a, this.redeliver.first());
+            if (a <= this.ackOffset) return;
+            this.ackOffset = a;
+            deleteAcknowledgedSegments();
+        }
+
+        /**
+         * force the written records and the acknowledge offset to disk
+         */
+        private void sync() throws IOException {
+            List<Segment> dirty = new ArrayList<>();
+            long w, a;
+            synchronized (this) {
+                w = this.writeOffset;
+                a = this.ackOffset;
+                for (Segment s: this.segments.values()) if (s.dirty) {s.dirty = false; dirty.add(s);}
+            }
+            for (Segment s: dirty) s.buffer.force();
+            if (a != this.syncedAck) {
+                synchronized (this.ackFile) {
+                    this.ackFile.seek(0);
+                    this.ackFile.writeLong(a);
+                    this.ackFile.getChannel().force(false);
+                }
+                this.syncedAck = a;
+            }
+            synchronized (this.syncMonitor) {
+                this.syncedOffset = w;
+                this.syncMonitor.notifyAll();
+            }
+        }
+
+        /**
+         * wait until all records up to the given offset are forced to disk
+         */
+        private void awaitSync(long offset) throws IOException {
+            synchronized (this.syncMonitor) {
+                while (this.syncedOffset < offset) {
+                    if (!shallRun) throw new IOException("queue " + this.dir.getName() + " is closed");
+                    requestSync();
+                    try {
+                        this.syncMonitor.wait(syncInterval);
+                    } catch (InterruptedException e) {
+                        throw new IOException("sync interrupted");
+                    }
+                }
+            }
+        }
+
+        private long append(byte[] message) throws IOException {
+            long size = HEADER_SIZE + message.length;
+            int pos = (int) (this.writeOffset - this.head.base);
+            if (pos + size > this.head.capacity()) {
+                this.head = newSegment(this.writeOffset, Math.max(segmentSize, size));
+                this.segments.put(this.head.base, this.head);
+                pos = 0;
+            }
+            this.head.write(pos, message);
+            this.writeOffset += size;
+            this.unread++;
+            return this.writeOffset;
+        }
+
+        @Override
+        public void checkConnection() throws IOException {
+            available();
+        }
+
+        @Override
+        public Queue<byte[]> send(byte[] message) throws IOException {
+            long end;
+            synchronized (this) {
+                end = append(message);
+                this.notifyAll();
+            }
+            awaitSync(end);
+            return this;
+        }
+
+        @Override
+        public Queue<byte[]> send(List<byte[]> messages) throws IOException {
+            if (messages.isEmpty()) return this;
+            long end = 0;
+            synchronized (this) {
+                for (byte[] message: messages) end = append(message);
+                this.notifyAll();
+            }
+            awaitSync(end);
+            return this;
+        }
+
+        @Override
+        public synchronized MessageContainer<byte[]> receive(long timeout, boolean autoAck) throws IOException {
+            long termination = timeout <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+            while (this.redeliver.isEmpty() && this.unread == 0) {
+                long wait = termination - System.currentTimeMillis();
+                if (wait <= 0) return null;
+                try {
+                    this.wait(wait);
+                } catch (InterruptedException e) {
+                    Data.logger.debug("LogQueue: receive interrupted", e);
+                    return null;
+                }
+            }
+            long offset;
+            byte[] payload;
+            if (this.redeliver.isEmpty()) {
+                offset = recordAt(this.readOffset);
+                if (offset < 0) throw new IOException("queue " + this.dir.getName() + " is inconsistent at offset " + this.readOffset);
+                payload = read(offset);
+                this.readOffset = offset + HEADER_SIZE + payload.length;
+                this.unread--;
+            } else {
+                offset = this.redeliver.pollFirst();
+                payload = read(offset);
+            }
+            if (!autoAck) this.unacknowledged.put(offset, payload.length);
+            updateAckOffset();
+            return new MessageContainer<byte[]>(SegmentLogQueueFactory.this, payload, offset);
+        }
+
+        @Override
+        public synchronized void acknowledge(long deliveryTag) throws IOException {
+            if (this.unacknowledged.remove(deliveryTag) == null) return;
+            updateAckOffset();
+        }
+
+        @Override
+        public synchronized void acknowledgeUpTo(long deliveryTag) throws IOException {
+            // the tag is the offset of a delivered message; any other value may come from another broker
+            // and would acknowledge messages which were never processed
+            if (!this.unacknowledged.containsKey(deliveryTag)) throw new IOException("unknown delivery tag " + deliveryTag);
+            this.unacknowledged.headMap(deliveryTag, true).clear();
+            updateAckOffset();
+        }
+
+        @Override
+        public synchronized void reject(long deliveryTag) throws IOException {
+            // rejected messages are requeued, like in the rabbitmq broker
+            if (this.unacknowledged.remove(deliveryTag) == null) return;
+            this.redeliver.add(deliveryTag);
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized void recover() throws IOException {
+            this.redeliver.addAll(this.unacknowledged.keySet());
+            this.unacknowledged.clear();
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized long available() throws IOException {
+            return this.unread + this.redeliver.size();
+        }
+
+        @Override
+        public synchronized void clear() throws IOException {
+            this.readOffset = this.writeOffset;
+            this.unread = 0;
+            this.redeliver.clear();
+            this.unacknowledged.clear();
+            updateAckOffset();
+        }
+
+        public synchronized void close() {
+            this.segments.values().forEach(segment -> segment.close());
+            try {
+                this.ackFile.close();
+            } catch (IOException e) {
+                Data.logger.debug("LogQueue: close error", e);
+            }
+        }
+    }
+
+}
@@ -24,6 +24,7 @@ public enum ShardingMethod {
     ROUND_ROBIN,   // go around all queues all the time
     LEAST_FILLED,  // take the one which has least entries
     HASH,          // use a hashing key to determine a queue
+    CONSISTENT_HASH, // like HASH, but if the number of queues changes, only a share of 1/n of the hashing keys is moved to another queue
     LOOKUP,        // lookup a queue with the hashing key; if not determined yet, use LEAST_FILLED
     BALANCE,       // like LOOKUP, but if LOOKUP would return a queue with most entries and there exist one queue with none entries, the queue is switched to the empty one
     RANDOM,        // just a random queue
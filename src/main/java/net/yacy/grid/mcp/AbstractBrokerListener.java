@@ -19,20 +19,31 @@
 
 package net.yacy.grid.mcp;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import ai.susi.mind.SusiAction;
-import ai.susi.mind.SusiThought;
 import net.yacy.grid.Services;
 import net.yacy.grid.YaCyServices;
 import net.yacy.grid.io.messages.AvailableContainer;
@@ -43,27 +54,121 @@ import net.yacy.grid.tools.Memory;
 
 public abstract class AbstractBrokerListener implements BrokerListener {
 
+    private final static long IDLE_TIME = 2000; // time a source queue is skipped after it was found empty
+    private final static long PULL_TIMEOUT = 1000; // waiting time for a message from a queue which was not found empty
+    private final static long PROBE_TIME = 1; // waiting time when a queue is probed; the brokers take 0 as no time limit
+    private final static long CONFIRM_TIMEOUT = 10000; // waiting time for the broker to confirm the forwarded actions of a batch
+
     public boolean shallRun;
     private final Services service;
     private final GridQueue[] sourceQueues;
-    private final int threadCount;
-    private final List<QueueListener> threads;
-    private final AtomicInteger targetFill;
+    private final List<Fetcher> fetchers;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Integer> processNumbers;
+    private final Metrics.Rate rate;
+    private final boolean binaryEnvelope;
+    private final QueueScheduler scheduler;
+    private final RetryQueue retryQueue;
+    private final CreditGate credits;
+    private final ConcurrencyLimit concurrency;
+    private final int fetcherCount;
+    private final String instance;
+    private final AtomicLong handled, forwarded;
+    private final Batcher batcher;
+    private final DedupFilter dedup;
+    private final Set<Message> inFlight;
+    private final long drainTimeout;
+    private final CountDownLatch terminated;
+    private volatile boolean running;
 
     public AbstractBrokerListener(final Services service, final int threadCount) {
         this.service = service;
+        this.binaryEnvelope = Data.config != null && "true".equals(Data.config.get("grid.broker.envelope"));
         this.sourceQueues = service.getSourceQueues();
-        this.threadCount = threadCount;
-        //    this.threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(this.threads);
         this.shallRun = true;
-        this.threads = new ArrayList<>();
-        this.targetFill = new AtomicInteger(0);
+        this.fetchers = new ArrayList<>();
+        this.rate = new Metrics.Rate();
+        this.credits = new CreditGate();
+        this.instance = UUID.randomUUID().toString().substring(0, 8);
+        this.handled = new AtomicLong(0);
+        this.forwarded = new AtomicLong(0);
+
+        // the weights of the priority dimensions of the source queues
+        int[] dimensions = new int[]{this.sourceQueues.length};
+        int[] weights = new int[]{1};
+        if (Data.config != null) {
+            dimensions = QueueScheduler.parse(Data.config.get("grid.listener.priority.dimensions"), dimensions);
+            weights = QueueScheduler.parse(Data.config.get("grid.listener.priority.weights"), weights);
+        }
+        int sum = 0;
+        for (int d: dimensions) sum += d;
+        if (sum != this.sourceQueues.length || weights.length != dimensions.length) {
+            Data.logger.warn("Broker Listener: priority dimensions do not fit to the " + this.sourceQueues.length + " queues of service " + service.name() + ", using equal weights");
+            dimensions = new int[]{this.sourceQueues.length};
+            weights = new int[]{1};
+        }
+        this.scheduler = new QueueScheduler(this.sourceQueues, dimensions, weights, IDLE_TIME);
+
+        // the delays of the retries of failed messages; after the last one a message is a dead letter
+        int[] delays = QueueScheduler.parse(Data.config == null ? null : Data.config.get("grid.listener.retry.delays"), new int[]{10000, 60000, 300000, 1800000});
+        long[] retryDelays = new long[delays.length];
+        for (int i = 0; i < delays.length; i++) retryDelays[i] = delays[i];
+        // pending retries are stored next to the local queues, so they survive a restart
+        File retryPath = Data.gridServicePath == null ? null : new File(new File(Data.gridServicePath, "messages"), "retry_" + service.name() + ".db");
+        this.retryQueue = new RetryQueue(service.name(), retryDelays, retryPath);
+
+        // the number of messages which are processed at the same time is adapted to the processing latency and the backlog;
+        // the number of threads does not depend on the number of source queues
+        int initialThreads = Math.max(1, threadCount);
+        int maxThreads = initialThreads * 4;
+        int minThreads = 1;
+        int fetchers = 2;
+        boolean virtual = false;
+        int batchSize = 1;
+        long batchTime = 1000;
+        boolean dedup = false;
+        long dedupMemory = 8 * 1024 * 1024;
+        double dedupFpp = 0.001d;
+        long dedupTtl = 3600000;
+        long drainTimeout = 30000;
+        if (Data.config != null) {
+            if (Data.config.containsKey("grid.listener.threads.max")) maxThreads = Math.max(initialThreads, Integer.parseInt(Data.config.get("grid.listener.threads.max")));
+            if (Data.config.containsKey("grid.listener.threads.min")) minThreads = Integer.parseInt(Data.config.get("grid.listener.threads.min"));
+            if (Data.config.containsKey("grid.listener.fetchers")) fetchers = Math.max(1, Integer.parseInt(Data.config.get("grid.listener.fetchers")));
+            virtual = "true".equals(Data.config.get("grid.listener.virtual"));
+            if (Data.config.containsKey("grid.listener.batch.size")) batchSize = Integer.parseInt(Data.config.get("grid.listener.batch.size"));
+            if (Data.config.containsKey("grid.listener.batch.time")) batchTime = Long.parseLong(Data.config.get("grid.listener.batch.time"));
+            dedup = "true".equals(Data.config.get("grid.listener.dedup"));
+            if (Data.config.containsKey("grid.listener.dedup.memory")) dedupMemory = Long.parseLong(Data.config.get("grid.listener.dedup.memory"));
+            if (Data.config.containsKey("grid.listener.dedup.fpp")) dedupFpp = Double.parseDouble(Data.config.get("grid.listener.dedup.fpp"));
+            if (Data.config.containsKey("grid.listener.dedup.ttl")) dedupTtl = Long.parseLong(Data.config.get("grid.listener.dedup.ttl"));
+            if (Data.config.containsKey("grid.listener.drain.timeout")) drainTimeout = Long.parseLong(Data.config.get("grid.listener.drain.timeout"));
+        }
+        this.fetcherCount = fetchers;
+        this.concurrency = new ConcurrencyLimit(initialThreads, minThreads, maxThreads);
+        this.workers = newWorkers(maxThreads, virtual);
+        this.processNumbers = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < maxThreads; i++) this.processNumbers.add(i);
+
+        // messages are processed in batches only if the listener is able to make use of it
+        this.batcher = batchSize > 1 ? new Batcher(batchSize, batchTime) : null;
+
+        // messages which were processed recently are not processed again, i.e. after a recover
+        this.dedup = dedup ? new DedupFilter(dedupMemory, dedupFpp, dedupTtl) : null;
+
+        // the received messages which are not yet acknowledged; they are drained at termination
+        this.inFlight = ConcurrentHashMap.newKeySet();
+        this.drainTimeout = drainTimeout;
+        this.terminated = new CountDownLatch(1);
+        this.running = false;
     }
 
     public abstract ActionResult processAction(SusiAction action, JSONArray data, String processName, int processNumber);
 
     @Override
     public void run() {
+        this.running = true;
+
         // recover unacknowledged entries - possibly from last start
         for (GridQueue queue: this.sourceQueues) {
             try {
@@ -83,183 +188,544 @@ public abstract class AbstractBrokerListener implements BrokerListener {
             Data.logger.fatal("Service " + this.service.name() + ": AvailableContainer not available: " + e.getMessage(), e);
         }
 
-        // start the listeners
-        int threadsPerQueue = Math.max(1, this.threadCount / this.sourceQueues.length);
-        Data.logger.info("Broker Listener: starting " + threadsPerQueue + " threads for each of the " + this.sourceQueues.length + " queues");
-        for (GridQueue queue: this.sourceQueues) {
-            for (int qc = 0; qc < threadsPerQueue; qc++) {
-                QueueListener listener = new QueueListener(queue, qc, Data.gridBroker.isAutoAck(), Data.gridBroker.getQueueThrottling());
-                listener.start();
-                threads.add(listener);
-                Data.logger.info("Broker Listener for service " + this.service.name() + ", queue " + queue + " started thread " + qc);
-            }
+        // messages for this service from other services in this JVM do not need to go through the broker
+        Data.gridBroker.registerLocal(this.service);
+
+        // start the fetchers; they share all queues using the scheduler and hand the messages to the workers
+        Data.logger.info("Broker Listener: starting " + this.fetcherCount + " fetchers for the " + this.sourceQueues.length + " queues, " + this.concurrency.getLimit() + " workers active");
+        if (this.batcher != null) this.batcher.start();
+        for (int fc = 0; fc < this.fetcherCount; fc++) {
+            Fetcher fetcher = new Fetcher(fc, Data.gridBroker.isAutoAck());
+            fetcher.start();
+            this.fetchers.add(fetcher);
         }
 
-        // start the caretaker
-        Caretaker caretaker = new Caretaker();
-        caretaker.run();
+        // start the caretaker; the target depth of the queues defaults to the throttling limit of the broker
+        long targetDepth = Data.gridBroker.getQueueThrottling();
+        long creditInterval = 5000;
+        if (Data.config != null) {
+            if (Data.config.containsKey("grid.listener.credit.depth")) targetDepth = Long.parseLong(Data.config.get("grid.listener.credit.depth"));
+            if (Data.config.containsKey("grid.listener.credit.interval")) creditInterval = Long.parseLong(Data.config.get("grid.listener.credit.interval"));
+        }
+        Caretaker caretaker = new Caretaker(targetDepth, creditInterval);
+        caretaker.start();
 
         // wait for termination, this happens when terminate() is called
-        threads.forEach(thread -> {
+        this.fetchers.forEach(fetcher -> {
             try {
-                thread.join();
-                Data.logger.info("Broker Listener for service " + this.service.name() + ", queue " + thread.queueName + " terminated");
+                fetcher.join();
+                Data.logger.info("Broker Listener for service " + this.service.name() + ", fetcher " + fetcher.fetcherCounter + " terminated");
             } catch (InterruptedException e) {
-                Data.logger.info("Broker Listener for service " + this.service.name() + ", queue " + thread.queueName + " interrupted", e);
+                Data.logger.info("Broker Listener for service " + this.service.name() + ", fetcher " + fetcher.fetcherCounter + " interrupted", e);
             }
         });
+        drain();
+        Data.gridBroker.unregisterLocal(this.service);
+        this.retryQueue.close();
+        caretaker.interrupt();
         try {
             caretaker.join();
         } catch (InterruptedException e) {
             Data.logger.info("Broker Listener for service " + this.service.name() + ", caretaker interrupted", e);
         }
+        this.terminated.countDown();
+    }
+
+    /**
+     * wait for the messages in flight after the fetchers stopped. Messages which are processed until the drain timeout
+     * are acknowledged by their workers; the others are given back to their queues, so each message ends either
+     * acknowledged or requeued and is not left to the redelivery of the broker after a restart.
+     */
+    private void drain() {
+        long start = System.currentTimeMillis();
+        int inFlight = this.inFlight.size(); // the fetchers are stopped, so this does not grow any more
+        Data.logger.info("Broker Listener for service " + this.service.name() + ": draining " + inFlight + " messages in flight, timeout " + this.drainTimeout + " ms");
+        if (this.batcher != null) try {
+            this.batcher.join();
+        } catch (InterruptedException e) {
+            Data.logger.info("Broker Listener for service " + this.service.name() + ", batcher interrupted", e);
+        }
+        this.workers.shutdown();
+        try {
+            this.workers.awaitTermination(Math.max(0, this.drainTimeout - (System.currentTimeMillis() - start)), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Data.logger.info("Broker Listener for service " + this.service.name() + ", workers interrupted", e);
+        }
+
+        // give the messages back which are still processed; their workers do not acknowledge them any more
+        int requeued = 0, lost = 0;
+        for (Message message: this.inFlight) {
+            if (!message.settled.compareAndSet(false, true)) continue;
+            try {
+                if (message.autoAck || message.mc.getDeliveryTag() <= 0) {
+                    // the broker forgot the message when it was received
+                    Data.gridBroker.send(this.service, message.queue, message.mc.getPayload());
+                } else {
+                    Data.gridBroker.reject(this.service, message.queue, message.mc.getDeliveryTag());
+                }
+                Metrics.count(this.service.name(), message.queue.name(), "requeued");
+                requeued++;
+            } catch (IOException e) {
+                Data.logger.warn("Broker Listener for service " + this.service.name() + ": message in queue " + message.queue + " could not be given back", e);
+                lost++;
+            }
+            this.inFlight.remove(message);
+        }
+        if (!this.workers.isTerminated()) this.workers.shutdownNow();
+        Data.logger.info("Broker Listener for service " + this.service.name() + " drained in " + (System.currentTimeMillis() - start) + " ms: " +
+                (inFlight - requeued - lost) + " messages completed, " + requeued + " requeued, " + lost + " lost");
     }
 
     @Override
     public int messagesPerMinute() {
-        int mpm = 0;
-        for (QueueListener ql: this.threads) {
-            mpm += ql.messagesPerMinute();
-        }
-        return mpm;
+        return this.rate.lastMinute();
     }
 
+    /**
+     * The caretaker reports the consumption rate and the free capacity of the source queues of this listener
+     * to the MCP and grants the credits for the next interval from the capacity of the downstream services:
+     * the number of messages they consume in one interval plus the number of messages which are missing
+     * to reach their target depth (negative if they are above it), divided by the number of messages
+     * which this listener produces for each consumed message.
+     */
     private class Caretaker extends Thread {
 
+        private final long targetDepth;
+        private final long interval;
+
+        public Caretaker(long targetDepth, long interval) {
+            super("Caretaker " + AbstractBrokerListener.this.service.name());
+            this.targetDepth = targetDepth;
+            this.interval = interval;
+        }
+
         @Override
         public void run() {
+            Services[] targets = AbstractBrokerListener.this.service.getTargetServices();
+            String[] targetNames = new String[targets.length];
+            for (int i = 0; i < targets.length; i++) targetNames[i] = targets[i].name();
+            long lastHandled = 0, lastForwarded = 0, lastLog = 0;
+            double fanout = 1.0d;
             while (shallRun) {
-                // collect size of target queues:
-                int targetQueueAggregator = 0;
-                for (Services targetService: AbstractBrokerListener.this.service.getTargetServices()) {
-                    for (GridQueue targetQueue: targetService.getSourceQueues()) try {
-                        AvailableContainer a = Data.gridBroker.available(targetService, targetQueue);
-                        targetQueueAggregator += a.getAvailable();
+                // the own consumption rate and the number of messages produced for each consumed message
+                long handled = AbstractBrokerListener.this.handled.get();
+                long forwarded = AbstractBrokerListener.this.forwarded.get();
+                double rate = (handled - lastHandled) * 1000.0d / this.interval;
+                if (handled > lastHandled) fanout = 0.8d * fanout + 0.2d * (forwarded - lastForwarded) / (handled - lastHandled);
+                lastHandled = handled;
+                lastForwarded = forwarded;
+
+                if (this.targetDepth <= 0 || targets.length == 0) {
+                    AbstractBrokerListener.this.credits.unlimit();
+                } else {
+                    // report the own capacity and get the share of this instance of the capacity of the downstream services
+                    long depth = 0;
+                    try {
+                        for (AvailableContainer a: Data.gridBroker.available(AbstractBrokerListener.this.service, AbstractBrokerListener.this.sourceQueues)) depth += a.getAvailable();
                     } catch (IOException e) {}
+                    JSONObject capacities = new JSONObject();
+                    try {
+                        capacities = Data.gridControl.reportCapacity(AbstractBrokerListener.this.service.name(), AbstractBrokerListener.this.instance, rate, this.targetDepth - depth, targetNames);
+                    } catch (IOException e) {
+                        Data.logger.info("BrokerListener: capacity not available: " + e.getMessage());
+                    }
+
+                    // the credits for the next interval are limited by the downstream service with the least capacity
+                    double budget = Double.MAX_VALUE;
+                    for (Services target: targets) {
+                        JSONObject capacity = capacities.optJSONObject(target.name());
+                        if (capacity != null) {
+                            budget = Math.min(budget, capacity.getDouble("rate") * this.interval / 1000.0d + capacity.getLong("free"));
+                        } else {
+                            // the target service does not report its capacity; use the depth of its queues
+                            long targetFill = 0;
+                            try {
+                                for (AvailableContainer a: Data.gridBroker.available(target, target.getSourceQueues())) targetFill += a.getAvailable();
+                            } catch (IOException e) {}
+                            budget = Math.min(budget, this.targetDepth - targetFill);
+                        }
+                    }
+                    AbstractBrokerListener.this.credits.grant((long) (budget / Math.max(0.1d, fanout)));
                 }
-                AbstractBrokerListener.this.targetFill.set(targetQueueAggregator);
-                Data.logger.info("BrokerListener operates with " + AbstractBrokerListener.this.messagesPerMinute() + " messages per minute; target queues size: " + targetQueueAggregator);
 
-                // wait a bit
-                try {Thread.sleep(60000);} catch (InterruptedException ee) {}
+                // adapt the number of running workers
+                AbstractBrokerListener.this.concurrency.adjust(this.interval);
+
+                long now = System.currentTimeMillis();
+                if (now - lastLog >= 60000) {
+                    Data.logger.info("BrokerListener operates with " + AbstractBrokerListener.this.messagesPerMinute() + " messages per minute; threads: " + AbstractBrokerListener.this.concurrency.toJSON().toString() + "; fan-out: " + fanout + "; credits: " + AbstractBrokerListener.this.credits.toJSON().toString() + "; priority dimensions: " + AbstractBrokerListener.this.scheduler.toJSON().toString() + "; retries: " + AbstractBrokerListener.this.retryQueue.toJSON().toString() + (AbstractBrokerListener.this.dedup == null ? "" : "; duplicate filter: " + AbstractBrokerListener.this.dedup.toJSON().toString()));
+                    lastLog = now;
+                }
+
+                // wait until the next interval
+                try {Thread.sleep(this.interval);} catch (InterruptedException ee) {}
             }
         }
     }
 
-    private class QueueListener extends Thread {
-        private final GridQueue queueName;
-        private final int threadCounter;
+    /**
+     * A fetcher selects a source queue, receives a message and hands it to a worker. It holds a slot of the
+     * concurrency limit and a credit for each message, so the number of messages in the workers is bounded.
+     */
+    private class Fetcher extends Thread {
+        private final int fetcherCounter;
         private final boolean autoAck;
-        private final LinkedList<Long> tracker;
-        private final long targetQueueThrottling;
 
-        public QueueListener(final GridQueue queueName, final int threadCounter, final boolean autoAck, int queueThrottling) {
-            this.queueName = queueName;
-            this.threadCounter = threadCounter;
+        public Fetcher(final int fetcherCounter, final boolean autoAck) {
+            super(AbstractBrokerListener.this.service.name() + "-fetcher-" + fetcherCounter);
+            this.fetcherCounter = fetcherCounter;
             this.autoAck = autoAck;
-            this.targetQueueThrottling = queueThrottling;
-            this.tracker = new LinkedList<>();
-        }
-
-        public int messagesPerMinute() {
-            return this.tracker.size();
         }
 
         @Override
         public void run() {
-            try {
-                AvailableContainer a = Data.gridBroker.available(AbstractBrokerListener.this.service, this.queueName);
-                Data.logger.info("Started QueueListener for Queue " + a.getQueue() + ", thread " + this.threadCounter + ": " + a.getAvailable() + " entries.");
-            } catch (IOException e) {
-                Data.logger.fatal("Could not load AvailableContainer for Queue " + queueName + ": " + e.getMessage(), e);
-            }
+            Data.logger.info("Started Fetcher for service " + AbstractBrokerListener.this.service.name() + ", thread " + this.fetcherCounter);
 
             while (shallRun) {
                 if (Data.gridBroker == null) {
                     try {Thread.sleep(1000);} catch (InterruptedException ee) {}
                     continue; // wait until initialization complete
                 }
-                String payload = "";
-                MessageContainer<byte[]> mc = null;
-                ActionResult result = ActionResult.SUCCESS;
+
+                // only as many messages as the concurrency limit allows are processed at the same time
+                if (!AbstractBrokerListener.this.concurrency.acquire(PULL_TIMEOUT)) continue;
+                boolean submitted = false;
                 try {
                     // check short memory status
                     if (Memory.shortStatus()) {
-                        Data.logger.info("AbstractBrokerListener.QueueListener short memory status: assigned = " + Memory.assigned() + ", used = " + Memory.used());
+                        Data.logger.info("AbstractBrokerListener.Fetcher short memory status: assigned = " + Memory.assigned() + ", used = " + Memory.used());
                         Data.clearCaches();
                     }
 
-                    // check target throttling
-                    if (this.targetQueueThrottling > 0) {
-                        long throttlingStart = this.targetQueueThrottling / 10 * 9;
-                        long targetQueueAggregator = AbstractBrokerListener.this.targetFill.get();
-                        if (targetQueueAggregator > throttlingStart) {
-                            Data.logger.info("AbstractBrokerListener.QueueListener target queue aggregated size = " + targetQueueAggregator + ", throttling start is " + throttlingStart);
-                            long throttlingTime = Math.min(10000L, (targetQueueAggregator - throttlingStart) / this.targetQueueThrottling * 100000L);
-                            if (throttlingTime > 1000L) {
-                                Data.logger.info("AbstractBrokerListener.QueueListener throttling = " + this.targetQueueThrottling + ", sleeping for " + throttlingTime + " milliseconds");
-                                try {Thread.sleep(throttlingTime);} catch (InterruptedException e) {}
-                            }
+                    // a message may only be consumed with a credit; without credits the downstream services are saturated
+                    if (!AbstractBrokerListener.this.credits.acquire(PULL_TIMEOUT)) continue;
+
+                    // select a queue and wait until a message arrives
+                    int q = AbstractBrokerListener.this.scheduler.next();
+                    GridQueue queueName = AbstractBrokerListener.this.scheduler.getQueue(q);
+                    boolean allIdle = AbstractBrokerListener.this.scheduler.isIdle(q); // the scheduler selects an idle queue only if all queues are idle
+                    long timeout = allIdle ? IDLE_TIME : AbstractBrokerListener.this.scheduler.hasBacklog(q) ? PULL_TIMEOUT : PROBE_TIME;
+                    long start = System.currentTimeMillis();
+                    MessageContainer<byte[]> mc = Data.gridBroker.receive(AbstractBrokerListener.this.service, queueName, timeout, this.autoAck);
+                    // an empty probe is no miss; more workers are useless only if every source queue is empty
+                    if (mc == null && allIdle) AbstractBrokerListener.this.concurrency.missed();
+                    if (mc == null) {
+                        Metrics.count(AbstractBrokerListener.this.service.name(), queueName.name(), "empty");
+                        AbstractBrokerListener.this.credits.release();
+                        AbstractBrokerListener.this.scheduler.idle(q);
+                    } else {
+                        Metrics.time(AbstractBrokerListener.this.service.name(), queueName.name(), AbstractBrokerListener.this.service.name(), Metrics.Phase.receive, System.currentTimeMillis() - start);
+                        AbstractBrokerListener.this.scheduler.active(q);
+                        Message message = new Message(queueName, mc, this.autoAck);
+                        AbstractBrokerListener.this.inFlight.add(message);
+                        if (AbstractBrokerListener.this.batcher == null) {
+                            AbstractBrokerListener.this.workers.execute(new Worker(Collections.singletonList(message)));
+                            submitted = true;
+                        } else {
+                            // the batcher takes a slot for the whole batch
+                            AbstractBrokerListener.this.batcher.add(message);
                         }
                     }
-
-                    // wait until message arrives
-                    mc = Data.gridBroker.receive(AbstractBrokerListener.this.service, this.queueName, 10000, autoAck);
-                    if (mc != null && mc.getPayload() != null && mc.getPayload().length > 0) {
-                        result = handleMessage(mc, this.queueName.name(), this.threadCounter);
-                        // track number of handles messages
-                        long time = System.currentTimeMillis();
-                        this.tracker.add(time);
-                        time = time - 60000;
-                        while (this.tracker.size() > 0 && this.tracker.getFirst() < time) this.tracker.removeFirst();
-                    }
-                    // try {Thread.sleep(1000);} catch (InterruptedException ee) {}
-                } catch (JSONException e) {
-                    // happens if the payload has a wrong form
-                    Data.logger.info("QueueListener: message syntax error with '" + payload + "' in queue: " + e.getMessage(), e);
-                    try {Thread.sleep(10000);} catch (InterruptedException ee) {}
                 } catch (Throwable e) {
-                    Data.logger.info("QueueListener: " + e.getMessage(), e);
-                    try {Thread.sleep(10000);} catch (InterruptedException ee) {}
-                    String m = e.getMessage();
-                    if (m == null) m = e.getCause().getMessage();
-                    if (m.equals(GridBroker.TARGET_LIMIT_MESSAGE)) {
-                        // do not process message!
-                        if (!this.autoAck && mc != null && mc.getDeliveryTag() > 0) {
-                            // reject the message
-                            try {
-                                Data.gridBroker.reject(AbstractBrokerListener.this.service, this.queueName, mc.getDeliveryTag());
-                            } catch (IOException ee) {
-                                Data.logger.info("QueueListener: cannot acknowledge queue: " + ee.getMessage(), ee);
-                            }
-                        }
-                    }
+                    // the broker failed, not the message: do not hammer the broker
+                    Data.logger.info("Fetcher: " + e.getMessage(), e);
+                    try {Thread.sleep(1000);} catch (InterruptedException ee) {}
                 } finally {
-                    if (!this.autoAck && mc != null && mc.getDeliveryTag() > 0) {
-                        // acknowledge the message
-                        try {
-                            Data.gridBroker.acknowledge(AbstractBrokerListener.this.service, this.queueName, mc.getDeliveryTag());
-                        } catch (IOException e) {
-                            Data.logger.info("QueueListener: cannot acknowledge queue: " + e.getMessage(), e);
-                        }
+                    // the worker releases the slot when it is done
+                    if (!submitted) AbstractBrokerListener.this.concurrency.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * A message which was received from a source queue, with the actions of this service
+     */
+    private static class Message {
+        private final GridQueue queue;
+        private final MessageContainer<byte[]> mc;
+        private final boolean autoAck;
+        private ThoughtEnvelope envelope;
+        private byte[] digest;
+        private List<SusiAction> actions;
+        private ActionResult result;
+        private String failure; // the reason why processing failed, if it is known
+        private final List<Forward> forwards; // the messages which were sent for this message
+        private final AtomicBoolean settled; // true if the message was acknowledged or given back
+
+        public Message(final GridQueue queue, final MessageContainer<byte[]> mc, final boolean autoAck) {
+            this.queue = queue;
+            this.mc = mc;
+            this.autoAck = autoAck;
+            this.envelope = null;
+            this.digest = null;
+            this.actions = new ArrayList<>();
+            this.result = ActionResult.SUCCESS;
+            this.failure = null;
+            this.forwards = new ArrayList<>();
+            this.settled = new AtomicBoolean(false);
+        }
+
+        public boolean hasPayload() {
+            return this.mc.getPayload() != null && this.mc.getPayload().length > 0;
+        }
+
+        /**
+         * merge the result of an action into the result of the message; an irreversible failure wins over a retry
+         */
+        public void merge(ActionResult r) {
+            if (r == ActionResult.FAIL_IRREVERSIBLE || (r == ActionResult.FAIL_RETRY && this.result == ActionResult.SUCCESS)) this.result = r;
+        }
+    }
+
+    /**
+     * An action which was sent to the queue of another service. The broker may confirm it only after the send
+     * returned; the message which contained the action must not be acknowledged before.
+     */
+    private static class Forward {
+        private final YaCyServices service;
+        private final GridQueue queue;
+        private final byte[] payload; // the message with only this action, which is retried if the action is lost
+        private final CompletableFuture<?> confirmation;
+
+        public Forward(final YaCyServices service, final GridQueue queue, final byte[] payload, final CompletableFuture<?> confirmation) {
+            this.service = service;
+            this.queue = queue;
+            this.payload = payload;
+            this.confirmation = confirmation;
+        }
+    }
+
+    /**
+     * The batcher collects messages until a batch is full or the oldest message waited for the batch time,
+     * and hands the batch to a worker. A batch holds one slot of the concurrency limit.
+     */
+    private class Batcher extends Thread {
+        private final int size;
+        private final long time;
+        private List<Message> batch;
+        private long deadline;
+
+        public Batcher(final int size, final long time) {
+            super("Batcher " + AbstractBrokerListener.this.service.name());
+            this.size = size;
+            this.time = time;
+            this.batch = new ArrayList<>();
+            this.deadline = 0;
+        }
+
+        public void add(final Message message) {
+            List<Message> full = null;
+            synchronized (this) {
+                if (this.batch.isEmpty()) this.deadline = System.currentTimeMillis() + this.time;
+                this.batch.add(message);
+                if (this.batch.size() >= this.size) {
+                    full = this.batch;
+                    this.batch = new ArrayList<>();
+                }
+            }
+            if (full != null) submit(full);
+        }
+
+        @Override
+        public void run() {
+            while (shallRun) {
+                List<Message> due;
+                synchronized (this) {
+                    long wait = this.batch.isEmpty() ? this.time : this.deadline - System.currentTimeMillis();
+                    if (wait > 0) {
+                        try {this.wait(wait);} catch (InterruptedException e) {}
+                        continue;
+                    }
+                    due = this.batch;
+                    this.batch = new ArrayList<>();
+                }
+                submit(due);
+            }
+            // the fetchers are terminated: process the rest
+            List<Message> rest;
+            synchronized (this) {
+                rest = this.batch;
+                this.batch = new ArrayList<>();
+            }
+            if (!rest.isEmpty()) submit(rest);
+        }
+
+        private void submit(final List<Message> batch) {
+            // the messages are already received, so they must be processed even if the listener terminates
+            while (!AbstractBrokerListener.this.concurrency.acquire(PULL_TIMEOUT)) {}
+            AbstractBrokerListener.this.workers.execute(new Worker(batch));
+        }
+    }
+
+    /**
+     * A worker processes one message or a batch of messages and acknowledges them. Failed messages are handed to the retry queue.
+     */
+    private class Worker implements Runnable {
+        private final List<Message> messages;
+
+        public Worker(final List<Message> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void run() {
+            // the process number is unique among the running workers
+            Integer processNumber = AbstractBrokerListener.this.processNumbers.poll();
+            try {
+                String processName = this.messages.size() == 1 ? this.messages.get(0).queue.name() : AbstractBrokerListener.this.service.name() + "-batch";
+                long start = System.currentTimeMillis();
+                handleMessages(this.messages, processName, processNumber == null ? 0 : processNumber.intValue());
+                AbstractBrokerListener.this.concurrency.processed(System.currentTimeMillis() - start);
+            } finally {
+                for (Message message: this.messages) {
+                    // a message which was given back by the drain is not acknowledged
+                    if (!message.settled.compareAndSet(false, true)) continue;
+                    AbstractBrokerListener.this.inFlight.remove(message);
+                    if (message.autoAck || message.mc.getDeliveryTag() <= 0) continue;
+                    // acknowledge the message
+                    try {
+                        long start = System.currentTimeMillis();
+                        Data.gridBroker.acknowledge(AbstractBrokerListener.this.service, message.queue, message.mc.getDeliveryTag());
+                        Metrics.time(AbstractBrokerListener.this.service.name(), message.queue.name(), AbstractBrokerListener.this.service.name(), Metrics.Phase.ack, System.currentTimeMillis() - start);
+                    } catch (IOException e) {
+                        Data.logger.info("Worker: cannot acknowledge queue: " + e.getMessage(), e);
                     }
                 }
+                if (processNumber != null) AbstractBrokerListener.this.processNumbers.offer(processNumber);
+                AbstractBrokerListener.this.concurrency.release();
             }
         }
     }
 
-    private ActionResult handleMessage(final MessageContainer<byte[]> mc, final String processName, final int processNumber) {
+    /**
+     * create the executor for the workers
+     * @param size the number of worker threads; the number of running workers is bounded by the concurrency limit
+     * @param virtual if true, use virtual threads if the JVM supports them
+     * @return the executor
+     */
+    private ExecutorService newWorkers(int size, boolean virtual) {
+        if (virtual) try {
+            // virtual threads are available since Java 21 but this code is compiled for Java 8
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Data.logger.info("Broker Listener: virtual threads not available, using a thread pool");
+        }
+        final AtomicInteger workerCounter = new AtomicInteger(0);
+        final String name = this.service.name() + "-worker-";
+        return Executors.newFixedThreadPool(size, r -> new Thread(r, name + workerCounter.getAndIncrement()));
+    }
+
+    /**
+     * process messages: the actions for this service are processed with processAction, or all at once with
+     * processActions if batches are enabled; the actions for other services are forwarded to their queues.
+     * Messages which can never be processed are dead letters, messages which failed are handed to the retry queue.
+     */
+    private void handleMessages(final List<Message> messages, final String processName, final int processNumber) {
         Thread.currentThread().setName(processName + "-" + processNumber + "-running");
 
-        String payload = new String(mc.getPayload(), StandardCharsets.UTF_8);
-        JSONObject json = new JSONObject(new JSONTokener(payload));
-        final SusiThought process = new SusiThought(json);
-        final JSONArray data = process.getData();
-        final List<SusiAction> actions = process.getActions();
+        // parse the messages and collect the actions for this service
+        List<Task> tasks = new ArrayList<>();
+        List<Message> owners = new ArrayList<>();
+        for (Message message: messages) {
+            if (!message.hasPayload()) continue;
+            if (this.dedup != null) {
+                message.digest = DedupFilter.digest(message.mc.getPayload());
+                if (this.dedup.contains(message.digest)) {
+                    // the same message was processed recently; it is only acknowledged
+                    Metrics.count(this.service.name(), message.queue.name(), "duplicate");
+                    continue;
+                }
+            }
+            try {
+                // the data section of the message is parsed only if an action is processed here
+                message.envelope = ThoughtEnvelope.parse(message.mc.getPayload());
+                dispatch(message);
+            } catch (JSONException e) {
+                // happens if the payload has a wrong form; such a message can never be processed
+                deadLetter(message, e);
+                message.envelope = null;
+                continue;
+            }
+            if (message.result != ActionResult.SUCCESS) continue;
+            for (SusiAction action: message.actions) {
+                tasks.add(new Task(action, message.envelope));
+                owners.add(message);
+            }
+        }
+
+        // process the actions using the previously acquired execution thread
+        List<ActionResult> results = null;
+        if (this.batcher != null && tasks.size() > 1) try {
+            long start = System.currentTimeMillis();
+            results = processActions(tasks, processName, processNumber);
+            Metrics.time(this.service.name(), processName, "batch", Metrics.Phase.process, System.currentTimeMillis() - start);
+            if (results == null || results.size() != tasks.size()) throw new IllegalStateException("processActions returned " + (results == null ? "no" : results.size()) + " results for " + tasks.size() + " actions");
+        } catch (Throwable e) {
+            // the failure cannot be assigned to a message of the batch, so all actions are processed one by one;
+            // processActions documents that its writes must be repeatable for this case
+            Data.logger.info("Worker: batch of " + tasks.size() + " actions failed, processing them one by one: " + e.getMessage(), e);
+            results = null;
+        }
+        // the actions without a result of the batch are processed one by one
+        results = results == null ? new ArrayList<>(Collections.nCopies(tasks.size(), (ActionResult) null)) : new ArrayList<>(results);
+        for (int i = 0; i < tasks.size(); i++) {
+            if (results.get(i) != null) continue;
+            Task task = tasks.get(i);
+            Message message = owners.get(i);
+            if (message.envelope == null) {
+                results.set(i, ActionResult.FAIL_IRREVERSIBLE); // another action of the message was a dead letter
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                results.set(i, processAction(task.getAction(), task.getMessage(), processName, processNumber));
+            } catch (JSONException e) {
+                // the data section of this message has a wrong form; it can never be processed
+                deadLetter(message, e);
+                message.envelope = null;
+                results.set(i, ActionResult.FAIL_IRREVERSIBLE);
+            } catch (Throwable e) {
+                // the message is sent again later
+                Data.logger.info("Worker: " + e.getMessage(), e);
+                String m = e.getMessage();
+                if (m == null && e.getCause() != null) m = e.getCause().getMessage();
+                message.failure = m == null ? e.getClass().getName() : m;
+                results.set(i, ActionResult.FAIL_RETRY);
+            }
+            Metrics.time(this.service.name(), processName, task.getAction().getStringAttr("type"), Metrics.Phase.process, System.currentTimeMillis() - start);
+        }
+
+        // send the next embedded action(s) of the successful actions to their queues
+        for (int i = 0; i < tasks.size(); i++) {
+            ActionResult processed = results.get(i);
+            Message message = owners.get(i);
+            if (message.envelope == null) continue; // a dead letter
+            if (processed != ActionResult.SUCCESS) Metrics.count(this.service.name(), processName, processed.name().toLowerCase());
+            if (processed == ActionResult.SUCCESS) forward(message, tasks.get(i));
+            message.merge(processed);
+        }
+
+        // the messages are acknowledged only when the broker has the actions which were sent for them
+        confirmForwards(messages);
 
-        // loop though all actions
-        boolean fail_irreversible = false;
-        boolean fail_retry = false;
+        for (Message message: messages) {
+            if (message.envelope == null) continue;
+            if (message.result == ActionResult.FAIL_RETRY) retry(message.queue, message.mc, message.failure == null ? "processing failed" : message.failure);
+            if (message.result == ActionResult.SUCCESS && this.dedup != null) this.dedup.add(message.digest);
+            this.handled.incrementAndGet();
+            this.rate.increment();
+        }
+    }
+
+    /**
+     * find the actions of a message which are processed here and forward the other actions to their queues
+     * @param message the message; the actions for this service are collected in message.actions.
+     *   An action which cannot be forwarded now is handed to the retry queue on its own, so the actions which
+     *   were forwarded already are not sent again
+     */
+    private void dispatch(final Message message) {
+        final List<SusiAction> actions = message.envelope.getActions();
         actionloop: for (int ac = 0; ac < actions.size(); ac++) {
             SusiAction action = actions.get(ac);
             String type = action.getStringAttr("type");
@@ -274,66 +740,166 @@ public abstract class AbstractBrokerListener implements BrokerListener {
             // check if this is the correct queue
             if (!type.equals(this.service.name())) {
                 Data.logger.info("wrong message in queue: " + type + ", continue");
+                // put that into the correct queue, without parsing the data; a message with a single action is forwarded as it is
+                byte[] payload = actions.size() == 1 ? message.envelope.getPayload(this.binaryEnvelope) : message.envelope.toBytes(action, this.binaryEnvelope);
                 try {
-                    loadNextAction(action, process.getData()); // put that into the correct queue
+                    message.forwards.add(loadNextAction(action, payload));
+                } catch (IllegalArgumentException e) {
+                    // the type is not the name of a service; this action can never be delivered
+                    deadLetter(message, action, payload, e);
+                } catch (IOException e) {
+                    // i.e. the target queue is full
+                    retry(YaCyServices.valueOf(type), new GridQueue(queue), payload, e.getMessage());
                 } catch (Throwable e) {
-                    if (e.getMessage().equals(GridBroker.TARGET_LIMIT_MESSAGE)) return ActionResult.FAIL_RETRY;
                     Data.logger.warn("", e);
                 }
                 continue actionloop;
             }
 
-            // process the action using the previously acquired execution thread
-            ActionResult processed = processAction(action, data, processName, processNumber);
-            if (processed == ActionResult.SUCCESS) {
-                // send next embedded action(s) to queue
-                JSONObject ao = action.toJSONClone();
-                if (ao.has("actions")) {
-                    JSONArray embeddedActions = ao.getJSONArray("actions");
-                    for (int j = 0; j < embeddedActions.length(); j++) {
-                        try {
-                            loadNextAction(new SusiAction(embeddedActions.getJSONObject(j)), data);
-                        } catch (UnsupportedOperationException | JSONException e) {
-                            Data.logger.warn("", e);
-                        } catch (IOException e) {
-                            if (e.getMessage().equals(GridBroker.TARGET_LIMIT_MESSAGE)) return ActionResult.FAIL_RETRY;
-                            Data.logger.warn("", e);
-                            // do a re-try
-                            try {Thread.sleep(10000);} catch (InterruptedException e1) {}
-                            try {
-                                loadNextAction(new SusiAction(embeddedActions.getJSONObject(j)), data);
-                            } catch (UnsupportedOperationException | JSONException | IOException ee) {
-                                Data.logger.warn("", e);
-                            }
-                        }
-                    }
+            message.actions.add(action);
+        }
+    }
+
+    /**
+     * send the embedded actions of a successful action to their queues. An action which cannot be sent now
+     * is handed to the retry queue on its own; the action of the message is not processed again for it.
+     * @param message the message which contained the action
+     * @param task the action and its message
+     */
+    private void forward(final Message message, final Task task) {
+        JSONArray embeddedActions = task.getAction().getArrayAttr("actions"); // no clone of the action needed
+        if (embeddedActions.length() == 0) return;
+        ThoughtEnvelope next = task.getMessage().snapshot(); // serialize the data once for all embedded actions
+        for (int j = 0; j < embeddedActions.length(); j++) {
+            SusiAction nextAction;
+            try {
+                nextAction = new SusiAction(embeddedActions.getJSONObject(j));
+            } catch (JSONException e) {
+                Data.logger.warn("", e);
+                continue;
+            }
+            try {
+                message.forwards.add(loadNextAction(nextAction, next));
+                this.forwarded.incrementAndGet();
+            } catch (UnsupportedOperationException | JSONException e) {
+                Data.logger.warn("", e);
+            } catch (IllegalArgumentException e) {
+                // the type is not the name of a service; this action can never be delivered
+                deadLetter(message, nextAction, next.toBytes(nextAction, this.binaryEnvelope), e);
+            } catch (IOException e) {
+                if (!GridBroker.TARGET_LIMIT_MESSAGE.equals(e.getMessage())) Data.logger.warn("", e);
+                // the next action is sent again later by the retry queue; its type was resolved before the send failed
+                retry(YaCyServices.valueOf(nextAction.getStringAttr("type")), new GridQueue(nextAction.getStringAttr("queue")),
+                        next.toBytes(nextAction, this.binaryEnvelope), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * wait for the broker to confirm the actions which were sent for the messages. An action which was lost,
+     * i.e. because its queue is full, is sent again by the retry queue; the confirmed actions are not sent again.
+     * @param messages the messages with the actions which were sent for them
+     */
+    private void confirmForwards(final List<Message> messages) {
+        long deadline = System.currentTimeMillis() + CONFIRM_TIMEOUT;
+        for (Message message: messages) {
+            for (Forward forward: message.forwards) {
+                String failure;
+                try {
+                    forward.confirmation.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    continue;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    failure = cause.getMessage() == null ? cause.getClass().getName() : cause.getMessage();
+                } catch (TimeoutException e) {
+                    failure = "message sending timeout";
+                } catch (InterruptedException e) {
+                    failure = "message sending interrupted";
                 }
+                Data.logger.info("Worker: action for queue " + forward.queue + " of service " + forward.service.name() + " was not confirmed: " + failure);
+                retry(forward.service, forward.queue, forward.payload, failure);
             }
-            if (processed == ActionResult.FAIL_RETRY) fail_retry = true;
-            if (processed == ActionResult.FAIL_IRREVERSIBLE) fail_irreversible = true;
+            message.forwards.clear();
         }
-        if (fail_irreversible) return ActionResult.FAIL_IRREVERSIBLE;
-        if (fail_retry) return ActionResult.FAIL_RETRY;
-        return ActionResult.SUCCESS;
     }
 
-    private void loadNextAction(SusiAction action, JSONArray data) throws UnsupportedOperationException, IOException {
+    private void deadLetter(final Message message, final JSONException e) {
+        Data.logger.info("Worker: message syntax error in queue " + message.queue + ": " + e.getMessage(), e);
+        Metrics.count(this.service.name(), message.queue.name(), "deadletter");
+        this.retryQueue.deadLetter(this.service, message.queue, message.mc.getPayload(), 0, "syntax error: " + e.getMessage());
+    }
+
+    /**
+     * move an action for an unknown service to the dead-letter queue of the queue of its message
+     */
+    private void deadLetter(final Message message, final SusiAction action, final byte[] payload, final IllegalArgumentException e) {
+        Data.logger.info("Worker: action for unknown service '" + action.getStringAttr("type") + "' in queue " + message.queue);
+        Metrics.count(this.service.name(), message.queue.name(), "deadletter");
+        this.retryQueue.deadLetter(this.service, message.queue, payload, 0, "unknown service: " + action.getStringAttr("type"));
+    }
+
+    private Forward loadNextAction(SusiAction action, ThoughtEnvelope process) throws UnsupportedOperationException, IOException {
+        // create a new Thought with the data of the current one
+        return loadNextAction(action, process.toBytes(action, this.binaryEnvelope));
+    }
+
+    private Forward loadNextAction(SusiAction action, byte[] b) throws UnsupportedOperationException, IOException {
         String type = action.getStringAttr("type");
         if (type == null || type.length() == 0) throw new UnsupportedOperationException("missing type in action");
         String queue = action.getStringAttr("queue");
         if (queue == null || queue.length() == 0) throw new UnsupportedOperationException("missing queue in action");
 
-        // create a new Thought and push it to the next queue
-        JSONObject nextProcess = new JSONObject()
-                .put("data", data)
-                .put("actions", new JSONArray().put(action.toJSONClone()));
-        byte[] b = nextProcess.toString(2).getBytes(StandardCharsets.UTF_8);
-        Data.gridBroker.send(YaCyServices.valueOf(type), new GridQueue(queue), b);
+        // push the Thought to the next queue; the broker confirms it later
+        YaCyServices service = YaCyServices.valueOf(type);
+        GridQueue gq = new GridQueue(queue);
+        return new Forward(service, gq, b, Data.gridBroker.sendAsync(service, gq, b));
+    }
+
+    /**
+     * hand a message which could not be processed to the retry queue
+     * @param queue the queue of the message
+     * @param mc the message
+     * @param reason the reason of the failure
+     */
+    private void retry(GridQueue queue, MessageContainer<byte[]> mc, String reason) {
+        retry(this.service, queue, mc.getPayload(), reason);
+    }
+
+    /**
+     * hand a message to the retry queue; the number of attempts in the message is counted up
+     * @param service the service of the queue
+     * @param queue the queue of the message
+     * @param payload the message
+     * @param reason the reason of the failure
+     */
+    private void retry(Services service, GridQueue queue, byte[] payload, String reason) {
+        ThoughtEnvelope envelope;
+        try {
+            envelope = ThoughtEnvelope.parse(payload);
+        } catch (JSONException e) {
+            this.retryQueue.deadLetter(service, queue, payload, 0, "syntax error: " + e.getMessage());
+            return;
+        }
+        int attempt = envelope.getAttempt() + 1;
+        Metrics.count(service.name(), queue.name(), "retry");
+        this.retryQueue.schedule(service, queue, envelope.toBytes(attempt, this.binaryEnvelope), attempt, reason);
     }
 
     @Override
     public void terminate() {
         this.shallRun = false;
+        if (!this.running) {
+            this.retryQueue.close();
+            return;
+        }
+        // wait until the fetchers stopped and the messages in flight are drained
+        try {
+            if (!this.terminated.await(this.drainTimeout + 30000, TimeUnit.MILLISECONDS)) {
+                Data.logger.warn("Broker Listener for service " + this.service.name() + " did not terminate");
+            }
+        } catch (InterruptedException e) {
+            Data.logger.info("Broker Listener for service " + this.service.name() + ", termination interrupted", e);
+        }
     }
 
 }
\ No newline at end of file
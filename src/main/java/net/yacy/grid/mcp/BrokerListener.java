@@ -19,6 +19,9 @@
 
 package net.yacy.grid.mcp;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.json.JSONArray;
 
 import ai.susi.mind.SusiAction;
@@ -45,6 +48,38 @@ public interface BrokerListener extends Runnable {
      */
     public ActionResult processAction(SusiAction action, JSONArray data, String processName, int processNumber);
 
+    /**
+     * Process an action from the broker with a message where the data section is not yet parsed.
+     * The default implementation parses the data section; listeners which do not read the data
+     * or read it only in some cases should override this method.
+     * @param action an action
+     * @param message the message which contains the action, the data is parsed with message.getData()
+     * @param processName a name for the process
+     * @param processNumber a number of the process within the given name space
+     * @return ActionResult
+     */
+    public default ActionResult processAction(SusiAction action, ThoughtEnvelope message, String processName, int processNumber) {
+        return processAction(action, message.getData(), processName, processNumber);
+    }
+
+    /**
+     * Process a batch of actions from the broker. This is called instead of processAction if batches are
+     * enabled with grid.listener.batch.size. The default implementation processes each action on its own;
+     * listeners which can write their results in bulk should override this method.
+     * A task which was not processed can be left with a null result; it is then processed with processAction.
+     * Failures should be reported for each task: if this method throws, all actions of the batch are processed
+     * again one by one, including those which were already done, so the writes must be repeatable.
+     * @param tasks the actions with the messages which contain them
+     * @param processName a name for the process
+     * @param processNumber a number of the process within the given name space
+     * @return the results, one for each task in the same order; null for a task which was not processed
+     */
+    public default List<ActionResult> processActions(List<Task> tasks, String processName, int processNumber) {
+        List<ActionResult> results = new ArrayList<>(tasks.size());
+        for (Task task: tasks) results.add(processAction(task.getAction(), task.getMessage(), processName, processNumber));
+        return results;
+    }
+
     /**
      * calculate the number of messages that the broker listener processes
      * @return message per minute
@@ -55,4 +90,25 @@ public interface BrokerListener extends Runnable {
      * termination of the thread which runs the listener
      */
     public void terminate();
+
+    /**
+     * An action of a batch with the message which contains it
+     */
+    public static class Task {
+        private final SusiAction action;
+        private final ThoughtEnvelope message;
+
+        public Task(SusiAction action, ThoughtEnvelope message) {
+            this.action = action;
+            this.message = message;
+        }
+
+        public SusiAction getAction() {
+            return this.action;
+        }
+
+        public ThoughtEnvelope getMessage() {
+            return this.message;
+        }
+    }
 }
@@ -0,0 +1,147 @@
+/**
+ *  ConcurrencyLimit
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import org.json.JSONObject;
+
+/**
+ * An adaptive limit for the number of active workers of a listener, controlled with
+ * additive increase and multiplicative decrease (AIMD).
+ * Workers hold a slot of the limit while they receive and process a message; workers above the
+ * limit wait. In each interval, the limit
+ * - decreases by a quarter if the processing latency is much higher than the lowest latency seen,
+ *   or if the throughput dropped after the latest increase (the resources behind the workers are saturated),
+ * - increases by one if the latency is fine and no receive found all source queues empty (there is a backlog),
+ * - stays the same otherwise, i.e. if the queues run empty and more workers would only wait.
+ * Empty probes of single queues are no misses as long as other queues have messages.
+ */
+public class ConcurrencyLimit {
+
+    private final static double LATENCY_TOLERANCE = 2.0d; // the latency may rise to this multiple of the baseline before the limit is decreased
+    private final static double BASELINE_DRIFT = 1.05d;   // the baseline rises by this factor in each interval to follow a changed workload
+
+    private final int min, max;
+    private int limit, active;
+    private long latencySum, latencyCount, misses;
+    private double baseline, lastThroughput;
+    private boolean increased;
+
+    /**
+     * create a concurrency limit
+     * @param initial the initial limit
+     * @param min the lowest limit
+     * @param max the highest limit, this should be the number of workers
+     */
+    public ConcurrencyLimit(int initial, int min, int max) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.limit = Math.max(this.min, Math.min(this.max, initial));
+        this.active = 0;
+        this.baseline = 0.0d;
+        this.lastThroughput = 0.0d;
+        this.increased = false;
+    }
+
+    /**
+     * take a slot, wait if the limit is reached
+     * @param timeout the maximum waiting time in milliseconds
+     * @return true if a slot was taken, false if the timeout was reached
+     */
+    public synchronized boolean acquire(long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        while (this.active >= this.limit) {
+            long wait = end - System.currentTimeMillis();
+            if (wait <= 0) return false;
+            try {this.wait(wait);} catch (InterruptedException e) {return false;}
+        }
+        this.active++;
+        return true;
+    }
+
+    /**
+     * give back a slot
+     */
+    public synchronized void release() {
+        this.active--;
+        this.notify();
+    }
+
+    /**
+     * record that a receive found no message although it waited on the last queue which was not idle,
+     * so all source queues were empty
+     */
+    public synchronized void missed() {
+        this.misses++;
+    }
+
+    /**
+     * record the processing time of a message
+     * @param latency the time in milliseconds
+     */
+    public synchronized void processed(long latency) {
+        this.latencySum += latency;
+        this.latencyCount++;
+    }
+
+    /**
+     * compute the limit for the next interval from the observations in the past interval
+     * @param interval the length of the past interval in milliseconds
+     */
+    public synchronized void adjust(long interval) {
+        if (this.latencyCount == 0) {
+            // nothing was processed, there is nothing to learn from
+            this.misses = 0;
+            this.increased = false;
+            return;
+        }
+        double latency = (double) this.latencySum / this.latencyCount;
+        double throughput = this.latencyCount * 1000.0d / interval;
+        this.baseline = this.baseline == 0.0d ? latency : Math.min(latency, this.baseline * BASELINE_DRIFT);
+
+        int previous = this.limit;
+        if (latency > this.baseline * LATENCY_TOLERANCE || (this.increased && this.misses == 0 && throughput < this.lastThroughput)) {
+            this.limit = Math.max(this.min, this.limit * 3 / 4);
+        } else if (this.misses == 0) {
+            this.limit = Math.min(this.max, this.limit + 1);
+        }
+        this.increased = this.limit > previous;
+        if (this.limit > previous) this.notifyAll();
+
+        this.lastThroughput = throughput;
+        this.latencySum = 0;
+        this.latencyCount = 0;
+        this.misses = 0;
+    }
+
+    public synchronized int getLimit() {
+        return this.limit;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        json.put("limit", this.limit);
+        json.put("min", this.min);
+        json.put("max", this.max);
+        json.put("active", this.active);
+        json.put("baselineLatency", this.baseline);
+        json.put("throughput", this.lastThroughput);
+        return json;
+    }
+}
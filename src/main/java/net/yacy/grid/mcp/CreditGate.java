@@ -0,0 +1,109 @@
+/**
+ *  CreditGate
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import org.json.JSONObject;
+
+/**
+ * Credits for the consumption of messages from the source queues of a listener.
+ * A listener thread must hold a credit to receive a message. The credits are granted for one interval
+ * by the caretaker, computed from the consumption rate and the free capacity of the downstream services.
+ * Credits which are not used within the interval expire, so a stalled downstream service stops
+ * the upstream listener within one interval and no burst of saved credits hits it after recovery.
+ */
+public class CreditGate {
+
+    private long credits;
+    private boolean unlimited;
+    private long granted, consumed, waiting;
+
+    /**
+     * create a credit gate; it starts unlimited until the first grant
+     */
+    public CreditGate() {
+        this.credits = 0;
+        this.unlimited = true;
+        this.granted = 0;
+        this.consumed = 0;
+        this.waiting = 0;
+    }
+
+    /**
+     * replace the credits of the previous interval
+     * @param credits the number of messages which may be consumed in the next interval
+     */
+    public synchronized void grant(long credits) {
+        this.credits = Math.max(0, credits);
+        this.unlimited = false;
+        this.granted += this.credits;
+        this.notifyAll();
+    }
+
+    /**
+     * remove any limitation, i.e. if the listener has no downstream services
+     */
+    public synchronized void unlimit() {
+        this.unlimited = true;
+        this.notifyAll();
+    }
+
+    /**
+     * take a credit, wait for it if none is available
+     * @param timeout the maximum waiting time in milliseconds
+     * @return true if a credit was taken, false if the timeout was reached
+     */
+    public synchronized boolean acquire(long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        this.waiting++;
+        try {
+            while (!this.unlimited && this.credits <= 0) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) return false;
+                try {this.wait(wait);} catch (InterruptedException e) {return false;}
+            }
+            if (!this.unlimited) this.credits--;
+            this.consumed++;
+            return true;
+        } finally {
+            this.waiting--;
+        }
+    }
+
+    /**
+     * give back a credit which was not used, i.e. because the queue was empty
+     */
+    public synchronized void release() {
+        if (!this.unlimited) {
+            this.credits++;
+            this.notify();
+        }
+        this.consumed--;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        json.put("unlimited", this.unlimited);
+        json.put("credits", this.credits);
+        json.put("granted", this.granted);
+        json.put("consumed", this.consumed);
+        json.put("waiting", this.waiting);
+        return json;
+    }
+}
@@ -32,12 +32,15 @@ import org.apache.log4j.PatternLayout;
 import net.yacy.grid.YaCyServices;
 import net.yacy.grid.io.assets.GridStorage;
 import net.yacy.grid.io.control.GridControl;
+import net.yacy.grid.io.db.CommitPolicy;
 import net.yacy.grid.io.db.JSONDatabase;
 import net.yacy.grid.io.db.PeerDatabase;
 import net.yacy.grid.io.index.BoostsFactory;
 import net.yacy.grid.io.index.ElasticIndexFactory;
 import net.yacy.grid.io.index.GridIndex;
+import net.yacy.grid.io.messages.AffinityTable;
 import net.yacy.grid.io.messages.GridBroker;
+import net.yacy.grid.io.messages.MessageCodec;
 import net.yacy.grid.tools.OS;
 
 public class Data {
@@ -81,7 +84,11 @@ public class Data {
         // create databases
         File dbPath = new File(gridServicePath, "db");
         if (!dbPath.exists()) dbPath.mkdirs();
-        peerDB = new PeerDatabase(dbPath);
+        CommitPolicy commitPolicy = CommitPolicy.parse(
+                config.getOrDefault("grid.db.commit", CommitPolicy.Mode.sync.name()),
+                config.containsKey("grid.db.commit.window") ? Long.parseLong(config.get("grid.db.commit.window")) : 10,
+                config.containsKey("grid.db.commit.count") ? Integer.parseInt(config.get("grid.db.commit.count")) : 100);
+        peerDB = new PeerDatabase(dbPath, commitPolicy);
         peerJsonDB = new JSONDatabase(peerDB);
 
         // create broker
@@ -91,7 +98,18 @@ public class Data {
         boolean autoAck = config.containsKey("grid.broker.autoAck") && config.get("grid.broker.autoAck").equals("true");
         int queueLimit = config.containsKey("grid.broker.queue.limit") ? Integer.parseInt(config.get("grid.broker.queue.limit")) : 0;
         int queueThrottling = config.containsKey("grid.broker.queue.throttling") ? Integer.parseInt(config.get("grid.broker.queue.throttling")) : 0;        
-        gridBroker = new GridBroker(localStorage ? messagesPath : null, lazy, autoAck, queueLimit, queueThrottling);
+        int confirmWindow = config.containsKey("grid.broker.confirm.window") ? Integer.parseInt(config.get("grid.broker.confirm.window")) : 1;
+        int prefetch = config.containsKey("grid.broker.prefetch") ? Integer.parseInt(config.get("grid.broker.prefetch")) : 0;
+        int channels = config.containsKey("grid.broker.channels") ? Integer.parseInt(config.get("grid.broker.channels")) : 1;
+        boolean segmentLog = "log".equals(config.get("grid.broker.local.engine"));
+        MessageCodec codec = new MessageCodec(
+                MessageCodec.Codec.valueOf(config.getOrDefault("grid.broker.compression", MessageCodec.Codec.none.name())),
+                config.containsKey("grid.broker.compression.min") ? Integer.parseInt(config.get("grid.broker.compression.min")) : 256);
+        int affinitySize = config.containsKey("grid.broker.affinity.size") ? Integer.parseInt(config.get("grid.broker.affinity.size")) : 1000000;
+        AffinityTable affinity = new AffinityTable(localStorage ? new File(messagesPath, "affinity.table") : null, affinitySize); // without local storage the table is kept in memory only
+        long monitorInterval = config.containsKey("grid.broker.monitor.interval") ? Long.parseLong(config.get("grid.broker.monitor.interval")) : 10000;
+        int inProcessCapacity = "true".equals(config.get("grid.broker.inprocess")) ? (config.containsKey("grid.broker.inprocess.capacity") ? Integer.parseInt(config.get("grid.broker.inprocess.capacity")) : 1024) : 0;
+        gridBroker = new GridBroker(localStorage ? messagesPath : null, lazy, autoAck, queueLimit, queueThrottling, confirmWindow, prefetch, channels, segmentLog, commitPolicy, codec, affinity, monitorInterval, inProcessCapacity);
 
         // create storage
         File assetsPath = new File(gridServicePath, "assets");
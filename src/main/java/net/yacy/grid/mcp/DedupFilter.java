@@ -0,0 +1,174 @@
+/**
+ *  DedupFilter
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+import net.yacy.grid.tools.Digest;
+
+/**
+ * A filter for messages which were processed recently. It is a Bloom filter over the md5 digests of the messages
+ * with two generations: new entries go into the current generation, lookups check both. The current generation
+ * becomes the previous one after half of the time to live or when it holds as many entries as it can take
+ * at the wanted false-positive rate, so entries are forgotten after at most the time to live and the
+ * false-positive rate does not grow with the number of messages.
+ * Setting and testing bits is lock-free; only the rotation of the generations is synchronized.
+ */
+public class DedupFilter {
+
+    private final int bits;      // number of bits in each generation
+    private final int hashes;    // number of bit positions for each entry
+    private final long capacity; // number of entries in a generation until it is rotated
+    private final long ttl;
+    private volatile Generation current, previous;
+    private final AtomicLong rotations;
+
+    /**
+     * create a filter
+     * @param memory the memory budget in bytes for both generations
+     * @param fpp the wanted false-positive probability, i.e. 0.001
+     * @param ttl the time in milliseconds after which an entry is forgotten
+     */
+    public DedupFilter(long memory, double fpp, long ttl) {
+        long b = Math.max(1024, Math.min((long) Integer.MAX_VALUE - 63, memory * 8 / 2));
+        this.bits = (int) b;
+        // the optimal number of entries and hash functions for a Bloom filter with m bits and false-positive rate p:
+        // n = -m * ln(2)^2 / ln(p), k = m / n * ln(2)
+        double ln2 = Math.log(2.0d);
+        this.capacity = Math.max(1, (long) (-this.bits * ln2 * ln2 / Math.log(fpp)));
+        this.hashes = Math.max(1, (int) Math.round((double) this.bits / this.capacity * ln2));
+        this.ttl = ttl;
+        this.current = new Generation(this.bits);
+        this.previous = new Generation(this.bits);
+        this.rotations = new AtomicLong(0);
+    }
+
+    /**
+     * compute the digest of a message; this is used as key for the filter
+     * @param payload the message
+     * @return the md5 digest
+     */
+    public static byte[] digest(byte[] payload) {
+        MessageDigest digest = Digest.digestPool.poll();
+        if (digest == null) try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnsupportedOperationException(e);
+        }
+        digest.reset();
+        digest.update(payload);
+        byte[] result = digest.digest();
+        Digest.digestPool.add(digest);
+        return result;
+    }
+
+    /**
+     * test if a message was added recently
+     * @param digest the digest of the message
+     * @return true if the message was probably added within the time to live; false if it was certainly not added
+     */
+    public boolean contains(byte[] digest) {
+        rotate();
+        long h1 = readLong(digest, 0), h2 = readLong(digest, 8);
+        return this.current.contains(h1, h2) || this.previous.contains(h1, h2);
+    }
+
+    /**
+     * add a message
+     * @param digest the digest of the message
+     */
+    public void add(byte[] digest) {
+        rotate();
+        this.current.add(readLong(digest, 0), readLong(digest, 8));
+    }
+
+    private void rotate() {
+        Generation c = this.current;
+        if (c.count.get() < this.capacity && System.currentTimeMillis() - c.created < this.ttl / 2) return;
+        synchronized (this) {
+            if (this.current != c) return; // another thread did this
+            this.previous = c;
+            this.current = new Generation(this.bits);
+            this.rotations.incrementAndGet();
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        json.put("bits", this.bits);
+        json.put("hashes", this.hashes);
+        json.put("capacity", this.capacity);
+        json.put("ttl", this.ttl);
+        json.put("entries", this.current.count.get());
+        json.put("rotations", this.rotations.get());
+        return json;
+    }
+
+    private static long readLong(byte[] b, int pos) {
+        long l = 0;
+        for (int i = 0; i < 8; i++) l = (l << 8) | (b[pos + i] & 0xff);
+        return l;
+    }
+
+    private class Generation {
+        private final AtomicLongArray words;
+        private final AtomicLong count;
+        private final long created;
+
+        private Generation(int bits) {
+            this.words = new AtomicLongArray((bits + 63) >>> 6);
+            this.count = new AtomicLong(0);
+            this.created = System.currentTimeMillis();
+        }
+
+        // the bit positions are computed with double hashing from two halves of the digest: h1 + i * h2
+
+        private boolean contains(long h1, long h2) {
+            for (int i = 0; i < DedupFilter.this.hashes; i++) {
+                int bit = (int) Math.floorMod(h1 + i * h2, (long) DedupFilter.this.bits);
+                if ((this.words.get(bit >>> 6) & (1L << (bit & 63))) == 0) return false;
+            }
+            return true;
+        }
+
+        private void add(long h1, long h2) {
+            boolean changed = false;
+            for (int i = 0; i < DedupFilter.this.hashes; i++) {
+                int bit = (int) Math.floorMod(h1 + i * h2, (long) DedupFilter.this.bits);
+                int word = bit >>> 6;
+                long mask = 1L << (bit & 63);
+                while (true) {
+                    long w = this.words.get(word);
+                    if ((w & mask) != 0) break;
+                    if (this.words.compareAndSet(word, w, w | mask)) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            if (changed) this.count.incrementAndGet();
+        }
+    }
+}
@@ -24,7 +24,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.Servlet;
 
@@ -37,12 +40,15 @@ import net.yacy.grid.YaCyServices;
 import net.yacy.grid.io.assets.Asset;
 import net.yacy.grid.io.index.CrawlerDocument;
 import net.yacy.grid.io.index.CrawlerMapping;
+import net.yacy.grid.io.index.ElasticsearchClient.BulkEntry;
+import net.yacy.grid.io.index.ElasticsearchClient.BulkWriteResult;
 import net.yacy.grid.io.index.WebMapping;
 import net.yacy.grid.io.index.CrawlerDocument.Status;
 import net.yacy.grid.io.index.GridIndex;
 import net.yacy.grid.mcp.api.admin.InquirySubmitService;
 import net.yacy.grid.mcp.api.assets.LoadService;
 import net.yacy.grid.mcp.api.assets.StoreService;
+import net.yacy.grid.mcp.api.control.CapacityService;
 import net.yacy.grid.mcp.api.control.LoaderThrottlingService;
 import net.yacy.grid.mcp.api.index.AddService;
 import net.yacy.grid.mcp.api.index.CheckService;
@@ -53,16 +59,20 @@ import net.yacy.grid.mcp.api.index.GSASearchService;
 import net.yacy.grid.mcp.api.index.QueryService;
 import net.yacy.grid.mcp.api.index.YaCySearchService;
 import net.yacy.grid.mcp.api.info.LogService;
+import net.yacy.grid.mcp.api.info.MetricsService;
+import net.yacy.grid.mcp.api.info.PrometheusService;
 import net.yacy.grid.mcp.api.info.ServicesService;
 import net.yacy.grid.mcp.api.info.StatusService;
 import net.yacy.grid.mcp.api.info.ThreaddumpService;
 import net.yacy.grid.mcp.api.messages.AcknowledgeService;
 import net.yacy.grid.mcp.api.messages.AvailableService;
 import net.yacy.grid.mcp.api.messages.ClearService;
+import net.yacy.grid.mcp.api.messages.DeadLetterService;
 import net.yacy.grid.mcp.api.messages.PeekService;
 import net.yacy.grid.mcp.api.messages.ReceiveService;
 import net.yacy.grid.mcp.api.messages.RecoverService;
 import net.yacy.grid.mcp.api.messages.SendService;
+import net.yacy.grid.mcp.api.messages.StreamService;
 import net.yacy.grid.tools.DateParser;
 import net.yacy.grid.tools.GitTool;
 import net.yacy.grid.tools.JSONList;
@@ -87,18 +97,23 @@ public class MCP {
             StatusService.class,
             ThreaddumpService.class,
             LogService.class,
+            MetricsService.class,
+            PrometheusService.class,
 
             // control services
+            CapacityService.class,
             LoaderThrottlingService.class,
 
             // message services
             AcknowledgeService.class,
             AvailableService.class,
             ClearService.class,
+            DeadLetterService.class,
             PeekService.class,
             ReceiveService.class,
             RecoverService.class,
             SendService.class,
+            StreamService.class,
 
             // asset services
             //RetrieveService.class,
@@ -134,18 +149,8 @@ public class MCP {
 
            try {
                // get the message with parsed documents
-               JSONList jsonlist = null;
-               if (action.hasAsset(sourceasset_path)) {
-                   jsonlist = action.getJSONListAsset(sourceasset_path);
-                  }
-               if (jsonlist == null || jsonlist.length() == 0) try {
-                   Asset<byte[]> asset = Data.gridStorage.load(sourceasset_path);
-                   byte[] source = asset.getPayload();
-                   jsonlist = new JSONList(new ByteArrayInputStream(source));
-               } catch (IOException e) {
-                   Data.logger.warn("MCP.processAction could not read asset from storage: " + sourceasset_path, e);
-                   return ActionResult.FAIL_IRREVERSIBLE;
-               }
+               JSONList jsonlist = loadDocuments(action, sourceasset_path);
+               if (jsonlist == null) return ActionResult.FAIL_IRREVERSIBLE;
 
                // for each document, write search index and crawler index
                indexloop: for (int line = 0; line < jsonlist.length(); line++) try {
@@ -189,6 +194,99 @@ public class MCP {
                return ActionResult.FAIL_IRREVERSIBLE;
            }
        }
+
+       @Override
+       public ActionResult processAction(SusiAction action, ThoughtEnvelope message, String processName, int processNumber) {
+           // the index messages point to an asset; the data section is not needed and therefore not parsed
+           return processAction(action, (JSONArray) null, processName, processNumber);
+       }
+
+       @Override
+       public List<ActionResult> processActions(List<Task> tasks, String processName, int processNumber) {
+           // the documents of all actions are written with one bulk request to each index.
+           // The document id is the url digest, so writing a document again gives the same index; this is
+           // needed because an action which failed here is processed again later.
+           String typeName = Data.config.getOrDefault("grid.elasticsearch.typeName", GridIndex.DEFAULT_TYPENAME);
+           List<ActionResult> results = new ArrayList<>(tasks.size());
+           List<BulkEntry> entries = new ArrayList<>();
+           List<List<String>> documents = new ArrayList<>(tasks.size()); // the document ids for each task index; several tasks may have the same document
+           for (int t = 0; t < tasks.size(); t++) {
+               List<String> urlids = new ArrayList<>();
+               documents.add(urlids);
+               SusiAction action = tasks.get(t).getAction();
+               String sourceasset_path = action.getStringAttr("sourceasset");
+               JSONList jsonlist = null;
+               if (sourceasset_path != null && sourceasset_path.length() > 0) try {
+                   jsonlist = loadDocuments(action, sourceasset_path);
+               } catch (Throwable e) {
+                   Data.logger.warn("MCP.processActions", e);
+               }
+               if (jsonlist == null) {
+                   results.add(ActionResult.FAIL_IRREVERSIBLE);
+                   continue;
+               }
+               results.add(ActionResult.SUCCESS);
+               indexloop: for (int line = 0; line < jsonlist.length(); line++) try {
+                   JSONObject json = jsonlist.get(line);
+                   if (json.has("index")) continue indexloop; // this is an elasticsearch index directive, we just skip that
+                   String urlid = MultiProtocolURL.getDigest(json.getString(WebMapping.url_s.getMapping().name()));
+                   entries.add(new BulkEntry(urlid, typeName, null, json.toMap()));
+                   urlids.add(urlid);
+               } catch (JSONException je) {
+                   Data.logger.warn("", je);
+               }
+           }
+           if (entries.isEmpty()) return results;
+
+           // write search index
+           try {
+               BulkWriteResult written = Data.gridIndex.getElasticClient().writeMapBulk(
+                       Data.config.getOrDefault("grid.elasticsearch.indexName.web", GridIndex.DEFAULT_INDEXNAME_WEB), entries);
+               Map<String, String> errors = written.getErrors();
+               errors.forEach((urlid, error) -> Data.logger.warn("MCP.processActions could not index " + urlid + ": " + error));
+               for (int t = 0; t < tasks.size(); t++) {
+                   for (String urlid: documents.get(t)) if (errors.containsKey(urlid)) results.set(t, ActionResult.FAIL_IRREVERSIBLE);
+               }
+               Data.logger.info("MCP.processActions indexed " + entries.size() + " documents from " + tasks.size() + " messages, " + written.getCreated().size() + " created");
+           } catch (Throwable e) {
+               // the index is not available; nothing of the batch was written for sure, so the actions are retried later
+               Data.logger.warn("MCP.processActions", e);
+               for (int t = 0; t < results.size(); t++) if (results.get(t) == ActionResult.SUCCESS) results.set(t, ActionResult.FAIL_RETRY);
+               return results;
+           }
+
+           // write crawler index
+           Set<String> indexed = new LinkedHashSet<>();
+           for (int t = 0; t < tasks.size(); t++) if (results.get(t) == ActionResult.SUCCESS) indexed.addAll(documents.get(t));
+           try {
+               Map<String, CrawlerDocument> crawlerDocuments = CrawlerDocument.loadBulk(Data.gridIndex, indexed);
+               String now = DateParser.iso8601MillisFormat.format(new Date());
+               crawlerDocuments.values().forEach(crawlerDocument -> {
+                   crawlerDocument.put(CrawlerMapping.status_s.getMapping().name(), Status.indexed.name());
+                   crawlerDocument.put(CrawlerMapping.status_date_dt.getMapping().name(), now);
+               });
+               CrawlerDocument.storeBulk(Data.gridIndex, crawlerDocuments);
+           } catch (IOException e) {
+               Data.logger.warn("could not write crawler index", e);
+           }
+           return results;
+       }
+
+       private JSONList loadDocuments(SusiAction action, String sourceasset_path) {
+           JSONList jsonlist = null;
+           if (action.hasAsset(sourceasset_path)) {
+               jsonlist = action.getJSONListAsset(sourceasset_path);
+           }
+           if (jsonlist == null || jsonlist.length() == 0) try {
+               Asset<byte[]> asset = Data.gridStorage.load(sourceasset_path);
+               byte[] source = asset.getPayload();
+               jsonlist = new JSONList(new ByteArrayInputStream(source));
+           } catch (IOException e) {
+               Data.logger.warn("MCP.processAction could not read asset from storage: " + sourceasset_path, e);
+               return null;
+           }
+           return jsonlist;
+       }
     }
 
     public static void main(String[] args) {
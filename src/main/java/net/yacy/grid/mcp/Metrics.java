@@ -0,0 +1,240 @@
+/**
+ *  Metrics
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Latency histograms and event counters of the broker listeners, for each service, queue and action type.
+ * All recording is lock-free: the buckets and counters are striped adders, so concurrent workers
+ * do not contend on a shared cache line. The metrics can be exported as json and in the Prometheus text format.
+ */
+public class Metrics {
+
+    public static enum Phase {
+        receive, // time to get a message from the broker
+        process, // time to process one action of a message
+        ack;     // time to acknowledge a message
+    }
+
+    // upper bounds of the latency buckets in milliseconds; the last bucket has no upper bound
+    private final static long[] BOUNDS = new long[]{1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    private final static Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final static Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * record a latency
+     * @param service the service name
+     * @param queue the queue name
+     * @param action the type of the action or the service name if the phase is not specific to an action
+     * @param phase the phase
+     * @param latency the time in milliseconds
+     */
+    public static void time(String service, String queue, String action, Phase phase, long latency) {
+        String key = service + '\t' + queue + '\t' + action + '\t' + phase.name();
+        Histogram h = histograms.get(key);
+        if (h == null) h = histograms.computeIfAbsent(key, k -> new Histogram(service, queue, action, phase));
+        h.record(latency);
+    }
+
+    /**
+     * count an event
+     * @param service the service name
+     * @param queue the queue name
+     * @param event the name of the event, i.e. "retry"
+     */
+    public static void count(String service, String queue, String event) {
+        String key = service + '\t' + queue + '\t' + event;
+        Counter c = counters.get(key);
+        if (c == null) c = counters.computeIfAbsent(key, k -> new Counter(service, queue, event));
+        c.count.increment();
+    }
+
+    public static JSONObject toJSON() {
+        JSONObject json = new JSONObject(true);
+        JSONArray h = new JSONArray();
+        for (Histogram histogram: new TreeMap<>(histograms).values()) h.put(histogram.toJSON());
+        json.put("latencies", h);
+        JSONArray c = new JSONArray();
+        for (Counter counter: new TreeMap<>(counters).values()) {
+            c.put(new JSONObject(true)
+                    .put("service", counter.service)
+                    .put("queue", counter.queue)
+                    .put("event", counter.event)
+                    .put("count", counter.count.sum()));
+        }
+        json.put("events", c);
+        return json;
+    }
+
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP yacygrid_listener_latency_milliseconds latency of the broker listeners\n");
+        sb.append("# TYPE yacygrid_listener_latency_milliseconds histogram\n");
+        for (Histogram histogram: new TreeMap<>(histograms).values()) histogram.toPrometheus(sb);
+        sb.append("# HELP yacygrid_listener_events_total events of the broker listeners\n");
+        sb.append("# TYPE yacygrid_listener_events_total counter\n");
+        for (Counter counter: new TreeMap<>(counters).values()) {
+            sb.append("yacygrid_listener_events_total{service=\"").append(counter.service)
+              .append("\",queue=\"").append(counter.queue)
+              .append("\",event=\"").append(counter.event)
+              .append("\"} ").append(counter.count.sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static class Counter {
+        private final String service, queue, event;
+        private final LongAdder count;
+        private Counter(String service, String queue, String event) {
+            this.service = service;
+            this.queue = queue;
+            this.event = event;
+            this.count = new LongAdder();
+        }
+    }
+
+    /**
+     * A histogram with fixed buckets. The buckets are not cumulative; the exports make them cumulative.
+     */
+    public static class Histogram {
+        private final String service, queue, action;
+        private final Phase phase;
+        private final LongAdder[] buckets;
+        private final LongAdder sum;
+
+        private Histogram(String service, String queue, String action, Phase phase) {
+            this.service = service;
+            this.queue = queue;
+            this.action = action;
+            this.phase = phase;
+            this.buckets = new LongAdder[BOUNDS.length + 1];
+            for (int i = 0; i < this.buckets.length; i++) this.buckets[i] = new LongAdder();
+            this.sum = new LongAdder();
+        }
+
+        public void record(long latency) {
+            int i = 0;
+            while (i < BOUNDS.length && latency > BOUNDS[i]) i++;
+            this.buckets[i].increment();
+            this.sum.add(latency);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[this.buckets.length];
+            for (int i = 0; i < counts.length; i++) counts[i] = this.buckets[i].sum();
+            return counts;
+        }
+
+        /**
+         * estimate a quantile as the upper bound of the bucket which contains it
+         */
+        private static long quantile(long[] counts, long total, double q) {
+            long rank = (long) Math.ceil(q * total);
+            long c = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                c += counts[i];
+                if (c >= rank) return BOUNDS[i];
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private JSONObject toJSON() {
+            long[] counts = snapshot();
+            long total = 0;
+            for (long c: counts) total += c;
+            long sum = this.sum.sum();
+            JSONObject json = new JSONObject(true);
+            json.put("service", this.service);
+            json.put("queue", this.queue);
+            json.put("action", this.action);
+            json.put("phase", this.phase.name());
+            json.put("count", total);
+            json.put("sum", sum);
+            json.put("mean", total == 0 ? 0 : sum / total);
+            json.put("p50", quantile(counts, total, 0.5d));
+            json.put("p95", quantile(counts, total, 0.95d));
+            json.put("p99", quantile(counts, total, 0.99d));
+            JSONObject b = new JSONObject(true);
+            long c = 0;
+            for (int i = 0; i < counts.length; i++) {
+                c += counts[i];
+                b.put(i < BOUNDS.length ? Long.toString(BOUNDS[i]) : "+Inf", c);
+            }
+            json.put("buckets", b);
+            return json;
+        }
+
+        private void toPrometheus(StringBuilder sb) {
+            long[] counts = snapshot();
+            String labels = "service=\"" + this.service + "\",queue=\"" + this.queue + "\",action=\"" + this.action + "\",phase=\"" + this.phase.name() + "\"";
+            long c = 0;
+            for (int i = 0; i < counts.length; i++) {
+                c += counts[i];
+                sb.append("yacygrid_listener_latency_milliseconds_bucket{").append(labels)
+                  .append(",le=\"").append(i < BOUNDS.length ? Long.toString(BOUNDS[i]) : "+Inf").append("\"} ").append(c).append('\n');
+            }
+            sb.append("yacygrid_listener_latency_milliseconds_sum{").append(labels).append("} ").append(this.sum.sum()).append('\n');
+            sb.append("yacygrid_listener_latency_milliseconds_count{").append(labels).append("} ").append(c).append('\n');
+        }
+    }
+
+    /**
+     * A lock-free counter of events in the last minute. It has one slot for each second of a minute;
+     * each slot holds the second and the count of that second in a single long, so a slot of an old
+     * second is reset and incremented with one compare-and-set.
+     */
+    public static class Rate {
+        private final static int COUNT_BITS = 24;
+        private final static long COUNT_MASK = (1L << COUNT_BITS) - 1;
+        private final AtomicLongArray slots = new AtomicLongArray(60);
+
+        public void increment() {
+            long second = System.currentTimeMillis() / 1000;
+            int slot = (int) (second % 60);
+            while (true) {
+                long v = this.slots.get(slot);
+                long next = (v >>> COUNT_BITS) == second ? v + 1 : (second << COUNT_BITS) | 1;
+                if (this.slots.compareAndSet(slot, v, next)) return;
+            }
+        }
+
+        /**
+         * @return the number of events in the last 60 seconds
+         */
+        public int lastMinute() {
+            long second = System.currentTimeMillis() / 1000;
+            long count = 0;
+            for (int i = 0; i < 60; i++) {
+                long v = this.slots.get(i);
+                if (second - (v >>> COUNT_BITS) < 60) count += v & COUNT_MASK;
+            }
+            return (int) count;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *  QueueScheduler
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import net.yacy.grid.io.messages.GridQueue;
+
+/**
+ * A weighted-fair scheduler which selects the source queue for the next receive of a listener thread.
+ * The source queues are grouped in priority dimensions, the same way as the sender of messages groups them.
+ * Each queue gets the weight of its dimension as quantum in a deficit round robin: a queue is served
+ * as many times in a row as its deficit allows, then the next queue is visited and gets its quantum.
+ * Only queues with a backlog, where the latest receive got a message, take part in the round robin.
+ * Queues which were found empty are idle for a short time and lose their deficit. When the idle time of
+ * a queue is over, it is probed once without waiting, and only if every queue is idle a thread waits
+ * on one of them. Probes cost almost nothing and happen at most once per idle time for each queue,
+ * so the capacity of the listener threads goes to the queues which have messages.
+ */
+public class QueueScheduler {
+
+    private final GridQueue[] queues;
+    private final int[] dimension;
+    private final int[] weights;
+    private final int[] deficit;
+    private final long[] idleUntil;
+    private final long[] served;
+    private final boolean[] probing;
+    private final long idleTime;
+    private int pointer;
+
+    /**
+     * create a scheduler
+     * @param queues the source queues
+     * @param dimensions the number of queues in each priority dimension, the sum must be the number of queues
+     * @param weights the weight of each priority dimension
+     * @param idleTime the time in milliseconds a queue is skipped after it was found empty
+     */
+    public QueueScheduler(GridQueue[] queues, int[] dimensions, int[] weights, long idleTime) {
+        this.queues = queues;
+        this.dimension = new int[queues.length];
+        this.weights = new int[queues.length];
+        int q = 0;
+        for (int d = 0; d < dimensions.length; d++) {
+            for (int i = 0; i < dimensions[d] && q < queues.length; i++) {
+                this.dimension[q] = d;
+                this.weights[q] = Math.max(1, weights[d]);
+                q++;
+            }
+        }
+        for (; q < queues.length; q++) {
+            this.dimension[q] = dimensions.length - 1;
+            this.weights[q] = 1;
+        }
+        this.deficit = new int[queues.length];
+        this.idleUntil = new long[queues.length];
+        this.served = new long[queues.length];
+        this.probing = new boolean[queues.length];
+        this.idleTime = idleTime;
+        Arrays.fill(this.idleUntil, 1); // the queues are unknown, so they are probed first
+        this.pointer = 0;
+        this.deficit[0] = this.weights[0];
+    }
+
+    /**
+     * parse a comma-separated list of numbers
+     * @param list the list, i.e. "24,8"
+     * @param dflt the result if the list is null or empty
+     * @return the numbers
+     */
+    public static int[] parse(String list, int[] dflt) {
+        if (list == null || list.trim().length() == 0) return dflt;
+        String[] s = list.split(",");
+        int[] a = new int[s.length];
+        for (int i = 0; i < s.length; i++) a[i] = Integer.parseInt(s[i].trim());
+        return a;
+    }
+
+    /**
+     * select the queue for the next receive. The caller should wait for a message according to
+     * the state of the selected queue: only briefly if it has a backlog, not at all if it is probed
+     * and for the idle time if it is idle.
+     * @return the index of the queue
+     */
+    public synchronized int next() {
+        long now = System.currentTimeMillis();
+        // probe the queue whose idle time is over for the longest time
+        int p = -1;
+        for (int i = 0; i < this.queues.length; i++) {
+            if (this.idleUntil[i] != 0 && this.idleUntil[i] <= now && !this.probing[i] && (p < 0 || this.idleUntil[i] < this.idleUntil[p])) p = i;
+        }
+        if (p >= 0) {
+            this.probing[p] = true; // until the result is reported, no other thread probes this queue
+            this.served[p]++;
+            return p;
+        }
+        // serve the queues with a backlog
+        for (int i = 0; i <= this.queues.length; i++) {
+            p = this.pointer;
+            if (this.idleUntil[p] == 0) {
+                if (this.deficit[p] > 0) {
+                    this.deficit[p]--;
+                    this.served[p]++;
+                    return p;
+                }
+            } else {
+                this.deficit[p] = 0; // a queue without backlog does not save its quantum
+            }
+            this.pointer = (p + 1) % this.queues.length;
+            this.deficit[this.pointer] += this.weights[this.pointer];
+        }
+        // all queues are idle or probed: wait on the queue which is idle for the longest time
+        p = 0;
+        long latest = this.idleUntil[0];
+        for (int i = 1; i < this.queues.length; i++) {
+            if (this.idleUntil[i] < this.idleUntil[p]) p = i;
+            latest = Math.max(latest, this.idleUntil[i]);
+        }
+        this.idleUntil[p] = Math.max(now + this.idleTime, latest + 1); // the next thread shall wait on another queue
+        this.served[p]++;
+        return p;
+    }
+
+    /**
+     * check if a queue is idle; a thread which got an idle queue from next() should wait for a message
+     * because all queues are idle
+     * @param q the index of the queue
+     * @return true if the queue was found empty and the idle time is not over
+     */
+    public synchronized boolean isIdle(int q) {
+        return this.idleUntil[q] > System.currentTimeMillis();
+    }
+
+    /**
+     * check if a queue has a backlog
+     * @param q the index of the queue
+     * @return true if the latest receive from the queue got a message
+     */
+    public synchronized boolean hasBacklog(int q) {
+        return this.idleUntil[q] == 0;
+    }
+
+    /**
+     * report that a queue was found empty
+     * @param q the index of the queue
+     */
+    public synchronized void idle(int q) {
+        this.probing[q] = false;
+        this.idleUntil[q] = System.currentTimeMillis() + this.idleTime;
+        this.deficit[q] = 0;
+    }
+
+    /**
+     * report that a message was received from a queue
+     * @param q the index of the queue
+     */
+    public synchronized void active(int q) {
+        this.probing[q] = false;
+        this.idleUntil[q] = 0;
+    }
+
+    public GridQueue getQueue(int q) {
+        return this.queues[q];
+    }
+
+    /**
+     * get the number of receive calls for each priority dimension
+     * @return a json array with the weight and the number of calls of each dimension
+     */
+    public synchronized JSONArray toJSON() {
+        int dimensions = this.dimension[this.queues.length - 1] + 1;
+        JSONArray a = new JSONArray();
+        for (int d = 0; d < dimensions; d++) {
+            long s = 0;
+            int w = 0;
+            for (int q = 0; q < this.queues.length; q++) if (this.dimension[q] == d) {s += this.served[q]; w = this.weights[q];}
+            a.put(new JSONObject(true).put("weight", w).put("served", s));
+        }
+        return a;
+    }
+}
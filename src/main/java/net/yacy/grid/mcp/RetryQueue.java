@@ -0,0 +1,323 @@
+/**
+ *  RetryQueue
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import net.yacy.grid.Services;
+import net.yacy.grid.YaCyServices;
+import net.yacy.grid.io.db.CommitPolicy;
+import net.yacy.grid.io.db.MapDBSortedMap;
+import net.yacy.grid.io.messages.GridQueue;
+
+/**
+ * Messages which could not be processed are sent again to their queue after a delay.
+ * The delay grows with the number of attempts: each attempt has a delay tier, and each tier is a
+ * fifo queue. Because all messages of a tier have the same delay, the head of a tier is always
+ * the message which is due first. A single thread sends the due messages to the broker, so the
+ * listener threads never wait for a retry. Messages which failed in all tiers are moved to the
+ * dead-letter queue of their queue, where they can be inspected with the deadletter servlet.
+ * Pending retries are held in memory and are written to a local database before schedule() returns,
+ * that is before the failed message is acknowledged; after a crash or a restart they are loaded again
+ * with their original due time. A retry which cannot be sent counts as another attempt.
+ * Retries and dead letters are always sent to the broker, never to in-process queues, which are lost with the JVM.
+ */
+public class RetryQueue {
+
+    public final static String DEADLETTER_SUFFIX = "_dead";
+
+    private final long[] delays;
+    private final ArrayDeque<Retry>[] tiers;
+    private final AtomicLong retried, deadLettered, keys;
+    private final MapDBSortedMap store; // the pending retries by key, null if they are only held in memory
+    private volatile boolean shallRun;
+    private final Thread dispatcher;
+
+    private static class Retry {
+        private final long key;
+        private final int tier;
+        private final long due;
+        private final Services service;
+        private final GridQueue queue;
+        private final byte[] payload;
+        private Retry(long key, int tier, long due, Services service, GridQueue queue, byte[] payload) {
+            this.key = key;
+            this.tier = tier;
+            this.due = due;
+            this.service = service;
+            this.queue = queue;
+            this.payload = payload;
+        }
+
+        private byte[] toBytes() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(this.payload.length + 64);
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(this.tier);
+            out.writeLong(this.due);
+            out.writeUTF(this.service.name());
+            out.writeUTF(this.queue.name());
+            out.writeInt(this.payload.length);
+            out.write(this.payload);
+            out.flush();
+            return baos.toByteArray();
+        }
+
+        private static Retry parse(long key, byte[] b) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            int tier = in.readInt();
+            long due = in.readLong();
+            Services service = YaCyServices.valueOf(in.readUTF());
+            GridQueue queue = new GridQueue(in.readUTF());
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return new Retry(key, tier, due, service, queue, payload);
+        }
+    }
+
+    /**
+     * create a retry queue
+     * @param name the name of the dispatcher thread
+     * @param delays the delay in milliseconds for each attempt; the number of delays is the maximum number of retries
+     * @param storePath the file of the database for the pending retries; if null, they are only held in memory
+     */
+    @SuppressWarnings("unchecked")
+    public RetryQueue(String name, long[] delays, File storePath) {
+        this.delays = delays;
+        this.tiers = new ArrayDeque[delays.length];
+        for (int i = 0; i < delays.length; i++) this.tiers[i] = new ArrayDeque<>();
+        this.retried = new AtomicLong(0);
+        this.deadLettered = new AtomicLong(0);
+        this.keys = new AtomicLong(0);
+        this.store = storePath == null ? null : new MapDBSortedMap(storePath, CommitPolicy.SYNC);
+        if (this.store != null) load();
+        this.shallRun = true;
+        this.dispatcher = new Thread("RetryQueue " + name) {
+            @Override
+            public void run() {
+                while (RetryQueue.this.shallRun) {
+                    Retry retry;
+                    try {
+                        retry = RetryQueue.this.take();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (retry != null) send(retry);
+                }
+            }
+        };
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * load the retries which were pending when the previous process ended
+     */
+    private void load() {
+        List<Retry> loaded = new ArrayList<>();
+        for (Map.Entry<Long, byte[]> entry: this.store.entrySet()) {
+            this.keys.set(Math.max(this.keys.get(), entry.getKey()));
+            try {
+                loaded.add(Retry.parse(entry.getKey(), entry.getValue()));
+            } catch (IOException | IllegalArgumentException e) {
+                Data.logger.warn("RetryQueue: cannot read pending retry " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        // the delay of a tier must be the same for all of its entries, so the order within a tier is the order of the due time
+        loaded.sort((a, b) -> Long.compare(a.due, b.due));
+        for (Retry retry: loaded) this.tiers[Math.max(0, Math.min(this.tiers.length - 1, retry.tier))].addLast(retry);
+        if (loaded.size() > 0) Data.logger.info("RetryQueue: loaded " + loaded.size() + " pending retries");
+    }
+
+    /**
+     * write a pending retry to the database
+     * @return the retry
+     */
+    private Retry persist(Retry retry) {
+        if (this.store != null) try {
+            this.store.put(retry.key, retry.toBytes());
+        } catch (IOException | RuntimeException e) {
+            Data.logger.warn("RetryQueue: retry for queue " + retry.queue + " is only held in memory: " + e.getMessage());
+        }
+        return retry;
+    }
+
+    private void forget(Retry retry) {
+        if (this.store != null) try {
+            this.store.remove(retry.key);
+        } catch (RuntimeException e) {
+            Data.logger.warn("RetryQueue: sent retry for queue " + retry.queue + " remains in the database: " + e.getMessage());
+        }
+    }
+
+    public static GridQueue deadLetterQueue(GridQueue queue) {
+        return new GridQueue(queue.name() + DEADLETTER_SUFFIX);
+    }
+
+    /**
+     * schedule a message to be sent again
+     * @param service the service of the queue
+     * @param queue the queue of the message
+     * @param payload the message, which must already contain the number of attempts
+     * @param attempt the number of failed attempts including the latest one
+     * @param reason the reason for the latest failure; this is stored with a dead letter
+     */
+    public void schedule(Services service, GridQueue queue, byte[] payload, int attempt, String reason) {
+        if (attempt < 1 || attempt > this.delays.length) {
+            deadLetter(service, queue, payload, attempt, reason);
+            return;
+        }
+        Retry retry = persist(new Retry(this.keys.incrementAndGet(), attempt - 1, System.currentTimeMillis() + this.delays[attempt - 1], service, queue, payload));
+        synchronized (this) {
+            this.tiers[attempt - 1].addLast(retry);
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * wait until a retry is due
+     * @return the retry which is due or null if the queue shall be closed
+     * @throws InterruptedException
+     */
+    private synchronized Retry take() throws InterruptedException {
+        while (this.shallRun) {
+            long now = System.currentTimeMillis();
+            int first = -1;
+            for (int i = 0; i < this.tiers.length; i++) {
+                Retry head = this.tiers[i].peekFirst();
+                if (head != null && (first < 0 || head.due < this.tiers[first].peekFirst().due)) first = i;
+            }
+            if (first >= 0 && this.tiers[first].peekFirst().due <= now) return this.tiers[first].pollFirst();
+            this.wait(first < 0 ? 0 : this.tiers[first].peekFirst().due - now);
+        }
+        return null;
+    }
+
+    private void send(Retry retry) {
+        try {
+            Data.gridBroker.sendDurable(retry.service, retry.queue, retry.payload);
+            this.retried.incrementAndGet();
+            forget(retry);
+        } catch (IOException e) {
+            // i.e. the target limit is reached; this counts as an attempt, so the retry waits in the next tier
+            int tier = retry.tier + 1;
+            if (tier >= this.tiers.length) {
+                if (deadLetter(retry.service, retry.queue, retry.payload, tier + 1, "retry cannot be sent: " + e.getMessage())) {
+                    forget(retry);
+                    return;
+                }
+                tier = this.tiers.length - 1; // the dead letter could not be sent either; we keep the retry
+            }
+            Data.logger.info("RetryQueue: cannot send retry to queue " + retry.queue + ", delaying: " + e.getMessage());
+            Retry delayed = persist(new Retry(retry.key, tier, System.currentTimeMillis() + this.delays[tier], retry.service, retry.queue, retry.payload));
+            synchronized (this) {
+                this.tiers[tier].addLast(delayed);
+            }
+        }
+    }
+
+    /**
+     * move a message to the dead-letter queue of its queue
+     * @param service the service of the queue
+     * @param queue the queue of the message
+     * @param payload the message
+     * @param attempt the number of failed attempts
+     * @param reason the reason for the latest failure
+     * @return true if the dead letter was sent, false if it is lost
+     */
+    public boolean deadLetter(Services service, GridQueue queue, byte[] payload, int attempt, String reason) {
+        JSONObject letter = new JSONObject(true);
+        letter.put("queue", queue.name());
+        letter.put("attempt", attempt);
+        letter.put("reason", reason == null ? "" : reason);
+        letter.put("time", System.currentTimeMillis());
+        letter.put("message", new String(ThoughtEnvelope.toJSON(payload), StandardCharsets.UTF_8));
+        try {
+            Data.gridBroker.sendDurable(service, deadLetterQueue(queue), letter.toString().getBytes(StandardCharsets.UTF_8));
+            this.deadLettered.incrementAndGet();
+            Data.logger.info("RetryQueue: message of queue " + queue + " moved to dead-letter queue after " + attempt + " attempts: " + reason);
+            return true;
+        } catch (IOException e) {
+            Data.logger.warn("RetryQueue: dead letter of queue " + queue + " is lost", e);
+            return false;
+        }
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONArray pending = new JSONArray();
+        for (ArrayDeque<Retry> tier: this.tiers) pending.put(tier.size());
+        JSONObject json = new JSONObject(true);
+        json.put("pending", pending);
+        json.put("retried", this.retried.get());
+        json.put("deadLettered", this.deadLettered.get());
+        return json;
+    }
+
+    /**
+     * stop the dispatcher. Pending retries stay in the database and are sent after the next start when
+     * they are due, so a restart does not skip the backoff. Without a database they are sent at once
+     * because they would be lost otherwise.
+     */
+    public void close() {
+        synchronized (this) {
+            this.shallRun = false;
+            this.notifyAll();
+        }
+        try {this.dispatcher.join(10000);} catch (InterruptedException e) {}
+        if (this.store != null) {
+            int pending = 0;
+            synchronized (this) {
+                for (ArrayDeque<Retry> tier: this.tiers) {pending += tier.size(); tier.clear();}
+            }
+            if (pending > 0) Data.logger.info("RetryQueue: " + pending + " pending retries are sent after the next start");
+            try {
+                this.store.close();
+            } catch (IOException e) {
+                Data.logger.warn("RetryQueue: cannot close the database", e);
+            }
+            return;
+        }
+        for (ArrayDeque<Retry> tier: this.tiers) {
+            Retry retry;
+            while (true) {
+                synchronized (this) {retry = tier.pollFirst();}
+                if (retry == null) break;
+                try {
+                    Data.gridBroker.sendDurable(retry.service, retry.queue, retry.payload);
+                } catch (IOException e) {
+                    Data.logger.warn("RetryQueue: retry for queue " + retry.queue + " is lost", e);
+                }
+            }
+        }
+    }
+}
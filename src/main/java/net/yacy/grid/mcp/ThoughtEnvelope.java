@@ -0,0 +1,379 @@
+/**
+ *  ThoughtEnvelope
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import ai.susi.mind.SusiAction;
+
+/**
+ * A compact envelope for the SusiThought messages which are passed between the grid services.
+ * The envelope has a header with the action list and a data section which is kept as raw utf-8 bytes
+ * of a json array. A hop which only forwards a message does not need to parse the data section,
+ * and a hop which processes the message parses it only once and only when it is needed.
+ *
+ * Binary format: magic byte, version byte, length of the actions (4 bytes), actions as json array,
+ * length of the data (4 bytes), data as json array.
+ * Messages in the json format of a SusiThought ({"data":[..], "actions":[..]}) are read as well;
+ * there the object is only scanned for the position of both arrays and only the actions are parsed.
+ * In both formats the data section is a slice of the original payload and is not copied.
+ */
+public class ThoughtEnvelope {
+
+    public final static byte MAGIC = (byte) 0xFD;
+    public final static byte VERSION = 1;
+    public final static String ATTEMPT_KEY = "attempt";
+
+    private final static byte[] EMPTY_ARRAY = "[]".getBytes(StandardCharsets.UTF_8);
+
+    private final JSONArray actions;
+    private JSONArray data;
+    private byte[] dataBytes; // the data section is dataBytes[dataOffset .. dataOffset + dataLength - 1]
+    private int dataOffset, dataLength;
+    private byte[] payload; // the original message, as long as it is valid
+
+    public ThoughtEnvelope(JSONArray actions, JSONArray data) {
+        this.actions = actions;
+        this.data = data;
+        this.dataBytes = null;
+        this.payload = null;
+    }
+
+    public ThoughtEnvelope(JSONArray actions, byte[] dataBytes) {
+        this(actions, dataBytes, 0, dataBytes.length, null);
+    }
+
+    private ThoughtEnvelope(JSONArray actions, byte[] dataBytes, int dataOffset, int dataLength, byte[] payload) {
+        this.actions = actions;
+        this.data = null;
+        this.dataBytes = dataBytes;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+        this.payload = payload;
+    }
+
+    public static boolean isEnvelope(byte[] payload) {
+        return payload != null && payload.length >= 10 && payload[0] == MAGIC;
+    }
+
+    /**
+     * read a message either in the binary envelope format or as json
+     * @param payload
+     * @return the envelope
+     * @throws JSONException if the payload has a wrong form
+     */
+    public static ThoughtEnvelope parse(byte[] payload) throws JSONException {
+        if (!isEnvelope(payload)) {
+            int[] slices = scan(payload);
+            if (slices == null) {
+                // not a plain json object; let the json parser tell what is wrong
+                JSONObject json = new JSONObject(new JSONTokener(new String(payload, StandardCharsets.UTF_8)));
+                return new ThoughtEnvelope(json.optJSONArray("actions") == null ? new JSONArray() : json.getJSONArray("actions"),
+                        json.optJSONArray("data") == null ? new JSONArray() : json.getJSONArray("data"));
+            }
+            JSONArray actions = slices[2] < 0 ? new JSONArray() : new JSONArray(new JSONTokener(new String(payload, slices[2], slices[3], StandardCharsets.UTF_8)));
+            if (slices[0] < 0) return new ThoughtEnvelope(actions, EMPTY_ARRAY, 0, EMPTY_ARRAY.length, payload);
+            return new ThoughtEnvelope(actions, payload, slices[0], slices[1], payload);
+        }
+        if (payload[1] != VERSION) throw new JSONException("unknown envelope version " + payload[1]);
+        int p = 2;
+        int al = readInt(payload, p); p += 4;
+        if (al < 0 || p + al + 4 > payload.length) throw new JSONException("bad envelope: actions length " + al);
+        JSONArray actions = new JSONArray(new JSONTokener(new String(payload, p, al, StandardCharsets.UTF_8)));
+        p += al;
+        int dl = readInt(payload, p); p += 4;
+        if (dl < 0 || p + dl > payload.length) throw new JSONException("bad envelope: data length " + dl);
+        return new ThoughtEnvelope(actions, payload, p, dl, payload);
+    }
+
+    /**
+     * find the "data" and "actions" arrays in a json object without parsing it.
+     * The structural characters of json are ascii, so the utf-8 bytes can be scanned directly.
+     * @param json the utf-8 bytes of a json object
+     * @return offset and length of the data array and of the actions array, -1 for an array which is missing;
+     *         null if the input is not a well-formed object of the expected form
+     */
+    private static int[] scan(byte[] json) {
+        int[] slices = new int[]{-1, 0, -1, 0};
+        int p = skipWhitespace(json, 0);
+        if (p >= json.length || json[p] != '{') return null;
+        p = skipWhitespace(json, p + 1);
+        if (p < json.length && json[p] == '}') return slices;
+        while (p < json.length) {
+            if (json[p] != '"') return null;
+            int keyEnd = skipString(json, p);
+            if (keyEnd < 0) return null;
+            String key = new String(json, p + 1, keyEnd - p - 2, StandardCharsets.UTF_8);
+            p = skipWhitespace(json, keyEnd);
+            if (p >= json.length || json[p] != ':') return null;
+            int valueStart = skipWhitespace(json, p + 1);
+            int valueEnd = skipValue(json, valueStart);
+            if (valueEnd < 0) return null;
+            boolean isArray = json[valueStart] == '[';
+            if ("data".equals(key)) {
+                slices[0] = isArray ? valueStart : -1;
+                slices[1] = valueEnd - valueStart;
+            } else if ("actions".equals(key)) {
+                slices[2] = isArray ? valueStart : -1;
+                slices[3] = valueEnd - valueStart;
+            }
+            p = skipWhitespace(json, valueEnd);
+            if (p >= json.length) return null;
+            if (json[p] == '}') return skipWhitespace(json, p + 1) == json.length ? slices : null;
+            if (json[p] != ',') return null;
+            p = skipWhitespace(json, p + 1);
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(byte[] b, int p) {
+        while (p < b.length && (b[p] == ' ' || b[p] == '\n' || b[p] == '\r' || b[p] == '\t')) p++;
+        return p;
+    }
+
+    /**
+     * @return the position after the closing quote of the string which starts at p, or -1
+     */
+    private static int skipString(byte[] b, int p) {
+        p++;
+        while (p < b.length) {
+            byte c = b[p];
+            if (c == '\\') p += 2;
+            else if (c == '"') return p + 1;
+            else p++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the json value which starts at p, or -1
+     */
+    private static int skipValue(byte[] b, int p) {
+        if (p >= b.length) return -1;
+        if (b[p] == '"') return skipString(b, p);
+        if (b[p] == '{' || b[p] == '[') {
+            byte[] open = new byte[16]; // the brackets which are not closed yet
+            int depth = 0;
+            while (p < b.length) {
+                byte c = b[p];
+                if (c == '"') {
+                    p = skipString(b, p);
+                    if (p < 0) return -1;
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+                    open[depth++] = c;
+                } else if (c == '}' || c == ']') {
+                    if (open[--depth] != (c == '}' ? '{' : '[')) return -1;
+                    if (depth == 0) return p + 1;
+                }
+                p++;
+            }
+            return -1;
+        }
+        // a number, true, false or null
+        int s = p;
+        while (p < b.length && b[p] != ',' && b[p] != '}' && b[p] != ']' && b[p] != ' ' && b[p] != '\n' && b[p] != '\r' && b[p] != '\t') p++;
+        return p > s ? p : -1;
+    }
+
+    /**
+     * get the number of delivery attempts of the message, which is stored in the actions
+     * @return the number of failed attempts to process the message; 0 if it was never retried
+     */
+    public int getAttempt() {
+        int attempt = 0;
+        for (int i = 0; i < this.actions.length(); i++) {
+            JSONObject action = this.actions.optJSONObject(i);
+            if (action != null) attempt = Math.max(attempt, action.optInt(ATTEMPT_KEY, 0));
+        }
+        return attempt;
+    }
+
+    /**
+     * create a message with all actions of this envelope where the number of attempts is set
+     * @param attempt the number of failed attempts to process the message
+     * @param binary if true, the binary envelope format is used, otherwise the json format of a SusiThought
+     * @return the message payload
+     */
+    public byte[] toBytes(int attempt, boolean binary) {
+        JSONArray a = new JSONArray();
+        for (int i = 0; i < this.actions.length(); i++) {
+            JSONObject action = this.actions.optJSONObject(i);
+            if (action == null) continue;
+            JSONObject clone = new JSONObject(true);
+            action.keySet().forEach(key -> clone.put(key, action.get(key)));
+            a.put(clone.put(ATTEMPT_KEY, attempt));
+        }
+        byte[] actionBytes = a.toString().getBytes(StandardCharsets.UTF_8);
+        if (this.dataBytes == null) return toBytes(actionBytes, getDataBytes(), binary);
+        return toBytes(actionBytes, this.dataBytes, this.dataOffset, this.dataLength, binary);
+    }
+
+    /**
+     * create a message for a single action with the data section of this envelope.
+     * The data section is copied as bytes, it is only serialized if it was parsed (and possibly changed) before.
+     * @param action the action of the message
+     * @param binary if true, the binary envelope format is used, otherwise the json format of a SusiThought
+     * @return the message payload
+     */
+    public byte[] toBytes(SusiAction action, boolean binary) {
+        byte[] actionBytes = new JSONArray().put(action.toJSONClone()).toString().getBytes(StandardCharsets.UTF_8);
+        if (this.dataBytes == null) return toBytes(actionBytes, getDataBytes(), binary);
+        return toBytes(actionBytes, this.dataBytes, this.dataOffset, this.dataLength, binary);
+    }
+
+    /**
+     * get an envelope with the current state of the data section as bytes; an unparsed data section is shared,
+     * a parsed one is serialized. This is used to create several messages from the same data.
+     * @return an envelope with the same actions and the data section as bytes
+     */
+    public ThoughtEnvelope snapshot() {
+        if (this.dataBytes != null) return this;
+        byte[] b = getDataBytes();
+        return new ThoughtEnvelope(this.actions, b, 0, b.length, null);
+    }
+
+    /**
+     * get the message to forward it unchanged to another queue; the actions must not have been changed
+     * @param binary if true, the binary envelope format is wanted, otherwise the json format of a SusiThought
+     * @return the original payload if it has the wanted format and is still valid, null otherwise
+     */
+    public byte[] getPayload(boolean binary) {
+        if (this.payload == null || isEnvelope(this.payload) != binary) return null;
+        return this.payload;
+    }
+
+    public List<SusiAction> getActions() {
+        List<SusiAction> list = new ArrayList<>();
+        this.actions.forEach(action -> list.add(new SusiAction((JSONObject) action)));
+        return list;
+    }
+
+    /**
+     * get the data section as json; it is parsed on the first call
+     * @return the data array
+     * @throws JSONException if the data section has a wrong form
+     */
+    public JSONArray getData() throws JSONException {
+        if (this.data == null) {
+            this.data = new JSONArray(new JSONTokener(new String(this.dataBytes, this.dataOffset, this.dataLength, StandardCharsets.UTF_8)));
+            this.dataBytes = null; // the data may be changed now, so the bytes are not valid any more
+            this.payload = null;
+        }
+        return this.data;
+    }
+
+    /**
+     * get the data section as utf-8 bytes of a json array; the data is only serialized
+     * if it was parsed (and possibly changed) before
+     * @return the data section
+     */
+    public byte[] getDataBytes() {
+        if (this.dataBytes != null) {
+            if (this.dataOffset == 0 && this.dataLength == this.dataBytes.length) return this.dataBytes;
+            byte[] b = new byte[this.dataLength];
+            System.arraycopy(this.dataBytes, this.dataOffset, b, 0, this.dataLength);
+            return b;
+        }
+        if (this.data == null) return EMPTY_ARRAY;
+        return this.data.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * create a message for a single action and a data section
+     * @param action the action of the message
+     * @param dataBytes the data section as utf-8 bytes of a json array
+     * @param binary if true, the binary envelope format is used, otherwise the json format of a SusiThought
+     * @return the message payload
+     */
+    public static byte[] toBytes(SusiAction action, byte[] dataBytes, boolean binary) {
+        byte[] actionBytes = new JSONArray().put(action.toJSONClone()).toString().getBytes(StandardCharsets.UTF_8);
+        return toBytes(actionBytes, dataBytes, binary);
+    }
+
+    private static byte[] toBytes(byte[] actionBytes, byte[] dataBytes, boolean binary) {
+        return toBytes(actionBytes, dataBytes, 0, dataBytes.length, binary);
+    }
+
+    private static byte[] toBytes(byte[] actionBytes, byte[] dataBytes, int dataOffset, int dataLength, boolean binary) {
+        if (binary) {
+            byte[] b = new byte[10 + actionBytes.length + dataLength];
+            b[0] = MAGIC;
+            b[1] = VERSION;
+            writeInt(b, 2, actionBytes.length);
+            System.arraycopy(actionBytes, 0, b, 6, actionBytes.length);
+            writeInt(b, 6 + actionBytes.length, dataLength);
+            System.arraycopy(dataBytes, dataOffset, b, 10 + actionBytes.length, dataLength);
+            return b;
+        }
+        return toJSON(actionBytes, 0, actionBytes.length, dataBytes, dataOffset, dataLength);
+    }
+
+    /**
+     * translate a message in the binary envelope format into the json format of a SusiThought.
+     * This is needed where a message is transported as text, i.e. in the mcp api.
+     * @param payload a message in any format
+     * @return the message in json format
+     */
+    public static byte[] toJSON(byte[] payload) {
+        if (!isEnvelope(payload) || payload[1] != VERSION) return payload;
+        int al = readInt(payload, 2);
+        if (al < 0 || 6 + al + 4 > payload.length) return payload;
+        int dl = readInt(payload, 6 + al);
+        if (dl < 0 || 10 + al + dl > payload.length) return payload;
+        return toJSON(payload, 6, al, payload, 10 + al, dl);
+    }
+
+    private final static byte[] JSON_HEAD = "{\"data\":".getBytes(StandardCharsets.UTF_8);
+    private final static byte[] JSON_MIDDLE = ",\"actions\":".getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] toJSON(byte[] actions, int actionsOffset, int actionsLength, byte[] data, int dataOffset, int dataLength) {
+        // the json is concatenated to avoid that the data is parsed again
+        byte[] b = new byte[JSON_HEAD.length + dataLength + JSON_MIDDLE.length + actionsLength + 1];
+        int p = 0;
+        System.arraycopy(JSON_HEAD, 0, b, p, JSON_HEAD.length); p += JSON_HEAD.length;
+        System.arraycopy(data, dataOffset, b, p, dataLength); p += dataLength;
+        System.arraycopy(JSON_MIDDLE, 0, b, p, JSON_MIDDLE.length); p += JSON_MIDDLE.length;
+        System.arraycopy(actions, actionsOffset, b, p, actionsLength); p += actionsLength;
+        b[p] = '}';
+        return b;
+    }
+
+    private static void writeInt(byte[] b, int pos, int i) {
+        b[pos] = (byte) (i >>> 24);
+        b[pos + 1] = (byte) (i >>> 16);
+        b[pos + 2] = (byte) (i >>> 8);
+        b[pos + 3] = (byte) i;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+}
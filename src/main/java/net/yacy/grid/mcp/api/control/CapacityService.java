@@ -0,0 +1,67 @@
+/**
+ *  CapacityService
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp.api.control;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+
+import net.yacy.grid.http.APIHandler;
+import net.yacy.grid.http.ObjectAPIHandler;
+import net.yacy.grid.http.Query;
+import net.yacy.grid.http.ServiceResponse;
+import net.yacy.grid.io.control.GridControl;
+
+/**
+ * The capacity Service:
+ * called periodically by the broker listeners of all services.
+ * A listener reports how many messages per second it consumes and how many messages its source queues
+ * can take until they reach their target depth. It gets the same values for its downstream services
+ * and computes from them the credits for the consumption of its own queues.
+ * call http://localhost:8100/yacy/grid/mcp/control/capacity.json?serviceName=parser&instance=1&rate=12.5&free=800&targets=indexer
+ */
+public class CapacityService extends ObjectAPIHandler implements APIHandler {
+
+    private static final long serialVersionUID = 8578478303032749489L;
+    public static final String NAME = "capacity";
+    public static final String CAPACITIES_KEY = "capacities";
+
+    @Override
+    public String getAPIPath() {
+        return "/yacy/grid/mcp/control/" + NAME + ".json";
+    }
+
+    @Override
+    public ServiceResponse serviceImpl(Query call, HttpServletResponse response) {
+        String serviceName = call.get("serviceName", "");
+        String instance = call.get("instance", "");
+        double rate = call.get("rate", 0.0d);
+        long free = call.get("free", 0L);
+        String targets = call.get("targets", "");
+
+        // generate json
+        JSONObject json = new JSONObject(true);
+        json.put(CAPACITIES_KEY, GridControl.computeCapacity(serviceName, instance, rate, free, targets.length() == 0 ? new String[0] : targets.split(",")));
+        json.put(ObjectAPIHandler.SUCCESS_KEY, true);
+        json.put(ObjectAPIHandler.COMMENT_KEY, "");
+        return new ServiceResponse(json);
+    }
+
+}
@@ -28,6 +28,7 @@ import net.yacy.grid.http.APIServer;
 import net.yacy.grid.http.ObjectAPIHandler;
 import net.yacy.grid.http.Query;
 import net.yacy.grid.http.ServiceResponse;
+import net.yacy.grid.mcp.Data;
 import net.yacy.grid.mcp.Service;
 import net.yacy.grid.tools.OS;
 
@@ -65,6 +66,12 @@ public class StatusService extends ObjectAPIHandler implements APIHandler {
         client_info.put("request_header", request_header);
         
         json.put("system", system);
+        if (Data.gridBroker != null) {
+            JSONObject broker = Data.gridBroker.getBreakerStatus();
+            broker.put("compression", Data.gridBroker.getCodec().toJSON());
+            broker.put("queues", Data.gridBroker.getQueueMonitor().toJSON());
+            json.put("broker", broker);
+        }
         json.put("client_info", client_info);
 
         return new ServiceResponse(json);
@@ -36,6 +36,10 @@ import net.yacy.grid.mcp.Data;
 /**
  * test: call
  * http://127.0.0.1:8100/yacy/grid/mcp/messages/acknowledge.json?serviceName=crawler&queueName=webcrawler_00&deliveryTag=12345678
+ * with multiple=true all messages up to and including the deliveryTag are acknowledged:
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/acknowledge.json?serviceName=crawler&queueName=webcrawler_00&deliveryTag=12345678&multiple=true
+ * several single messages are acknowledged at once with a comma-separated list of tags:
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/acknowledge.json?serviceName=crawler&queueName=webcrawler_00&deliveryTags=12345678,12345680
  */
 public class AcknowledgeService extends ObjectAPIHandler implements APIHandler {
 
@@ -52,10 +56,28 @@ public class AcknowledgeService extends ObjectAPIHandler implements APIHandler {
         String serviceName = call.get("serviceName", "");
         String queueName = call.get("queueName", "");
         long deliveryTag = Long.parseLong(call.get("deliveryTag", "0"));
+        boolean multiple = "true".equals(call.get("multiple", "false"));
+        String deliveryTags = call.get("deliveryTags", "");
         JSONObject json = new JSONObject(true);
-        if (serviceName.length() > 0 && queueName.length() > 0 && deliveryTag > 0) {
+        if (serviceName.length() > 0 && queueName.length() > 0 && deliveryTags.length() > 0) {
+            int count = 0;
             try {
-                Data.gridBroker.acknowledge(YaCyServices.valueOf(serviceName), new GridQueue(queueName), deliveryTag);
+                for (String tag: deliveryTags.split(",")) {
+                    Data.gridBroker.acknowledge(YaCyServices.valueOf(serviceName), new GridQueue(queueName), Long.parseLong(tag));
+                    count++;
+                }
+                json.put(ObjectAPIHandler.SUCCESS_KEY, true);
+            } catch (IOException | NumberFormatException e) {
+                json.put(ObjectAPIHandler.SUCCESS_KEY, false);
+                json.put(ObjectAPIHandler.COMMENT_KEY, "acknowledged " + count + " messages, then failed: " + e.getMessage());
+            }
+        } else if (serviceName.length() > 0 && queueName.length() > 0 && deliveryTag > 0) {
+            try {
+                if (multiple) {
+                    Data.gridBroker.acknowledgeUpTo(YaCyServices.valueOf(serviceName), new GridQueue(queueName), deliveryTag);
+                } else {
+                    Data.gridBroker.acknowledge(YaCyServices.valueOf(serviceName), new GridQueue(queueName), deliveryTag);
+                }
                 json.put(ObjectAPIHandler.SUCCESS_KEY, true);
             } catch (IOException e) {
                 json.put(ObjectAPIHandler.SUCCESS_KEY, false);
@@ -63,7 +85,7 @@ public class AcknowledgeService extends ObjectAPIHandler implements APIHandler {
             }
         } else {
             json.put(ObjectAPIHandler.SUCCESS_KEY, false);
-            json.put(ObjectAPIHandler.COMMENT_KEY, "the request must contain a serviceName, a queueName and a deliveryTag");
+            json.put(ObjectAPIHandler.COMMENT_KEY, "the request must contain a serviceName, a queueName and a deliveryTag or deliveryTags");
         }
         return new ServiceResponse(json);
     }
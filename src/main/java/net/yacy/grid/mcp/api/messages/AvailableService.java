@@ -23,6 +23,7 @@ import java.io.IOException;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import net.yacy.grid.YaCyServices;
@@ -37,6 +38,8 @@ import net.yacy.grid.mcp.Data;
 /**
  * test: call
  * http://127.0.0.1:8100/yacy/grid/mcp/messages/available.json?serviceName=crawler&queueName=webcrawler_00
+ * several queues are counted at once with a comma-separated list of queue names; the result is a list in the availables attribute:
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/available.json?serviceName=crawler&queueNames=webcrawler_00,webcrawler_01
  */
 public class AvailableService extends ObjectAPIHandler implements APIHandler {
 
@@ -52,8 +55,21 @@ public class AvailableService extends ObjectAPIHandler implements APIHandler {
     public ServiceResponse serviceImpl(Query call, HttpServletResponse response) {
         String serviceName = call.get("serviceName", "");
         String queueName = call.get("queueName", "");
+        String queueNames = call.get("queueNames", "");
         JSONObject json = new JSONObject(true);
-        if (serviceName.length() > 0 && queueName.length() > 0) {
+        if (serviceName.length() > 0 && queueNames.length() > 0) {
+            try {
+                JSONArray availables = new JSONArray();
+                for (String q: queueNames.split(",")) {
+                    availables.put(Data.gridBroker.available(YaCyServices.valueOf(serviceName), new GridQueue(q)).getAvailable());
+                }
+                json.put(ObjectAPIHandler.AVAILABLES_KEY, availables);
+                json.put(ObjectAPIHandler.SUCCESS_KEY, true);
+            } catch (IOException e) {
+                json.put(ObjectAPIHandler.SUCCESS_KEY, false);
+                json.put(ObjectAPIHandler.COMMENT_KEY, e.getMessage());
+            }
+        } else if (serviceName.length() > 0 && queueName.length() > 0) {
             try {
                 AvailableContainer available = Data.gridBroker.available(YaCyServices.valueOf(serviceName), new GridQueue(queueName));
                 String url = available.getFactory().getConnectionURL();
@@ -0,0 +1,112 @@
+/**
+ *  DeadLetterService
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp.api.messages;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import net.yacy.grid.YaCyServices;
+import net.yacy.grid.http.APIHandler;
+import net.yacy.grid.http.ObjectAPIHandler;
+import net.yacy.grid.http.Query;
+import net.yacy.grid.http.ServiceResponse;
+import net.yacy.grid.io.messages.AvailableContainer;
+import net.yacy.grid.io.messages.GridQueue;
+import net.yacy.grid.io.messages.MessageContainer;
+import net.yacy.grid.mcp.Data;
+import net.yacy.grid.mcp.RetryQueue;
+import net.yacy.grid.mcp.ThoughtEnvelope;
+
+/**
+ * Inspection of the messages which failed in all retries, the queueName is the name of the original queue.
+ * test: call
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/deadletter.json?serviceName=crawler&queueName=webcrawler_00&maxMessages=10
+ * to send the dead letters back to their original queue, call
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/deadletter.json?serviceName=crawler&queueName=webcrawler_00&maxMessages=10&requeue=true
+ */
+public class DeadLetterService extends ObjectAPIHandler implements APIHandler {
+
+    private static final long serialVersionUID = 8578478303031749899L;
+    public static final String NAME = "deadletter";
+
+    @Override
+    public String getAPIPath() {
+        return "/yacy/grid/mcp/messages/" + NAME + ".json";
+    }
+
+    @Override
+    public ServiceResponse serviceImpl(Query call, HttpServletResponse response) {
+        String serviceName = call.get("serviceName", "");
+        String queueName = call.get("queueName", "");
+        int maxMessages = call.get("maxMessages", 10);
+        boolean requeue = "true".equals(call.get("requeue", "false"));
+        JSONObject json = new JSONObject(true);
+        if (serviceName.length() > 0 && queueName.length() > 0) {
+            try {
+                YaCyServices service = YaCyServices.valueOf(serviceName);
+                GridQueue queue = new GridQueue(queueName);
+                GridQueue deadLetterQueue = RetryQueue.deadLetterQueue(queue);
+                AvailableContainer available = Data.gridBroker.available(service, deadLetterQueue);
+                long ac = available.getAvailable();
+                String url = available.getFactory().getConnectionURL();
+                if (url != null) json.put(ObjectAPIHandler.SERVICE_KEY, url);
+                JSONArray letters = new JSONArray();
+                for (int i = 0; i < Math.min(ac, maxMessages); i++) {
+                    MessageContainer<byte[]> message = Data.gridBroker.receive(service, deadLetterQueue, 3000, true);
+                    if (message == null || message.getPayload() == null) break;
+                    JSONObject letter;
+                    try {
+                        letter = new JSONObject(new JSONTokener(new String(message.getPayload(), StandardCharsets.UTF_8)));
+                    } catch (JSONException e) {
+                        // not a dead letter; keep it where it is
+                        Data.gridBroker.send(service, deadLetterQueue, message.getPayload());
+                        continue;
+                    }
+                    if (requeue) {
+                        // send the original message back to its queue with a fresh retry count
+                        byte[] original = letter.optString("message", "").getBytes(StandardCharsets.UTF_8);
+                        Data.gridBroker.send(service, queue, ThoughtEnvelope.parse(original).toBytes(0, false));
+                    } else {
+                        // send it again asap to prevent that it is lost
+                        Data.gridBroker.send(service, deadLetterQueue, message.getPayload());
+                    }
+                    letters.put(letter);
+                }
+                json.put(ObjectAPIHandler.AVAILABLE_KEY, ac);
+                json.put(ObjectAPIHandler.MESSAGES_KEY, letters);
+                json.put(ObjectAPIHandler.SUCCESS_KEY, true);
+            } catch (IOException | JSONException e) {
+                json.put(ObjectAPIHandler.SUCCESS_KEY, false);
+                json.put(ObjectAPIHandler.COMMENT_KEY, e.getMessage());
+            }
+        } else {
+            json.put(ObjectAPIHandler.SUCCESS_KEY, false);
+            json.put(ObjectAPIHandler.COMMENT_KEY, "the request must contain a serviceName and a queueName");
+        }
+        return new ServiceResponse(json);
+    }
+}
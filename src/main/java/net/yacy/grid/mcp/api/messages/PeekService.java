@@ -36,6 +36,7 @@ import net.yacy.grid.io.messages.AvailableContainer;
 import net.yacy.grid.io.messages.GridQueue;
 import net.yacy.grid.io.messages.MessageContainer;
 import net.yacy.grid.mcp.Data;
+import net.yacy.grid.mcp.ThoughtEnvelope;
 
 /**
  * test: call
@@ -75,7 +76,7 @@ public class PeekService extends ObjectAPIHandler implements APIHandler {
                         // send it again asap!
                         Data.gridBroker.send(service, queue, message.getPayload());
                         // evaluate whats inside
-                        String payload = message.getPayload() == null ? null : new String(message.getPayload(), StandardCharsets.UTF_8);
+                        String payload = message.getPayload() == null ? null : new String(ThoughtEnvelope.toJSON(message.getPayload()), StandardCharsets.UTF_8);
                         JSONObject payloadjson = payload == null ? null : new JSONObject(new JSONTokener(payload));
                         json.put(ObjectAPIHandler.AVAILABLE_KEY, ac);
                         json.put(ObjectAPIHandler.MESSAGE_KEY, payloadjson == null ? new JSONObject() : payloadjson);
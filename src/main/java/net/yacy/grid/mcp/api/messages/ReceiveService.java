@@ -21,9 +21,11 @@ package net.yacy.grid.mcp.api.messages;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import net.yacy.grid.YaCyServices;
@@ -34,10 +36,13 @@ import net.yacy.grid.http.ServiceResponse;
 import net.yacy.grid.io.messages.GridQueue;
 import net.yacy.grid.io.messages.MessageContainer;
 import net.yacy.grid.mcp.Data;
+import net.yacy.grid.mcp.ThoughtEnvelope;
 
 /**
  * test: call
  * http://127.0.0.1:8100/yacy/grid/mcp/messages/receive.json?serviceName=testService&queueName=testQueue
+ * with maxMessages greater than 1 the messages are returned as an array in the messages attribute:
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/receive.json?serviceName=testService&queueName=testQueue&maxMessages=100
  */
 public class ReceiveService extends ObjectAPIHandler implements APIHandler {
 
@@ -55,8 +60,29 @@ public class ReceiveService extends ObjectAPIHandler implements APIHandler {
         String queueName = call.get("queueName", "");
         boolean autoAck = "true".equals(call.get("autoAck", "true"));
         long timeout = call.get("timeout", -1);
+        int maxMessages = call.get("maxMessages", 1);
         JSONObject json = new JSONObject(true);
-        if (serviceName.length() > 0 && queueName.length() > 0) {
+        if (serviceName.length() > 0 && queueName.length() > 0 && maxMessages > 1) {
+            try {
+                List<MessageContainer<byte[]>> mcs = Data.gridBroker.receive(YaCyServices.valueOf(serviceName), new GridQueue(queueName), maxMessages, timeout, autoAck);
+                // the list is empty if a timeout occurred
+                JSONArray messages = new JSONArray();
+                String url = null;
+                for (MessageContainer<byte[]> message: mcs) {
+                    url = message.getFactory().getConnectionURL();
+                    byte[] payload = ThoughtEnvelope.toJSON(message.getPayload()); // the message is transported as text
+                    messages.put(new JSONObject(true)
+                            .put(ObjectAPIHandler.MESSAGE_KEY, payload == null ? "" : new String(payload, StandardCharsets.UTF_8))
+                            .put(ObjectAPIHandler.DELIVERY_TAG, message.getDeliveryTag()));
+                }
+                json.put(ObjectAPIHandler.MESSAGES_KEY, messages);
+                json.put(ObjectAPIHandler.SUCCESS_KEY, true);
+                if (url != null) json.put(ObjectAPIHandler.SERVICE_KEY, url);
+            } catch (IOException e) {
+                json.put(ObjectAPIHandler.SUCCESS_KEY, false);
+                json.put(ObjectAPIHandler.COMMENT_KEY, e.getMessage());
+            }
+        } else if (serviceName.length() > 0 && queueName.length() > 0) {
             try {
                 MessageContainer<byte[]> message = Data.gridBroker.receive(YaCyServices.valueOf(serviceName), new GridQueue(queueName), timeout, autoAck);
                 // message can be null if a timeout occurred
@@ -65,7 +91,7 @@ public class ReceiveService extends ObjectAPIHandler implements APIHandler {
                     json.put(ObjectAPIHandler.COMMENT_KEY, "timeout");
                 } else {
                     String url = message.getFactory().getConnectionURL();
-                    byte[] payload = message.getPayload();
+                    byte[] payload = ThoughtEnvelope.toJSON(message.getPayload()); // the message is transported as text
                     json.put(ObjectAPIHandler.MESSAGE_KEY, payload == null ? "" : new String(payload, StandardCharsets.UTF_8));
                     json.put(ObjectAPIHandler.DELIVERY_TAG, message.getDeliveryTag());
                     json.put(ObjectAPIHandler.SUCCESS_KEY, true);
@@ -21,9 +21,13 @@ package net.yacy.grid.mcp.api.messages;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import net.yacy.grid.YaCyServices;
@@ -39,6 +43,8 @@ import net.yacy.grid.mcp.Data;
  * This service takes the query parameters and puts them onto a message stack.
  * Test: call
  * 127.0.0.1:8100/yacy/grid/mcp/messages/send.json?serviceName=testService&queueName=testQueue&message=hello_world
+ * Several messages can be sent at once with a JSON array of strings in the messages attribute:
+ * 127.0.0.1:8100/yacy/grid/mcp/messages/send.json?serviceName=testService&queueName=testQueue&messages=["hello","world"]
  */
 public class SendService extends ObjectAPIHandler implements APIHandler {
 
@@ -55,20 +61,29 @@ public class SendService extends ObjectAPIHandler implements APIHandler {
         String serviceName = call.get("serviceName", "");
         String queueName = call.get("queueName", "");
         String message = call.get("message", "");
+        String messages = call.get("messages", "");
         JSONObject json = new JSONObject(true);
-        if (serviceName.length() > 0 && queueName.length() > 0 && message.length() > 0) {
+        if (serviceName.length() > 0 && queueName.length() > 0 && (message.length() > 0 || messages.length() > 0)) {
             try {
-                QueueFactory<byte[]> factory = Data.gridBroker.send(YaCyServices.valueOf(serviceName), new GridQueue(queueName), message.getBytes(StandardCharsets.UTF_8));
+                QueueFactory<byte[]> factory;
+                if (messages.length() > 0) {
+                    JSONArray m = new JSONArray(messages);
+                    List<byte[]> payloads = new ArrayList<>(m.length());
+                    for (int i = 0; i < m.length(); i++) payloads.add(m.getString(i).getBytes(StandardCharsets.UTF_8));
+                    factory = Data.gridBroker.send(YaCyServices.valueOf(serviceName), new GridQueue(queueName), payloads);
+                } else {
+                    factory = Data.gridBroker.send(YaCyServices.valueOf(serviceName), new GridQueue(queueName), message.getBytes(StandardCharsets.UTF_8));
+                }
                 String url = factory.getConnectionURL();
                 json.put(ObjectAPIHandler.SUCCESS_KEY, true);
                 if (url != null) json.put(ObjectAPIHandler.SERVICE_KEY, url);
-            } catch (IOException e) {
+            } catch (IOException | JSONException e) {
                 json.put(ObjectAPIHandler.SUCCESS_KEY, false);
                 json.put(ObjectAPIHandler.COMMENT_KEY, e.getMessage());
             }
         } else {
             json.put(ObjectAPIHandler.SUCCESS_KEY, false);
-            json.put(ObjectAPIHandler.COMMENT_KEY, "the request must contain a serviceName, a queueName and a message");
+            json.put(ObjectAPIHandler.COMMENT_KEY, "the request must contain a serviceName, a queueName and a message or messages");
         }
         return new ServiceResponse(json);
     }
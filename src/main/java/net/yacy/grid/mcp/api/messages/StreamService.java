@@ -0,0 +1,165 @@
+/**
+ *  StreamService
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp.api.messages;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+
+import net.yacy.grid.YaCyServices;
+import net.yacy.grid.http.APIHandler;
+import net.yacy.grid.http.ObjectAPIHandler;
+import net.yacy.grid.http.Query;
+import net.yacy.grid.http.RemoteAccess;
+import net.yacy.grid.http.ServiceResponse;
+import net.yacy.grid.io.messages.GridQueue;
+import net.yacy.grid.io.messages.MessageContainer;
+import net.yacy.grid.mcp.Data;
+
+/**
+ * Streaming variant of the receive service: one long-lived response delivers messages as binary frames
+ * until the queue was idle for the given timeout, the maximum number of messages was sent or the
+ * maximum duration of the stream is over. The duration is limited to MAX_DURATION, so a stream without
+ * a timeout does not hold a server thread for ever. Each frame consists of
+ * - the payload length as 4-byte integer
+ * - the delivery tag as 8-byte long
+ * - the payload bytes.
+ * The stream is terminated with a negative length, one of END_IDLE, END_LIMIT or END_ERROR.
+ * Messages are received with autoAck=false unless the client asks for autoAck=true; they can be acknowledged
+ * in batches with the deliveryTags attribute of the acknowledge service. Frames are counted as sent only
+ * when they were flushed to the client; the messages of a batch which could not be flushed are given back.
+ * test: call
+ * http://127.0.0.1:8100/yacy/grid/mcp/messages/stream.bin?serviceName=testService&queueName=testQueue&timeout=1000
+ */
+public class StreamService extends ObjectAPIHandler implements APIHandler {
+
+    private static final long serialVersionUID = 2715409176311418312L;
+    public static final String NAME = "stream";
+
+    public static final int END_IDLE  = -1; // the queue had no message within the timeout
+    public static final int END_LIMIT = -2; // the stream reached its maximum number of messages or duration
+    public static final int END_ERROR = -3; // the broker failed
+
+    public static final int DEFAULT_MAX_MESSAGES = 1000;
+    public static final long DEFAULT_DURATION = 30000;
+    public static final long MAX_DURATION = 300000;
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    public String getAPIPath() {
+        return "/yacy/grid/mcp/messages/" + NAME + ".bin";
+    }
+
+    @Override
+    public ServiceResponse serviceImpl(Query call, HttpServletResponse response) {
+        JSONObject json = new JSONObject(true);
+        json.put(ObjectAPIHandler.SUCCESS_KEY, false);
+        json.put(ObjectAPIHandler.COMMENT_KEY, "the stream service can only be used with a http connection");
+        return new ServiceResponse(json);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        stream(RemoteAccess.evaluate(request), response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Query query = RemoteAccess.evaluate(request);
+        query.initPOST(RemoteAccess.getPostMap(request));
+        stream(query, response);
+    }
+
+    private void stream(Query call, HttpServletResponse response) throws IOException {
+        long startTime = System.currentTimeMillis();
+        String serviceName = call.get("serviceName", "");
+        String queueName = call.get("queueName", "");
+        if (serviceName.length() == 0 || queueName.length() == 0) {
+            response.sendError(400, "the request must contain a serviceName and a queueName");
+            return;
+        }
+        YaCyServices service = YaCyServices.valueOf(serviceName);
+        GridQueue queue = new GridQueue(queueName);
+        boolean autoAck = "true".equals(call.get("autoAck", "false"));
+        long timeout = call.get("timeout", -1);
+        int maxMessages = call.get("maxMessages", DEFAULT_MAX_MESSAGES);
+        long duration = Math.min(MAX_DURATION, call.get("duration", DEFAULT_DURATION));
+        long end = startTime + duration;
+
+        response.setStatus(200);
+        response.setContentType("application/octet-stream");
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(response.getOutputStream(), 65536));
+        int count = 0;
+        int endMark = END_LIMIT;
+        while (count < maxMessages) {
+            long now = System.currentTimeMillis();
+            if (now >= end) break;
+            long wait = timeout < 0 ? end - now : Math.min(timeout, end - now);
+            List<MessageContainer<byte[]>> mcs;
+            try {
+                mcs = Data.gridBroker.receive(service, queue, Math.min(BATCH_SIZE, maxMessages - count), wait, autoAck);
+            } catch (IOException e) {
+                Data.logger.warn("StreamService: receive failed for queue " + queueName, e);
+                endMark = END_ERROR;
+                break;
+            }
+            if (mcs.size() == 0) {
+                if (timeout >= 0) {endMark = END_IDLE; break;}
+                continue;
+            }
+            try {
+                for (MessageContainer<byte[]> mc: mcs) {
+                    byte[] payload = mc.getPayload() == null ? new byte[0] : mc.getPayload();
+                    os.writeInt(payload.length);
+                    os.writeLong(mc.getDeliveryTag());
+                    os.write(payload);
+                }
+                os.flush();
+            } catch (IOException e) {
+                // the client went away; we do not know which frames of the batch reached it, so all are given back
+                for (MessageContainer<byte[]> mc: mcs) {
+                    try {
+                        if (autoAck) {
+                            // the broker forgot the message when it was received
+                            if (mc.getPayload() != null) Data.gridBroker.send(service, queue, mc.getPayload());
+                        } else {
+                            Data.gridBroker.reject(service, queue, mc.getDeliveryTag());
+                        }
+                    } catch (IOException ee) {
+                        Data.logger.warn("StreamService: message of queue " + queueName + " could not be given back", ee);
+                    }
+                }
+                logClient(startTime, call, 200, "stream broken after " + count + " messages: " + e.getMessage());
+                return;
+            }
+            count += mcs.size();
+        }
+        os.writeInt(endMark);
+        os.flush();
+        logClient(startTime, call, 200, "ok: streamed " + count + " messages");
+    }
+}
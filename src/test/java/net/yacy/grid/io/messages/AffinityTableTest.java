@@ -0,0 +1,137 @@
+/**
+ *  AffinityTableTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.yacy.grid.mcp.Data;
+
+public class AffinityTableTest {
+
+    private File dir;
+
+    @BeforeClass
+    public static void init() {
+        if (Data.logger == null) Data.logger = Logger.getLogger(AffinityTableTest.class);
+    }
+
+    @Before
+    public void open() throws IOException {
+        this.dir = Files.createTempDirectory("affinity").toFile();
+    }
+
+    @After
+    public void close() {
+        File[] files = this.dir.listFiles();
+        if (files != null) for (File f: files) f.delete();
+        this.dir.delete();
+    }
+
+    @Test
+    public void testPutGet() {
+        AffinityTable table = new AffinityTable(null, 1000);
+        assertEquals(-1, table.get(42));
+        table.put(42, 3, false);
+        table.put(0, 5, true); // 0 is a valid key, though it marks empty slots internally
+        assertEquals(3, AffinityTable.queue(table.get(42)));
+        assertFalse(AffinityTable.isSwitched(table.get(42)));
+        assertEquals(5, AffinityTable.queue(table.get(0)));
+        assertTrue(AffinityTable.isSwitched(table.get(0)));
+        table.put(42, 7, true);
+        assertEquals(7, AffinityTable.queue(table.get(42)));
+        assertTrue(AffinityTable.isSwitched(table.get(42)));
+        assertEquals(2, table.size());
+        table.close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        AffinityTable table = new AffinityTable(null, 8); // a single bucket
+        assertEquals(8, table.capacity());
+        for (long key = 1; key <= 8; key++) table.put(key, (int) key, false);
+        assertEquals(8, table.size());
+        table.get(1); // key 2 is now the least recently used one
+        table.put(9, 9, false);
+        assertEquals(8, table.size());
+        assertEquals(-1, table.get(2));
+        assertEquals(1, AffinityTable.queue(table.get(1)));
+        assertEquals(9, AffinityTable.queue(table.get(9)));
+        table.close();
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        AffinityTable table = new AffinityTable(null, 1000);
+        for (long key = 1; key <= 100000; key++) table.put(key * 0x9E3779B97F4A7C15L, (int) (key % 16), false);
+        assertTrue(table.size() <= table.capacity());
+        table.close();
+    }
+
+    @Test
+    public void testSnapshot() {
+        File file = new File(this.dir, "affinity.bin");
+        AffinityTable table = new AffinityTable(file, 1000);
+        for (long key = 1; key <= 500; key++) table.put(key, (int) (key % 16), key % 3 == 0);
+        table.close();
+        assertTrue(file.exists());
+
+        table = new AffinityTable(file, 1000);
+        assertEquals(500, table.size());
+        for (long key = 1; key <= 500; key++) {
+            int entry = table.get(key);
+            assertEquals(key % 16, AffinityTable.queue(entry));
+            assertEquals(key % 3 == 0, AffinityTable.isSwitched(entry));
+        }
+        table.close();
+    }
+
+    @Test
+    public void testBrokenSnapshot() throws IOException {
+        File file = new File(this.dir, "affinity.bin");
+        AffinityTable table = new AffinityTable(file, 1000);
+        for (long key = 1; key <= 100; key++) table.put(key, 1, false);
+        table.close();
+
+        // a cut snapshot keeps the entries which are complete
+        byte[] b = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), java.util.Arrays.copyOf(b, 4 + 12 * 50 + 5));
+        table = new AffinityTable(file, 1000);
+        assertEquals(50, table.size());
+        table.close();
+
+        // a file which is not a snapshot is ignored
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        table = new AffinityTable(file, 1000);
+        assertEquals(0, table.size());
+        table.close();
+    }
+}
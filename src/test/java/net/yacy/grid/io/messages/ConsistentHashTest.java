@@ -0,0 +1,79 @@
+/**
+ *  ConsistentHashTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import net.yacy.grid.YaCyServices;
+
+public class ConsistentHashTest {
+
+    private static GridQueue[] queues(int n) {
+        GridQueue[] queues = new GridQueue[n];
+        for (int i = 0; i < n; i++) queues[i] = new GridQueue("queue" + i);
+        return queues;
+    }
+
+    private static int index(PeerBroker broker, int n, String key) throws IOException {
+        GridQueue queue = broker.queueName(YaCyServices.crawler, queues(n), ShardingMethod.CONSISTENT_HASH, new int[]{n}, 0, key);
+        return Integer.parseInt(queue.name().substring(5));
+    }
+
+    @Test
+    public void testStable() throws IOException {
+        // the queue depends only on the key, so all peers compute the same queue
+        PeerBroker a = new PeerBroker(null, false, null, null, 10000);
+        PeerBroker b = new PeerBroker(null, false, null, null, 10000);
+        for (int i = 0; i < 1000; i++) {
+            String key = "host" + i + ".example.org";
+            assertEquals(index(a, 16, key), index(b, 16, key));
+        }
+    }
+
+    @Test
+    public void testDistribution() throws IOException {
+        PeerBroker broker = new PeerBroker(null, false, null, null, 10000);
+        int[] count = new int[8];
+        for (int i = 0; i < 16000; i++) count[index(broker, 8, "host" + i + ".example.org")]++;
+        for (int c: count) assertTrue("queue count " + c, c > 1600 && c < 2400);
+    }
+
+    @Test
+    public void testMinimalMovement() throws IOException {
+        // if a queue is added, only the keys which move to the new queue change their queue
+        PeerBroker broker = new PeerBroker(null, false, null, null, 10000);
+        int moved = 0;
+        for (int i = 0; i < 9000; i++) {
+            String key = "host" + i + ".example.org";
+            int before = index(broker, 8, key);
+            int after = index(broker, 9, key);
+            if (before != after) {
+                assertEquals(8, after);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 700 && moved < 1300);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ *  MessageCodecTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.yacy.grid.io.messages.MessageCodec.Codec;
+
+public class MessageCodecTest {
+
+    private static byte[] text(int size) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < size; i++) sb.append("{\"url\":\"http://yacy.net/page_").append(i % 17).append(".html\"},");
+        return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static void assertUndecodable(MessageCodec codec, byte[] b) {
+        try {
+            codec.decode(b);
+            fail("corrupt payload was decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (Codec c: Codec.values()) {
+            MessageCodec codec = new MessageCodec(c, 64);
+            for (int size: new int[]{0, 1, 63, 64, 65, 1000, 100000}) {
+                byte[] payload = text(size);
+                byte[] encoded = codec.encode(payload);
+                if (c != Codec.none && size >= 1000) assertTrue(c + ": text is compressed", encoded.length < payload.length);
+                assertArrayEquals(c + ": size " + size, payload, codec.decode(encoded));
+            }
+        }
+    }
+
+    @Test
+    public void testUncompressedPayloadIsUnchanged() throws IOException {
+        for (Codec c: Codec.values()) {
+            MessageCodec codec = new MessageCodec(c, 64);
+            byte[] small = text(10);
+            assertSame(small, codec.encode(small));
+            byte[] noise = random(1000, 1);
+            noise[0] = 0;
+            byte[] encoded = codec.encode(noise);
+            assertFalse(MessageCodec.isEncoded(encoded));
+            assertSame(noise, codec.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testPlainPayloadStartingWithMagic() throws IOException {
+        for (Codec c: Codec.values()) {
+            MessageCodec codec = new MessageCodec(c, 64);
+            for (byte[] payload: new byte[][]{{MessageCodec.MAGIC}, {MessageCodec.MAGIC, 0, 0}, text(10), text(1000), random(1000, 2)}) {
+                payload[0] = MessageCodec.MAGIC;
+                byte[] encoded = codec.encode(payload);
+                assertTrue(c + ": a payload starting with the magic byte must get a header", MessageCodec.isEncoded(encoded));
+                assertArrayEquals(payload, codec.decode(encoded));
+            }
+        }
+    }
+
+    @Test
+    public void testShortPayloadStartingWithMagicIsNotDecoded() throws IOException {
+        // a payload shorter than a header cannot be encoded, it was not written by a codec
+        MessageCodec codec = new MessageCodec(Codec.fast, 64);
+        byte[] payload = new byte[]{MessageCodec.MAGIC, 1, 0};
+        assertSame(payload, codec.decode(payload));
+    }
+
+    @Test
+    public void testTruncatedPayload() {
+        for (Codec c: Codec.values()) {
+            MessageCodec codec = new MessageCodec(c, 64);
+            byte[] payload = text(10000);
+            payload[0] = MessageCodec.MAGIC; // forces a header for the none codec
+            byte[] encoded = codec.encode(payload);
+            for (int cut: new int[]{1, 2, 7, encoded.length / 2, encoded.length - 6}) {
+                assertUndecodable(codec, Arrays.copyOf(encoded, encoded.length - cut));
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptHeader() {
+        MessageCodec codec = new MessageCodec(Codec.deflate, 64);
+        byte[] encoded = codec.encode(text(10000));
+
+        byte[] unknownCodec = encoded.clone();
+        unknownCodec[1] = 9;
+        assertUndecodable(codec, unknownCodec);
+
+        // a huge length must be refused before anything is allocated
+        for (int length: new int[]{-1, Integer.MAX_VALUE, 0x10000000}) {
+            byte[] badLength = encoded.clone();
+            badLength[2] = (byte) (length >>> 24);
+            badLength[3] = (byte) (length >>> 16);
+            badLength[4] = (byte) (length >>> 8);
+            badLength[5] = (byte) length;
+            assertUndecodable(codec, badLength);
+        }
+
+        byte[] headerOnly = Arrays.copyOf(encoded, 6);
+        assertUndecodable(codec, headerOnly);
+    }
+
+    @Test
+    public void testCorruptData() {
+        for (Codec c: new Codec[]{Codec.deflate, Codec.fast}) {
+            MessageCodec codec = new MessageCodec(c, 64);
+            byte[] payload = text(10000);
+            byte[] encoded = codec.encode(payload);
+            Random r = new Random(3);
+            for (int i = 0; i < 100; i++) {
+                byte[] corrupt = encoded.clone();
+                for (int j = 0; j < 4; j++) corrupt[6 + r.nextInt(corrupt.length - 6)] ^= (byte) (1 + r.nextInt(255));
+                try {
+                    // corrupt data may be decoded to something else, but it must not fail in another way
+                    codec.decode(corrupt);
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ *  SegmentLogQueueFactoryTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.io.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.yacy.grid.mcp.Data;
+
+public class SegmentLogQueueFactoryTest {
+
+    private File dir;
+    private SegmentLogQueueFactory factory;
+
+    @BeforeClass
+    public static void init() {
+        if (Data.logger == null) Data.logger = Logger.getLogger(SegmentLogQueueFactoryTest.class);
+    }
+
+    @Before
+    public void open() throws IOException {
+        this.dir = Files.createTempDirectory("segmentlog").toFile();
+        this.factory = new SegmentLogQueueFactory(this.dir, 256, 10);
+    }
+
+    @After
+    public void close() {
+        this.factory.close();
+        delete(this.dir);
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) for (File c: files) delete(c);
+        f.delete();
+    }
+
+    /**
+     * simulate a restart: the factory is closed and a new one is opened on the same files
+     */
+    private Queue<byte[]> reopen() throws IOException {
+        this.factory.close();
+        this.factory = new SegmentLogQueueFactory(this.dir, 256, 10);
+        return this.factory.getQueue("test");
+    }
+
+    private static byte[] message(int i) {
+        return ("message " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertMessage(int i, MessageContainer<byte[]> mc) {
+        if (mc == null) fail("message " + i + " is missing");
+        assertEquals("message " + i, new String(mc.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSendReceive() throws IOException {
+        Queue<byte[]> queue = this.factory.getQueue("test");
+        for (int i = 0; i < 50; i++) queue.send(message(i)); // spans several segments
+        assertEquals(50, queue.available());
+        for (int i = 0; i < 50; i++) assertMessage(i, queue.receive(1000, true));
+        assertNull(queue.receive(10, true));
+    }
+
+    @Test
+    public void testUnacknowledgedMessagesAreDeliveredAfterRestart() throws IOException {
+        Queue<byte[]> queue = this.factory.getQueue("test");
+        for (int i = 0; i < 20; i++) queue.send(message(i));
+        for (int i = 0; i < 10; i++) {
+            MessageContainer<byte[]> mc = queue.receive(1000, false);
+            assertMessage(i, mc);
+            if (i < 5) queue.acknowledge(mc.getDeliveryTag());
+        }
+
+        queue = reopen();
+        assertEquals(15, queue.available());
+        for (int i = 5; i < 20; i++) assertMessage(i, queue.receive(1000, false));
+        assertNull(queue.receive(10, false));
+    }
+
+    @Test
+    public void testIncompleteRecordIsTruncated() throws IOException {
+        Queue<byte[]> queue = this.factory.getQueue("test");
+        for (int i = 0; i < 3; i++) queue.send(message(i));
+        this.factory.close();
+
+        // a record which was written only partly before a crash: the length is there, the payload is not
+        File[] segments = new File(this.dir, "test").listFiles((d, name) -> name.endsWith(".log"));
+        assertEquals(1, segments.length);
+        long end = 3 * (8 + message(0).length);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            raf.seek(end);
+            raf.writeInt(message(3).length + 1);
+            raf.writeInt(0xBADC0DE);
+        }
+
+        queue = reopen();
+        assertEquals(3, queue.available());
+        queue.send(message(4));
+        for (int i: new int[]{0, 1, 2, 4}) assertMessage(i, queue.receive(1000, true));
+        assertNull(queue.receive(10, true));
+
+        queue = reopen();
+        assertNull("acknowledged messages are not delivered again", queue.receive(10, true));
+    }
+
+    @Test
+    public void testRejectAndRecover() throws IOException {
+        Queue<byte[]> queue = this.factory.getQueue("test");
+        for (int i = 0; i < 3; i++) queue.send(message(i));
+        MessageContainer<byte[]> m0 = queue.receive(1000, false);
+        queue.reject(m0.getDeliveryTag());
+        assertMessage(0, queue.receive(1000, false));
+        assertMessage(1, queue.receive(1000, false));
+        queue.recover();
+        assertMessage(0, queue.receive(1000, false));
+        assertMessage(1, queue.receive(1000, false));
+        MessageContainer<byte[]> m2 = queue.receive(1000, false);
+        assertMessage(2, m2);
+        queue.acknowledgeUpTo(m2.getDeliveryTag());
+
+        queue = reopen();
+        assertNull(queue.receive(10, false));
+    }
+
+    @Test
+    public void testAcknowledgeUnknownTag() throws IOException {
+        Queue<byte[]> queue = this.factory.getQueue("test");
+        queue.send(message(0));
+        MessageContainer<byte[]> mc = queue.receive(1000, false);
+        try {
+            queue.acknowledgeUpTo(mc.getDeliveryTag() + 1);
+            fail("a tag which was not delivered must not acknowledge anything");
+        } catch (IOException e) {
+            // expected
+        }
+        queue = reopen();
+        assertMessage(0, queue.receive(1000, false));
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ *  ConcurrencyLimitTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrencyLimitTest {
+
+    private static void interval(ConcurrencyLimit limit, int messages, long latency, long interval) {
+        for (int i = 0; i < messages; i++) limit.processed(latency);
+        limit.adjust(interval);
+    }
+
+    @Test
+    public void testBounds() {
+        assertEquals(2, new ConcurrencyLimit(1, 2, 8).getLimit());
+        assertEquals(8, new ConcurrencyLimit(20, 2, 8).getLimit());
+        assertEquals(1, new ConcurrencyLimit(0, 0, 0).getLimit());
+    }
+
+    @Test
+    public void testAcquire() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 4);
+        assertTrue(limit.acquire(10));
+        assertTrue(limit.acquire(10));
+        assertFalse("the limit is reached", limit.acquire(10));
+        limit.release();
+        assertTrue(limit.acquire(10));
+        assertEquals(2, limit.toJSON().getInt("active"));
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        // with a backlog and a stable latency the limit grows by one in each interval up to the maximum
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 5);
+        for (int i = 0; i < 10; i++) interval(limit, 100 + 10 * i, 10, 1000);
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void testNoIncreaseWithoutBacklog() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 5);
+        limit.missed();
+        interval(limit, 100, 10, 1000);
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void testNoChangeWithoutMessages() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(3, 1, 5);
+        limit.adjust(1000);
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    public void testMultiplicativeDecreaseOnLatency() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(8, 1, 8);
+        interval(limit, 100, 10, 1000);
+        // the latency rises far above the baseline
+        interval(limit, 100, 100, 1000);
+        assertEquals(6, limit.getLimit());
+        interval(limit, 100, 100, 1000);
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void testDecreaseOnThroughputDrop() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(4, 1, 8);
+        interval(limit, 100, 10, 1000);
+        assertEquals(5, limit.getLimit());
+        // after the increase, fewer messages are processed at the same latency
+        interval(limit, 50, 10, 1000);
+        assertEquals(3, limit.getLimit());
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *  DedupFilterTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class DedupFilterTest {
+
+    private static byte[] digest(int i) {
+        return DedupFilter.digest(("message " + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDigest() {
+        assertArrayEquals(digest(1), digest(1));
+        assertFalse(java.util.Arrays.equals(digest(1), digest(2)));
+    }
+
+    @Test
+    public void testContains() {
+        DedupFilter filter = new DedupFilter(1024 * 1024, 0.001d, 60000);
+        for (int i = 0; i < 1000; i++) filter.add(digest(i));
+        for (int i = 0; i < 1000; i++) assertTrue("no false negatives", filter.contains(digest(i)));
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) if (filter.contains(digest(i))) falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives <= 10);
+    }
+
+    @Test
+    public void testRotationByCapacity() {
+        // the smallest filter takes about 100 entries per generation at this rate
+        DedupFilter filter = new DedupFilter(0, 0.01d, 60000);
+        long capacity = filter.toJSON().getLong("capacity");
+        for (int i = 0; i < 3 * capacity; i++) {
+            filter.add(digest(i));
+            assertTrue(filter.contains(digest(i)));
+        }
+        assertTrue(filter.toJSON().getLong("rotations") >= 2);
+        assertTrue(filter.toJSON().getLong("entries") <= capacity);
+        // the entries of the current and the previous generation are still there
+        for (long i = 3 * capacity - capacity; i < 3 * capacity; i++) assertTrue(filter.contains(digest((int) i)));
+        // the false-positive rate does not grow with the number of entries
+        int falsePositives = 0;
+        for (int i = 100000; i < 101000; i++) if (filter.contains(digest(i))) falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives <= 100);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        DedupFilter filter = new DedupFilter(1024 * 1024, 0.001d, 200);
+        filter.add(digest(1));
+        Thread.sleep(120);
+        assertTrue("an entry is kept for at least half of the time to live", filter.contains(digest(1)));
+        Thread.sleep(220);
+        assertFalse("an entry is forgotten after the time to live", filter.contains(digest(1)));
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ *  QueueSchedulerTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.yacy.grid.io.messages.GridQueue;
+
+public class QueueSchedulerTest {
+
+    private static GridQueue[] queues(int n) {
+        GridQueue[] queues = new GridQueue[n];
+        for (int i = 0; i < n; i++) queues[i] = new GridQueue("queue" + i);
+        return queues;
+    }
+
+    @Test
+    public void testParse() {
+        assertArrayEquals(new int[]{24, 8}, QueueScheduler.parse("24, 8", new int[]{1}));
+        assertArrayEquals(new int[]{1}, QueueScheduler.parse("", new int[]{1}));
+        assertArrayEquals(new int[]{1}, QueueScheduler.parse(null, new int[]{1}));
+    }
+
+    @Test
+    public void testProbeFirst() {
+        // the queues are unknown at the start, so each is probed once
+        QueueScheduler scheduler = new QueueScheduler(queues(3), new int[]{3}, new int[]{1}, 60000);
+        Set<Integer> probed = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            int q = scheduler.next();
+            assertFalse(scheduler.hasBacklog(q));
+            probed.add(q);
+        }
+        assertEquals(3, probed.size());
+    }
+
+    @Test
+    public void testWeightedFair() {
+        // two dimensions with one queue each, the first one has three times the weight of the second
+        QueueScheduler scheduler = new QueueScheduler(queues(2), new int[]{1, 1}, new int[]{3, 1}, 60000);
+        scheduler.active(scheduler.next());
+        scheduler.active(scheduler.next());
+        int[] served = new int[2];
+        for (int i = 0; i < 400; i++) {
+            int q = scheduler.next();
+            assertTrue(scheduler.hasBacklog(q));
+            served[q]++;
+            scheduler.active(q);
+        }
+        assertTrue("served " + served[0] + ":" + served[1], served[0] >= 290 && served[0] <= 310);
+        assertEquals(2, scheduler.toJSON().length());
+        assertEquals(3, scheduler.toJSON().getJSONObject(0).getInt("weight"));
+    }
+
+    @Test
+    public void testIdleQueueIsSkipped() {
+        QueueScheduler scheduler = new QueueScheduler(queues(2), new int[]{2}, new int[]{1}, 60000);
+        int a = scheduler.next();
+        int b = scheduler.next();
+        scheduler.active(a);
+        scheduler.idle(b);
+        assertTrue(scheduler.isIdle(b));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(a, scheduler.next());
+            scheduler.active(a);
+        }
+    }
+
+    @Test
+    public void testIdleTimeOver() throws InterruptedException {
+        QueueScheduler scheduler = new QueueScheduler(queues(2), new int[]{2}, new int[]{1}, 50);
+        int a = scheduler.next();
+        int b = scheduler.next();
+        scheduler.active(a);
+        scheduler.idle(b);
+        Thread.sleep(100);
+        // the idle queue is probed again before the queue with a backlog is served
+        assertEquals(b, scheduler.next());
+        assertFalse(scheduler.isIdle(b));
+    }
+
+    @Test
+    public void testAllIdle() {
+        QueueScheduler scheduler = new QueueScheduler(queues(2), new int[]{2}, new int[]{1}, 60000);
+        scheduler.idle(scheduler.next());
+        scheduler.idle(scheduler.next());
+        // a thread waits on an idle queue; the next thread waits on the other one
+        int first = scheduler.next();
+        assertTrue(scheduler.isIdle(first));
+        int second = scheduler.next();
+        assertTrue(first != second);
+    }
+}
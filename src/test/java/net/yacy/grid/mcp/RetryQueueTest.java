@@ -0,0 +1,120 @@
+/**
+ *  RetryQueueTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.yacy.grid.YaCyServices;
+import net.yacy.grid.io.messages.GridBroker;
+import net.yacy.grid.io.messages.GridQueue;
+import net.yacy.grid.io.messages.MessageCodec;
+import net.yacy.grid.io.messages.MessageContainer;
+
+public class RetryQueueTest {
+
+    private final static GridQueue QUEUE = new GridQueue("retrytest");
+    private final static byte[] PAYLOAD = "{\"data\":[],\"actions\":[{\"type\":\"crawler\",\"queue\":\"retrytest\"}]}".getBytes(StandardCharsets.UTF_8);
+
+    private File dir;
+
+    @BeforeClass
+    public static void init() {
+        if (Data.logger == null) Data.logger = Logger.getLogger(RetryQueueTest.class);
+    }
+
+    @Before
+    public void open() throws IOException {
+        // a broker with only the local queues of the peer
+        this.dir = Files.createTempDirectory("retryqueue").toFile();
+        Data.gridBroker = new GridBroker(this.dir, false, true, 0, 0, 1, 0, 1, true, null, new MessageCodec(MessageCodec.Codec.none, 256), null, 10000, 0);
+    }
+
+    @After
+    public void close() throws IOException {
+        Data.gridBroker.close();
+        delete(this.dir);
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) for (File c: files) delete(c);
+        f.delete();
+    }
+
+    private static MessageContainer<byte[]> receive(GridQueue queue) throws IOException {
+        return Data.gridBroker.receive(YaCyServices.crawler, queue, 1, true);
+    }
+
+    @Test
+    public void testRetryAfterDelay() throws IOException, InterruptedException {
+        RetryQueue retryQueue = new RetryQueue("test", new long[]{200, 1000}, null);
+        retryQueue.schedule(YaCyServices.crawler, QUEUE, PAYLOAD, 1, "test");
+        assertEquals(1, retryQueue.toJSON().getJSONArray("pending").getInt(0));
+        assertNull("the retry is not sent before its delay", receive(QUEUE));
+        Thread.sleep(600);
+        MessageContainer<byte[]> mc = receive(QUEUE);
+        assertNotNull("the retry is sent after its delay", mc);
+        assertArrayEquals(PAYLOAD, mc.getPayload());
+        assertEquals(1, retryQueue.toJSON().getLong("retried"));
+        assertEquals(0, retryQueue.toJSON().getJSONArray("pending").getInt(0));
+        retryQueue.close();
+    }
+
+    @Test
+    public void testDeadLetterAfterLastAttempt() throws IOException {
+        RetryQueue retryQueue = new RetryQueue("test", new long[]{200, 1000}, null);
+        retryQueue.schedule(YaCyServices.crawler, QUEUE, PAYLOAD, 3, "failed three times");
+        assertNull(receive(QUEUE));
+        MessageContainer<byte[]> mc = receive(RetryQueue.deadLetterQueue(QUEUE));
+        assertNotNull("the message is in the dead-letter queue", mc);
+        JSONObject letter = new JSONObject(new String(mc.getPayload(), StandardCharsets.UTF_8));
+        assertEquals(QUEUE.name(), letter.getString("queue"));
+        assertEquals(3, letter.getInt("attempt"));
+        assertEquals("failed three times", letter.getString("reason"));
+        assertEquals(1, retryQueue.toJSON().getLong("deadLettered"));
+        retryQueue.close();
+    }
+
+    @Test
+    public void testCloseWithoutStoreSendsPending() throws IOException {
+        // without a database the pending retries would be lost, so they are sent at once
+        RetryQueue retryQueue = new RetryQueue("test", new long[]{60000}, null);
+        retryQueue.schedule(YaCyServices.crawler, QUEUE, PAYLOAD, 1, "test");
+        retryQueue.close();
+        MessageContainer<byte[]> mc = receive(QUEUE);
+        assertNotNull(mc);
+        assertArrayEquals(PAYLOAD, mc.getPayload());
+    }
+}
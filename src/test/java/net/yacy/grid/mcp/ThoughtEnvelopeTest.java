@@ -0,0 +1,167 @@
+/**
+ *  ThoughtEnvelopeTest
+ *  Copyright 17.10.2026 by Michael Peter Christen, @0rb1t3r
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.grid.mcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import ai.susi.mind.SusiAction;
+
+public class ThoughtEnvelopeTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void assertUnparseable(byte[] payload) {
+        try {
+            ThoughtEnvelope.parse(payload);
+            fail("wrong payload was parsed: " + string(payload));
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScanJSON() {
+        String data = "[{\"text\":\"a } ] , \\\"data\\\": [\"}, {\"n\": [1, {\"x\": null}]}]";
+        byte[] payload = bytes("{\"data\":" + data + ",\"actions\":[{\"type\":\"parser\",\"queue\":\"q\"}]}");
+        ThoughtEnvelope envelope = ThoughtEnvelope.parse(payload);
+        assertEquals(data, string(envelope.getDataBytes()));
+        assertEquals(1, envelope.getActions().size());
+        assertEquals("q", envelope.getActions().get(0).getStringAttr("queue"));
+        assertSame(payload, envelope.getPayload(false));
+        assertNull(envelope.getPayload(true));
+        assertEquals("a } ] , \"data\": [", envelope.getData().getJSONObject(0).getString("text"));
+        assertNull("the payload is not valid after the data was parsed", envelope.getPayload(false));
+    }
+
+    @Test
+    public void testScanKeyOrderAndWhitespace() {
+        byte[] payload = bytes(" {\n \"actions\" : [ {\"type\":\"loader\"} ] ,\t\"id\" : {\"data\":[0]}, \"ok\": true, \"data\" : [ 1 , 2 ] }\r\n");
+        ThoughtEnvelope envelope = ThoughtEnvelope.parse(payload);
+        assertEquals("[ 1 , 2 ]", string(envelope.getDataBytes()));
+        assertEquals(1, envelope.getActions().size());
+        assertEquals(2, envelope.getData().length());
+    }
+
+    @Test
+    public void testScanDeepNesting() {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 100; i++) data.append(i % 2 == 0 ? "[" : "{\"a\":");
+        for (int i = 99; i >= 0; i--) data.append(i % 2 == 0 ? "]" : "}");
+        ThoughtEnvelope envelope = ThoughtEnvelope.parse(bytes("{\"data\":" + data + ",\"actions\":[]}"));
+        assertEquals(data.toString(), string(envelope.getDataBytes()));
+        assertUnparseable(bytes("{\"data\":" + data.substring(0, data.length() - 1) + "},\"actions\":[]}"));
+    }
+
+    @Test
+    public void testScanMissingSections() {
+        ThoughtEnvelope envelope = ThoughtEnvelope.parse(bytes("{\"actions\":[{\"type\":\"loader\"}]}"));
+        assertEquals("[]", string(envelope.getDataBytes()));
+        assertEquals(0, envelope.getData().length());
+
+        envelope = ThoughtEnvelope.parse(bytes("{\"data\":[1]}"));
+        assertEquals(0, envelope.getActions().size());
+
+        envelope = ThoughtEnvelope.parse(bytes("{}"));
+        assertEquals(0, envelope.getActions().size());
+        assertEquals(0, envelope.getData().length());
+
+        // a data section which is not an array is ignored, like in a SusiThought
+        envelope = ThoughtEnvelope.parse(bytes("{\"data\":{\"a\":1},\"actions\":[]}"));
+        assertEquals(0, envelope.getData().length());
+    }
+
+    @Test
+    public void testScanWrongForm() {
+        assertUnparseable(bytes(""));
+        assertUnparseable(bytes("[1,2]"));
+        assertUnparseable(bytes("{\"data\":[1,2"));
+        assertUnparseable(bytes("{\"data\":[1,2],\"actions\":[{\"type\":\"loader\"}"));
+        assertUnparseable(bytes("{\"data\":\"unterminated}"));
+        assertUnparseable(bytes("{\"data\":[1],\"actions\":{]}"));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        SusiAction action = new SusiAction(new JSONObject(true).put("type", "indexer").put("queue", "elastic"));
+        byte[] data = bytes("[{\"url\":\"http://yacy.net\"}]");
+        byte[] binary = ThoughtEnvelope.toBytes(action, data, true);
+        assertTrue(ThoughtEnvelope.isEnvelope(binary));
+        ThoughtEnvelope envelope = ThoughtEnvelope.parse(binary);
+        assertArrayEquals(data, envelope.getDataBytes());
+        assertEquals("elastic", envelope.getActions().get(0).getStringAttr("queue"));
+        assertSame(binary, envelope.getPayload(true));
+
+        // the json translation must be the same as a message which was written as json
+        byte[] json = ThoughtEnvelope.toBytes(action, data, false);
+        assertArrayEquals(json, ThoughtEnvelope.toJSON(binary));
+        assertSame(json, ThoughtEnvelope.toJSON(json));
+        JSONObject thought = new JSONObject(string(json));
+        assertEquals("http://yacy.net", thought.getJSONArray("data").getJSONObject(0).getString("url"));
+    }
+
+    @Test
+    public void testBinaryWrongForm() {
+        SusiAction action = new SusiAction(new JSONObject(true).put("type", "indexer"));
+        byte[] binary = ThoughtEnvelope.toBytes(action, bytes("[1,2,3]"), true);
+
+        byte[] version = binary.clone();
+        version[1] = 2;
+        assertUnparseable(version);
+
+        for (int cut = 1; cut < binary.length - 10; cut++) {
+            byte[] truncated = new byte[binary.length - cut];
+            System.arraycopy(binary, 0, truncated, 0, truncated.length);
+            assertUnparseable(truncated);
+            assertSame("a broken envelope is not translated", truncated, ThoughtEnvelope.toJSON(truncated));
+        }
+    }
+
+    @Test
+    public void testAttempt() {
+        JSONArray actions = new JSONArray().put(new JSONObject(true).put("type", "loader")).put(new JSONObject(true).put("type", "parser"));
+        ThoughtEnvelope envelope = new ThoughtEnvelope(actions, bytes("[]"));
+        assertEquals(0, envelope.getAttempt());
+        for (boolean binary: new boolean[]{true, false}) {
+            ThoughtEnvelope retried = ThoughtEnvelope.parse(envelope.toBytes(3, binary));
+            assertEquals(3, retried.getAttempt());
+            assertEquals(2, retried.getActions().size());
+            assertEquals("[]", string(retried.getDataBytes()));
+        }
+        assertEquals("the original actions are not changed", 0, envelope.getAttempt());
+    }
+}